@@ -0,0 +1,453 @@
+package uk.ac.york.minesweeper;
+
+import java.awt.Graphics2D;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Checks that playing and painting a game does not allocate memory once it is running
+ *
+ * A {@link MinefieldPanel} plays a few thousand simulated mouse clicks (uncovering, chording
+ * and cycling marks) and is painted after each one. After a warm-up, the bytes allocated by
+ * the event dispatch thread (handling the clicks, taking updates and painting) and by the
+ * game thread (making the moves and publishing snapshots) are counted using the panel's
+ * {@link UiDiagnostics}.
+ *
+ * The event dispatch thread must not allocate anything. No group of moves on the game thread
+ * may allocate more than {@link #GROUP_ALLOWANCE} bytes. The board is a single page, so this
+ * is one copy of each kind of page a move can change, the page tables and the new snapshot.
+ * The pages must be copied because the last published snapshot shares them, which is what
+ * lets the event dispatch thread read snapshots without locking. A mark or uncover copies
+ * at most the visible state and neighbour count pages (about 13 KB in all), so copying any
+ * other page fails the check. Apart from the arrays copied on write, no group may allocate
+ * more than {@link #PUBLISH_ALLOWANCE} bytes, so garbage made while publishing fails the
+ * check too.
+ *
+ * Run with:
+ * <pre>
+ * java -cp bin uk.ac.york.minesweeper.AllocationCheck
+ * </pre>
+ * The exit status is 0 if the check passes, 1 if it fails (or cannot be run) and 2 if the JVM
+ * cannot count the bytes allocated by each thread. The mouse events are given straight to the
+ * panel's mouse listener, so allocations made by AWT when it delivers events are not counted.
+ */
+public final class AllocationCheck
+{
+    /**
+     * Size of the board (a single page of 4096 tiles, which is still large enough to keep
+     * uncovering tiles until the end)
+     */
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+    private static final int MINES = 768;
+
+    /**
+     * Number of moves made before and while measuring (the warm-up is long enough for the JIT
+     * compiler to remove the temporary objects Swing and Java2D create)
+     */
+    private static final int WARM_UP_MOVES = 12000;
+    private static final int MEASURED_MOVES = 5000;
+
+    /** One in this many clicks on a covered safe tile uncovers it (the rest cycle its mark) */
+    private static final int UNCOVER_CHANCE = 8;
+
+    /** Whole board is painted every this many moves (otherwise just around the move) */
+    private static final int FULL_PAINT_INTERVAL = 100;
+
+    /** Safe tiles left covered so the game never finishes */
+    private static final int SAFE_TILES_LEFT = 50;
+
+    /**
+     * Bytes one group of moves may allocate: one page each of visible states (one byte per
+     * tile) and neighbour counts (two bytes per tile) with their headers, the six page tables
+     * (one entry each) and publishing the update. These are the only pages a move changes once
+     * the mines have been placed, since the panel's minefield calculates all the values then.
+     */
+    private static final int GROUP_ALLOWANCE = (4096 + 16) + (8192 + 16) + 6 * 24 + 1024;
+
+    /**
+     * Bytes one group of moves may allocate apart from the arrays copied on write (the
+     * snapshot and the event waking the EDT take 712 to 776 bytes on 64-bit HotSpot)
+     */
+    private static final int PUBLISH_ALLOWANCE = 1024;
+
+    /** Size of an array header (64-bit HotSpot with compressed pointers) */
+    private static final int ARRAY_HEADER = 16;
+
+    /** The panel being checked (only used on the EDT after creation) */
+    private MinefieldPanel panel;
+    private UiDiagnostics diagnostics;
+    private GameThread gameThread;
+    private MouseListener mouseListener;
+
+    /** Image painted into and its graphics */
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    /** Mouse events for each tile (created before measuring) */
+    private MouseEvent[] leftPresses;
+    private MouseEvent[] leftReleases;
+    private MouseEvent[] doubleReleases;
+    private MouseEvent[] rightPresses;
+
+    /** Chooses the moves */
+    private final Random random = new Random(1);
+
+    /** Tile clicked by the last move and whether it submitted a move (written on the EDT) */
+    private int lastTile;
+    private boolean lastSubmitted;
+
+    /** Counts of what was done while measuring and the bytes allocated handling clicks (EDT only) */
+    private int moves;
+    private int uncovers;
+    private int chords;
+    private int marks;
+    private int paints;
+    private long inputAllocated;
+
+    /**
+     * Most bytes allocated by one group of moves, in all and apart from the arrays copied
+     * on write (updated by the main thread)
+     */
+    private long maxGroupAllocated;
+    private long maxGroupUncopied;
+
+    private AllocationCheck()
+    {
+    }
+
+    /**
+     * Runs the check
+     *
+     * @param args ignored
+     */
+    public static void main(String[] args)
+    {
+        if (!UiDiagnostics.isAllocationCountingSupported())
+        {
+            System.err.println("This JVM cannot count the bytes allocated by each thread");
+            System.exit(2);
+        }
+
+        // Always exit (the event dispatch thread would keep the JVM running after an error)
+        int status = 1;
+
+        try
+        {
+            status = new AllocationCheck().run() ? 0 : 1;
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Plays the moves and compares the allocations with the allowances
+     *
+     * @return true if the check passed
+     */
+    private boolean run() throws InterruptedException, InvocationTargetException
+    {
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                setUp();
+            }
+        });
+
+        Runnable step = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long start = UiDiagnostics.getThreadAllocatedBytes();
+                makeMove();
+                inputAllocated += UiDiagnostics.getThreadAllocatedBytes() - start;
+            }
+        };
+
+        Runnable paint = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                paint();
+            }
+        };
+
+        Runnable restartMeasuring = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Clears all the totals
+                diagnostics.setEnabled(false);
+                diagnostics.setEnabled(true);
+                inputAllocated = 0;
+                maxGroupAllocated = 0;
+                maxGroupUncopied = 0;
+                moves = 0;
+                uncovers = 0;
+                chords = 0;
+                marks = 0;
+                paints = 0;
+            }
+        };
+
+        // Warm up (this places the mines, grows the buffers and compiles the code)
+        SwingUtilities.invokeAndWait(restartMeasuring);
+
+        for (int i = 0; i < WARM_UP_MOVES; i++)
+            playStep(step, paint);
+
+        SwingUtilities.invokeAndWait(restartMeasuring);
+
+        for (int i = 0; i < MEASURED_MOVES; i++)
+            playStep(step, paint);
+
+        final long[] edtTotals = new long[2];
+
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                edtTotals[0] = diagnostics.getTotalUpdateAllocated();
+                edtTotals[1] = diagnostics.getTotalPaintAllocated();
+                diagnostics.setEnabled(false);
+            }
+        });
+
+        long groups = gameThread.getMeasuredGroups();
+        long gameAllocated = gameThread.getTotalAllocatedBytes();
+        long copiedArrays = gameThread.getTotalCopiedArrays();
+        long copiedBytes = gameThread.getTotalCopiedBytes();
+
+        boolean edtPassed = (inputAllocated == 0 && edtTotals[0] == 0 && edtTotals[1] == 0);
+        boolean gamePassed = (maxGroupAllocated <= GROUP_ALLOWANCE && maxGroupUncopied <= PUBLISH_ALLOWANCE);
+
+        System.out.println(String.format("Measured %d clicks (%d uncovers, %d chords, %d marks) and %d paints",
+                moves, uncovers, chords, marks, paints));
+        System.out.println(String.format("Event dispatch thread: %d bytes handling clicks, %d bytes taking updates, %d bytes painting (allowed 0) %s",
+                inputAllocated, edtTotals[0], edtTotals[1], edtPassed ? "OK" : "FAILED"));
+        System.out.println(String.format("Game thread: %d bytes for %d groups of moves (%d arrays, %d bytes copied on write)",
+                gameAllocated, groups, copiedArrays, copiedBytes));
+        System.out.println(String.format("Largest group: %d bytes (allowed %d), %d bytes apart from copied arrays (allowed %d) %s",
+                maxGroupAllocated, GROUP_ALLOWANCE, maxGroupUncopied, PUBLISH_ALLOWANCE, gamePassed ? "OK" : "FAILED"));
+
+        return edtPassed && gamePassed;
+    }
+
+    /**
+     * Makes one move and paints the result
+     */
+    private void playStep(Runnable step, Runnable paint) throws InterruptedException, InvocationTargetException
+    {
+        long groups = gameThread.getMeasuredGroups();
+        long allocated = gameThread.getTotalAllocatedBytes();
+        long copiedArrays = gameThread.getTotalCopiedArrays();
+        long copiedBytes = gameThread.getTotalCopiedBytes();
+
+        SwingUtilities.invokeAndWait(step);
+
+        // Wait for the game thread to make the move (it has posted its update to the EDT
+        //  before the group is counted, so the update is taken before the paint)
+        if (lastSubmitted)
+        {
+            while (gameThread.getMeasuredGroups() == groups)
+                Thread.yield();
+
+            // Each click is one group of moves
+            allocated = gameThread.getTotalAllocatedBytes() - allocated;
+            copiedArrays = gameThread.getTotalCopiedArrays() - copiedArrays;
+            copiedBytes = gameThread.getTotalCopiedBytes() - copiedBytes;
+
+            maxGroupAllocated = Math.max(maxGroupAllocated, allocated);
+            maxGroupUncopied = Math.max(maxGroupUncopied, allocated - copiedBytes - copiedArrays * ARRAY_HEADER);
+        }
+
+        SwingUtilities.invokeAndWait(paint);
+    }
+
+    /**
+     * Creates the panel and the mouse events (on the EDT)
+     */
+    private void setUp()
+    {
+        panel = new MinefieldPanel(new Minefield(new GridTopology(WIDTH, HEIGHT), MINES, 1));
+        panel.setSize(panel.getPreferredSize());
+        diagnostics = panel.getDiagnostics();
+        gameThread = panel.getGameThread();
+        mouseListener = panel.getMouseListeners()[0];
+
+        image = new BufferedImage(panel.getWidth(), panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+
+        int tiles = WIDTH * HEIGHT;
+        leftPresses = new MouseEvent[tiles];
+        leftReleases = new MouseEvent[tiles];
+        doubleReleases = new MouseEvent[tiles];
+        rightPresses = new MouseEvent[tiles];
+
+        for (int tile = 0; tile < tiles; tile++)
+        {
+            int x = (tile % WIDTH) * MinefieldPanel.TILE_SIZE + MinefieldPanel.TILE_SIZE / 2;
+            int y = (tile / WIDTH) * MinefieldPanel.TILE_SIZE + MinefieldPanel.TILE_SIZE / 2;
+
+            leftPresses[tile] = mouseEvent(MouseEvent.MOUSE_PRESSED, x, y, 1, MouseEvent.BUTTON1);
+            leftReleases[tile] = mouseEvent(MouseEvent.MOUSE_RELEASED, x, y, 1, MouseEvent.BUTTON1);
+            doubleReleases[tile] = mouseEvent(MouseEvent.MOUSE_RELEASED, x, y, 2, MouseEvent.BUTTON1);
+            rightPresses[tile] = mouseEvent(MouseEvent.MOUSE_PRESSED, x, y, 1, MouseEvent.BUTTON3);
+        }
+    }
+
+    /**
+     * Creates a mouse event on the panel
+     */
+    private MouseEvent mouseEvent(int id, int x, int y, int clickCount, int button)
+    {
+        int modifiers = (button == MouseEvent.BUTTON1) ? InputEvent.BUTTON1_DOWN_MASK : InputEvent.BUTTON3_DOWN_MASK;
+
+        return new MouseEvent(panel, id, 0, modifiers, x, y, clickCount, false, button);
+    }
+
+    /**
+     * Chooses a move and clicks on the panel (on the EDT)
+     */
+    private void makeMove()
+    {
+        Minefield minefield = panel.getSnapshot();
+        int tile = random.nextInt(minefield.getTileCount());
+
+        lastTile = tile;
+        lastSubmitted = true;
+        moves++;
+
+        // The first click starts the game
+        if (minefield.getGameState() == GameState.NOT_STARTED)
+        {
+            click(tile, false);
+            return;
+        }
+
+        switch (minefield.getTileState(tile))
+        {
+            case COVERED:
+                // Sometimes uncover safe tiles (until there are only a few left)
+                if (random.nextInt(UNCOVER_CHANCE) == 0 && minefield.getTileValue(tile) >= 0 &&
+                    minefield.getMines() + SAFE_TILES_LEFT < coveredTiles(minefield))
+                {
+                    click(tile, false);
+                    uncovers++;
+                    return;
+                }
+
+                mouseListener.mousePressed(rightPresses[tile]);
+                marks++;
+                return;
+
+            case FLAGGED:
+            case QUESTION:
+                mouseListener.mousePressed(rightPresses[tile]);
+                marks++;
+                return;
+
+            default:
+                // Chord numbers whose flags are all correct (or which have no flags, when the
+                //  chord does nothing but still goes through the game thread)
+                if (flagsCorrect(minefield, tile))
+                {
+                    click(tile, true);
+                    chords++;
+                    return;
+                }
+
+                lastSubmitted = false;
+                return;
+        }
+    }
+
+    /**
+     * Clicks (or double clicks) on a tile
+     */
+    private void click(int tile, boolean chord)
+    {
+        mouseListener.mousePressed(leftPresses[tile]);
+        mouseListener.mouseReleased(chord ? doubleReleases[tile] : leftReleases[tile]);
+    }
+
+    /**
+     * Returns true if all the flags around a tile are on mines
+     */
+    private static boolean flagsCorrect(Minefield minefield, int tile)
+    {
+        int x = tile % WIDTH;
+        int y = tile / WIDTH;
+
+        for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, WIDTH - 1); nx++)
+        {
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, HEIGHT - 1); ny++)
+            {
+                int neighbour = ny * WIDTH + nx;
+
+                if (minefield.getVisibleTile(neighbour) == Minefield.VISIBLE_FLAGGED &&
+                    minefield.getTileValue(neighbour) >= 0)
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Counts the tiles which are not uncovered
+     */
+    private static int coveredTiles(Minefield minefield)
+    {
+        int covered = 0;
+
+        for (int i = 0; i < minefield.getTileCount(); i++)
+        {
+            if (minefield.getVisibleTile(i) < Minefield.VISIBLE_MINE)
+                covered++;
+        }
+
+        return covered;
+    }
+
+    /**
+     * Paints the panel around the last move, or all of it every few moves (on the EDT)
+     */
+    private void paint()
+    {
+        int size = MinefieldPanel.TILE_SIZE;
+
+        if (moves % FULL_PAINT_INTERVAL == 0)
+        {
+            graphics.setClip(0, 0, image.getWidth(), image.getHeight());
+        }
+        else
+        {
+            int x = (lastTile % WIDTH) * size;
+            int y = (lastTile / WIDTH) * size;
+
+            graphics.setClip(x - 2 * size, y - 2 * size, 5 * size, 5 * size);
+        }
+
+        panel.paintComponent(graphics);
+        paints++;
+    }
+}
@@ -0,0 +1,771 @@
+package uk.ac.york.minesweeper;
+
+import java.util.Random;
+
+/**
+ * An alternative rectangular minefield engine designed for bulk simulation
+ *
+ * Each property of the tiles (mines, uncovered, flags, ...) is stored as a bitboard with one bit per
+ * tile, so most operations work on 64 tiles at a time:
+ * <ul>
+ * <li>Neighbour counts are calculated by shifting the mine bitboard in each direction and
+ *     adding the results together with a bit-sliced adder (4 bit planes)</li>
+ * <li>Flood fills are done by repeatedly dilating the filled area, masked by the zero tiles</li>
+ * </ul>
+ *
+ * The public methods behave in the same way as those in {@link Minefield}, but this class shares
+ * no type with it. It cannot be passed to {@link VectorEnvironment}, {@link Tournament} or
+ * {@link MinefieldPanel}, and it has no topologies, tile indexes, snapshots or change tracking.
+ * The same seed and first click also place different mines from a {@link Minefield}.
+ *
+ * {@link #main(String[])} compares mine generation and full board openings with {@link Minefield}.
+ */
+public class BitboardMinefield
+{
+    // Dimensions of the minefield
+    private final int width;
+    private final int height;
+
+    // Number of longs used for each row
+    private final int wordsPerRow;
+
+    // Mask of valid bits in the last word of each row
+    private final long lastWordMask;
+
+    // Number of mines
+    private final int mines;
+
+    // Seed used to place the mines
+    private final long seed;
+
+    // Tile bitboards
+    private final long[] mineBits;
+    private final long[] uncoveredBits;
+    private final long[] flaggedBits;
+    private final long[] questionBits;
+
+    // Non-mine tiles with no surrounding mines
+    private final long[] zeroBits;
+
+    // Bit planes of the number of surrounding mines (countBits[0] is the least significant)
+    private final long[][] countBits = new long[4][];
+
+    // Temporary bitboard used for flood filling (always cleared after use)
+    private final long[] fillBits;
+
+    // Number of extra tiles which need to uncovered to win
+    private int tilesLeft;
+
+    // If true, uncovers mines when the game finishes
+    private boolean uncoverMinesAtEnd = true;
+
+    // State of the game
+    private GameState gameState = GameState.NOT_STARTED;
+
+    /**
+     * Initializes a new BitboardMinefield with a random seed
+     *
+     * @param width width of the minefield in tiles
+     * @param height height of the minefield in tiles
+     * @param mines number of mines
+     */
+    public BitboardMinefield(int width, int height, int mines)
+    {
+        this(width, height, mines, new Random().nextLong());
+    }
+
+    /**
+     * Initializes a new BitboardMinefield
+     *
+     * The mine locations are not allocated until the first click is made.
+     * Two minefields with the same seed and first click have the same mine locations.
+     *
+     * @param width width of the minefield in tiles
+     * @param height height of the minefield in tiles
+     * @param mines number of mines
+     * @param seed seed used to place mines
+     */
+    public BitboardMinefield(int width, int height, int mines, long seed)
+    {
+        int tilesLeft = GridTopology.checkedArea(width, height) - mines;
+
+        // Validate arguments
+        if (mines < 0)
+            throw new IllegalArgumentException("invalid minefield dimensions");
+
+        if (tilesLeft <= 0)
+            throw new IllegalArgumentException("too many mines");
+
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.lastWordMask = -1L >>> (wordsPerRow * 64 - width);
+        this.mines = mines;
+        this.seed = seed;
+        this.tilesLeft = tilesLeft;
+
+        int words = wordsPerRow * height;
+        this.mineBits = new long[words];
+        this.uncoveredBits = new long[words];
+        this.flaggedBits = new long[words];
+        this.questionBits = new long[words];
+        this.zeroBits = new long[words];
+        this.fillBits = new long[words];
+
+        for (int i = 0; i < countBits.length; i++)
+            countBits[i] = new long[words];
+    }
+
+    /**
+     * Gets the width of the minefield in tiles
+     *
+     * @return width of the minefield
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Gets the height of the minefield in tiles
+     *
+     * @return height of the minefield
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Gets the total number of mines in the minefield
+     *
+     * @return total number of mines
+     */
+    public int getMines()
+    {
+        return mines;
+    }
+
+    /**
+     * Gets the seed used to place the mines
+     *
+     * @return the seed
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Gets a value which is true if all mines are uncovered at the end of the game
+     *
+     * @return true if mines are uncovered at the end
+     */
+    public boolean isUncoveringMinesAtEnd()
+    {
+        return uncoverMinesAtEnd;
+    }
+
+    /**
+     * Sets a value determining whether mines are uncovered at the end of the game
+     *
+     * @param uncoverMinesAtEnd true if mines are uncovered at the end
+     */
+    public void setUncoverMinesAtEnd(boolean uncoverMinesAtEnd)
+    {
+        this.uncoverMinesAtEnd = uncoverMinesAtEnd;
+    }
+
+    /**
+     * Gets the current state of the game
+     *
+     * @return the state of the game
+     */
+    public GameState getGameState()
+    {
+        return gameState;
+    }
+
+    /**
+     * Returns true if the game has finished
+     *
+     * @return true if the game has finished
+     */
+    public boolean isFinished()
+    {
+        return gameState != GameState.RUNNING && gameState != GameState.NOT_STARTED;
+    }
+
+    /**
+     * Gets the index of the word containing the given tile (checking the coordinates)
+     */
+    private int wordIndex(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            throw new IndexOutOfBoundsException("no tile at (" + x + ", " + y + ")");
+
+        return y * wordsPerRow + (x >>> 6);
+    }
+
+    /**
+     * Tests if a bit in a bitboard is set
+     */
+    private static boolean testBit(long[] bits, int word, int x)
+    {
+        return (bits[word] & (1L << x)) != 0;
+    }
+
+    /**
+     * Gets the value of the given tile (mine / surrounding mines)
+     *
+     * This should only be called AFTER the first tile is clicked (or when a tile is uncovered)
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @return value of that tile (-1 = mine)
+     */
+    public int getTileValue(int x, int y)
+    {
+        int word = wordIndex(x, y);
+
+        if (gameState == GameState.NOT_STARTED)
+            throw new IllegalStateException("you must call uncover at least once before using getTileValue");
+
+        if (testBit(mineBits, word, x))
+            return -1;
+
+        int value = 0;
+        for (int plane = 0; plane < countBits.length; plane++)
+        {
+            if (testBit(countBits[plane], word, x))
+                value |= 1 << plane;
+        }
+
+        return value;
+    }
+
+    /**
+     * Gets the state of the given tile
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @return state of that tile
+     */
+    public TileState getTileState(int x, int y)
+    {
+        int word = wordIndex(x, y);
+
+        if (testBit(uncoveredBits, word, x))
+            return TileState.UNCOVERED;
+        if (testBit(flaggedBits, word, x))
+            return TileState.FLAGGED;
+        if (testBit(questionBits, word, x))
+            return TileState.QUESTION;
+
+        return TileState.COVERED;
+    }
+
+    /**
+     * Updates the state of the given tile
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @param newState the tile's new state
+     * @see Minefield#setTileState(int, int, TileState)
+     */
+    public void setTileState(int x, int y, TileState newState)
+    {
+        if (isFinished())
+            throw new IllegalStateException("the game has finished");
+
+        int word = wordIndex(x, y);
+        long bit = 1L << x;
+
+        switch (newState)
+        {
+            case COVERED:
+            case FLAGGED:
+            case QUESTION:
+                // Set unless we're recovering a tile
+                if ((uncoveredBits[word] & bit) != 0)
+                    throw new UnsupportedOperationException("you cannot cover a tile once uncovered");
+
+                flaggedBits[word] &= ~bit;
+                questionBits[word] &= ~bit;
+
+                if (newState == TileState.FLAGGED)
+                    flaggedBits[word] |= bit;
+                else if (newState == TileState.QUESTION)
+                    questionBits[word] |= bit;
+                break;
+
+            case UNCOVERED:
+                // Forward to uncover
+                uncover(x, y);
+                break;
+
+            default:
+                throw new IllegalArgumentException("newState is not a valid tile state");
+        }
+    }
+
+    /**
+     * Uncovers the tile at the given location
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @see Minefield#uncover(int, int)
+     */
+    public void uncover(int x, int y)
+    {
+        if (isFinished())
+            throw new IllegalStateException("the game has finished");
+
+        wordIndex(x, y);
+
+        // New game?
+        if (gameState == GameState.NOT_STARTED)
+        {
+            initValues(x, y);
+            gameState = GameState.RUNNING;
+        }
+
+        uncoverNoChecks(x, y);
+    }
+
+    /**
+     * Uncovers the given tile and surrounding tiles without performing state checks
+     */
+    private void uncoverNoChecks(int x, int y)
+    {
+        int word = y * wordsPerRow + (x >>> 6);
+        long bit = 1L << x;
+
+        // Ignore if already uncovered
+        if ((uncoveredBits[word] & bit) != 0)
+            return;
+
+        if ((mineBits[word] & bit) != 0)
+        {
+            // Hit a mine
+            uncoveredBits[word] |= bit;
+            flaggedBits[word] &= ~bit;
+            questionBits[word] &= ~bit;
+            gameState = GameState.LOST;
+            uncoverAllMines();
+            return;
+        }
+
+        if ((zeroBits[word] & bit) != 0)
+        {
+            // Uncover the whole opening
+            floodFill(x, y);
+        }
+        else
+        {
+            uncoveredBits[word] |= bit;
+            flaggedBits[word] &= ~bit;
+            questionBits[word] &= ~bit;
+            tilesLeft--;
+        }
+
+        if (tilesLeft <= 0 && gameState == GameState.RUNNING)
+        {
+            // Uncovered all the non-mines!
+            gameState = GameState.WON;
+            uncoverAllMines();
+        }
+    }
+
+    /**
+     * Attempts to chord using the given central position
+     *
+     * @param x x position of central tile
+     * @param y y position of central tile
+     * @see Minefield#chord(int, int)
+     */
+    public void chord(int x, int y)
+    {
+        if (isFinished())
+            throw new IllegalStateException("the game has finished");
+
+        // Ensure the tile is uncovered
+        if (!testBit(uncoveredBits, wordIndex(x, y), x))
+            return;
+
+        int minX = Math.max(x - 1, 0);
+        int maxX = Math.min(x + 1, width - 1);
+        int minY = Math.max(y - 1, 0);
+        int maxY = Math.min(y + 1, height - 1);
+
+        // Check number of surrounding flags
+        int flags = 0;
+        for (int ny = minY; ny <= maxY; ny++)
+        {
+            for (int nx = minX; nx <= maxX; nx++)
+            {
+                if (testBit(flaggedBits, ny * wordsPerRow + (nx >>> 6), nx))
+                    flags++;
+            }
+        }
+
+        if (getTileValue(x, y) != flags)
+            return;
+
+        // Uncover all surrounding tiles which are not flagged
+        for (int ny = minY; ny <= maxY; ny++)
+        {
+            for (int nx = minX; nx <= maxX; nx++)
+            {
+                if (!testBit(flaggedBits, ny * wordsPerRow + (nx >>> 6), nx))
+                    uncoverNoChecks(nx, ny);
+            }
+        }
+    }
+
+    /**
+     * Uncovers all mines if uncoverMinesAtEnd is set
+     *
+     * This does not uncover correctly flagged mines, but sets incorrectly
+     * flagged mines to questions.
+     */
+    private void uncoverAllMines()
+    {
+        if (uncoverMinesAtEnd)
+        {
+            for (int i = 0; i < mineBits.length; i++)
+            {
+                long mine = mineBits[i];
+                long flag = flaggedBits[i];
+
+                uncoveredBits[i] |= mine & ~flag;
+                questionBits[i] = (questionBits[i] & ~mine) | (flag & ~mine);
+                flaggedBits[i] = flag & mine;
+            }
+        }
+    }
+
+    /**
+     * Places the mines and calculates all the neighbour counts
+     *
+     * @param startX x position to prevent mines for
+     * @param startY y position to prevent mines for
+     */
+    private void initValues(int startX, int startY)
+    {
+        Random rnd = new Random(seed);
+
+        for (int i = 0; i < mines; i++)
+        {
+            int x, y, word;
+
+            // Keep trying random positions until we've found an acceptable one
+            do
+            {
+                x = rnd.nextInt(width);
+                y = rnd.nextInt(height);
+                word = y * wordsPerRow + (x >>> 6);
+            }
+            while (testBit(mineBits, word, x) || (x == startX && y == startY));
+
+            mineBits[word] |= 1L << x;
+        }
+
+        // Add up the 8 shifted copies of the mine bitboard, 64 tiles at a time
+        long[] count0 = countBits[0];
+        long[] count1 = countBits[1];
+        long[] count2 = countBits[2];
+        long[] count3 = countBits[3];
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int w = 0; w < wordsPerRow; w++)
+            {
+                long b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height - 1); ny++)
+                {
+                    int word = ny * wordsPerRow + w;
+
+                    for (int k = (ny == y ? 1 : 0); k < 3; k++)
+                    {
+                        long c;
+                        if (k == 0)
+                            c = mineBits[word];
+                        else if (k == 1)
+                            c = shiftLeft(mineBits, word, w);
+                        else
+                            c = shiftRight(mineBits, word, w);
+
+                        // Ripple carry through the bit planes
+                        long t;
+                        t = b0 & c; b0 ^= c; c = t;
+                        t = b1 & c; b1 ^= c; c = t;
+                        t = b2 & c; b2 ^= c; c = t;
+                        b3 |= c;
+                    }
+                }
+
+                int word = y * wordsPerRow + w;
+                long valid = (w == wordsPerRow - 1) ? lastWordMask : -1L;
+
+                count0[word] = b0 & valid;
+                count1[word] = b1 & valid;
+                count2[word] = b2 & valid;
+                count3[word] = b3 & valid;
+                zeroBits[word] = ~(b0 | b1 | b2 | b3 | mineBits[word]) & valid;
+            }
+        }
+    }
+
+    /**
+     * Gets a word of a row shifted so each bit contains the tile to its left (x - 1)
+     */
+    private long shiftLeft(long[] bits, int word, int w)
+    {
+        long result = bits[word] << 1;
+        if (w > 0)
+            result |= bits[word - 1] >>> 63;
+
+        return result;
+    }
+
+    /**
+     * Gets a word of a row shifted so each bit contains the tile to its right (x + 1)
+     */
+    private long shiftRight(long[] bits, int word, int w)
+    {
+        long result = bits[word] >>> 1;
+        if (w < wordsPerRow - 1)
+            result |= bits[word + 1] << 63;
+
+        return result;
+    }
+
+    /**
+     * Gets a word of a row containing each tile or its left or right neighbour
+     */
+    private long spread(long[] bits, int word, int w)
+    {
+        return bits[word] | shiftLeft(bits, word, w) | shiftRight(bits, word, w);
+    }
+
+    /**
+     * Uncovers all the tiles connected to a zero tile
+     *
+     * The zero tiles in the opening are found by repeatedly dilating the filled area
+     * and masking it with the zero tiles until nothing changes. The opening and its
+     * border are then uncovered.
+     *
+     * @param startX x position of the zero tile
+     * @param startY y position of the zero tile
+     */
+    private void floodFill(int startX, int startY)
+    {
+        long[] fill = fillBits;
+        int minY = startY;
+        int maxY = startY;
+
+        fill[startY * wordsPerRow + (startX >>> 6)] |= 1L << startX;
+
+        // Alternate downward and upward sweeps until the filled area stops growing
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+
+            for (int y = Math.max(minY - 1, 0); y <= Math.min(maxY + 1, height - 1); y++)
+            {
+                if (growRow(y))
+                {
+                    changed = true;
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+
+            for (int y = Math.min(maxY + 1, height - 1); y >= Math.max(minY - 1, 0); y--)
+            {
+                if (growRow(y))
+                {
+                    changed = true;
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+
+        // Uncover the opening and all the tiles touching it (none of which can be mines)
+        int revealMinY = Math.max(minY - 1, 0);
+        int revealMaxY = Math.min(maxY + 1, height - 1);
+
+        for (int y = revealMinY; y <= revealMaxY; y++)
+        {
+            for (int w = 0; w < wordsPerRow; w++)
+            {
+                long reveal = 0;
+
+                for (int ny = Math.max(y - 1, minY); ny <= Math.min(y + 1, maxY); ny++)
+                    reveal |= spread(fill, ny * wordsPerRow + w, w);
+
+                int word = y * wordsPerRow + w;
+                if (w == wordsPerRow - 1)
+                    reveal &= lastWordMask;
+
+                tilesLeft -= Long.bitCount(reveal & ~uncoveredBits[word]);
+                uncoveredBits[word] |= reveal;
+                flaggedBits[word] &= ~reveal;
+                questionBits[word] &= ~reveal;
+            }
+        }
+
+        // Clear the temporary bitboard
+        for (int i = minY * wordsPerRow; i < (maxY + 1) * wordsPerRow; i++)
+            fill[i] = 0;
+    }
+
+    /**
+     * Adds all the zero tiles on a row which are connected to the filled area
+     *
+     * @param y row to grow
+     * @return true if any tiles were added
+     */
+    private boolean growRow(int y)
+    {
+        long[] fill = fillBits;
+        int rowStart = y * wordsPerRow;
+        boolean changed = false;
+
+        // Add zeros touching filled tiles on the rows above and below
+        for (int w = 0; w < wordsPerRow; w++)
+        {
+            long touching = 0;
+
+            if (y > 0)
+                touching |= spread(fill, rowStart - wordsPerRow + w, w);
+            if (y < height - 1)
+                touching |= spread(fill, rowStart + wordsPerRow + w, w);
+
+            long added = touching & zeroBits[rowStart + w] & ~fill[rowStart + w];
+
+            if (added != 0)
+            {
+                fill[rowStart + w] |= added;
+                changed = true;
+            }
+        }
+
+        // Fill along runs of zeros to the right (Kogge-Stone occluded fill)
+        long carry = 0;
+        for (int w = 0; w < wordsPerRow; w++)
+        {
+            long zeros = zeroBits[rowStart + w];
+            long gen = fill[rowStart + w] | (carry & zeros);
+            long pro = zeros;
+
+            gen |= pro & (gen << 1);  pro &= pro << 1;
+            gen |= pro & (gen << 2);  pro &= pro << 2;
+            gen |= pro & (gen << 4);  pro &= pro << 4;
+            gen |= pro & (gen << 8);  pro &= pro << 8;
+            gen |= pro & (gen << 16); pro &= pro << 16;
+            gen |= pro & (gen << 32);
+
+            carry = gen >>> 63;
+            changed |= gen != fill[rowStart + w];
+            fill[rowStart + w] = gen;
+        }
+
+        // Fill along runs of zeros to the left
+        carry = 0;
+        for (int w = wordsPerRow - 1; w >= 0; w--)
+        {
+            long zeros = zeroBits[rowStart + w];
+            long gen = fill[rowStart + w] | ((carry << 63) & zeros);
+            long pro = zeros;
+
+            gen |= pro & (gen >>> 1);  pro &= pro >>> 1;
+            gen |= pro & (gen >>> 2);  pro &= pro >>> 2;
+            gen |= pro & (gen >>> 4);  pro &= pro >>> 4;
+            gen |= pro & (gen >>> 8);  pro &= pro >>> 8;
+            gen |= pro & (gen >>> 16); pro &= pro >>> 16;
+            gen |= pro & (gen >>> 32);
+
+            carry = gen & 1;
+            changed |= gen != fill[rowStart + w];
+            fill[rowStart + w] = gen;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Times mine generation and full board openings against {@link Minefield} and prints the results
+     *
+     * Generation is timed with the first click on a board which is 20% mines. Openings are timed with
+     * the first click on a board with no mines, which uncovers every tile.
+     *
+     * Arguments (all optional): board width and height in tiles, number of timed runs
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args)
+    {
+        int size = 4000;
+        int runs = 5;
+
+        if (args.length > 0)
+            size = Integer.parseInt(args[0]);
+        if (args.length > 1)
+            runs = Integer.parseInt(args[1]);
+
+        int mines = (int) ((long) size * size / 5);
+
+        long minefieldGenerate = Long.MAX_VALUE;
+        long bitboardGenerate = Long.MAX_VALUE;
+        long minefieldOpen = Long.MAX_VALUE;
+        long bitboardOpen = Long.MAX_VALUE;
+
+        // The first run warms up the JIT and is not counted
+        for (int run = 0; run <= runs; run++)
+        {
+            long seed = run;
+            long start = System.nanoTime();
+            new Minefield(new GridTopology(size, size), mines, seed).uncover(0, 0);
+            long minefieldTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new BitboardMinefield(size, size, mines, seed).uncover(0, 0);
+            long bitboardTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new Minefield(new GridTopology(size, size), 0, seed).uncover(size / 2, size / 2);
+            long minefieldOpenTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new BitboardMinefield(size, size, 0, seed).uncover(size / 2, size / 2);
+            long bitboardOpenTime = System.nanoTime() - start;
+
+            if (run > 0)
+            {
+                minefieldGenerate = Math.min(minefieldGenerate, minefieldTime);
+                bitboardGenerate = Math.min(bitboardGenerate, bitboardTime);
+                minefieldOpen = Math.min(minefieldOpen, minefieldOpenTime);
+                bitboardOpen = Math.min(bitboardOpen, bitboardOpenTime);
+            }
+        }
+
+        System.out.println("Best of " + runs + " runs on " + size + "x" + size + " boards");
+        printTimes("Generation", minefieldGenerate, bitboardGenerate);
+        printTimes("Opening", minefieldOpen, bitboardOpen);
+    }
+
+    /**
+     * Prints the times taken by each minefield for one benchmark
+     */
+    private static void printTimes(String name, long minefieldTime, long bitboardTime)
+    {
+        System.out.printf("%-10s Minefield %6d ms, BitboardMinefield %6d ms (%.1fx)%n",
+                name, minefieldTime / 1000000, bitboardTime / 1000000,
+                (double) minefieldTime / Math.max(bitboardTime, 1));
+    }
+}
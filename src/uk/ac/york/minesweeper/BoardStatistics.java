@@ -0,0 +1,99 @@
+package uk.ac.york.minesweeper;
+
+import java.util.Arrays;
+
+/**
+ * Immutable difficulty statistics about a minefield's mine layout
+ *
+ * An opening is a connected region of zero tiles plus the numbers around it. Clicking any
+ * zero in an opening uncovers the whole opening. An isolated number is a tile which is not a
+ * mine or in any opening, so it must be clicked on its own. The 3BV (Bechtel's Board Benchmark
+ * Value) is the minimum number of clicks needed to clear the board without flagging, which is
+ * the number of openings plus the number of isolated numbers.
+ */
+public final class BoardStatistics
+{
+    private final int[] openingSizes;
+    private final int isolatedNumbers;
+
+    BoardStatistics(int[] openingSizes, int isolatedNumbers)
+    {
+        this.openingSizes = openingSizes;
+        this.isolatedNumbers = isolatedNumbers;
+    }
+
+    /**
+     * Gets the minimum number of clicks needed to clear the board (its 3BV)
+     *
+     * @return 3BV of the board
+     */
+    public int get3BV()
+    {
+        return openingSizes.length + isolatedNumbers;
+    }
+
+    /**
+     * Gets the number of openings
+     *
+     * @return number of openings
+     */
+    public int getOpeningCount()
+    {
+        return openingSizes.length;
+    }
+
+    /**
+     * Gets the number of tiles uncovered by each opening (including the numbers around it)
+     *
+     * Numbers bordering more than one opening are counted in each of them.
+     *
+     * @return opening sizes (ordered by the lowest tile index in each opening)
+     */
+    public int[] getOpeningSizes()
+    {
+        return openingSizes.clone();
+    }
+
+    /**
+     * Gets the number of tiles in the largest opening
+     *
+     * @return size of largest opening, or 0 if there are no openings
+     */
+    public int getLargestOpening()
+    {
+        int largest = 0;
+
+        for (int size : openingSizes)
+            largest = Math.max(largest, size);
+
+        return largest;
+    }
+
+    /**
+     * Gets the number of isolated numbers (non-mines which are not in any opening)
+     *
+     * @return number of isolated numbers
+     */
+    public int getIsolatedNumbers()
+    {
+        return isolatedNumbers;
+    }
+
+    /**
+     * Calculates the efficiency of a game which cleared this board
+     *
+     * @param duration time taken in milliseconds
+     * @return 3BV per second (0 if duration is 0)
+     */
+    public double get3BVPerSecond(long duration)
+    {
+        return duration <= 0 ? 0 : get3BV() * 1000.0 / duration;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BoardStatistics[3BV=" + get3BV() + ", openings=" + Arrays.toString(openingSizes) +
+               ", isolatedNumbers=" + isolatedNumbers + "]";
+    }
+}
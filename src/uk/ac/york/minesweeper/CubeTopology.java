@@ -0,0 +1,165 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * A three dimensional minefield where each tile has up to 26 neighbours
+ *
+ * Tiles are numbered layer by layer (index = x + y * width + z * width * height).
+ * Each layer is displayed to the right of the previous one with a gap of one tile between them.
+ */
+public final class CubeTopology extends Topology
+{
+    /** Width of a layer */
+    private final int layerWidth;
+
+    /** Height of a layer */
+    private final int layerHeight;
+
+    /** Number of layers */
+    private final int depth;
+
+    /**
+     * Initializes a new 3D topology
+     *
+     * @param width width of the minefield in tiles
+     * @param height height of the minefield in tiles
+     * @param depth depth of the minefield in tiles
+     */
+    public CubeTopology(int width, int height, int depth)
+    {
+        super(checkedVolume(width, height, depth), width * depth + depth - 1, height);
+
+        this.layerWidth = width;
+        this.layerHeight = height;
+        this.depth = depth;
+        buildNeighbourTable();
+    }
+
+    /**
+     * Calculates the number of tiles in a cube, checking for overflow
+     */
+    private static int checkedVolume(int width, int height, int depth)
+    {
+        if (depth < 1 || (long) (width + 1) * depth > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("invalid minefield dimensions");
+
+        long volume = (long) GridTopology.checkedArea(width, height) * depth;
+        if (volume > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("invalid minefield dimensions");
+
+        return (int) volume;
+    }
+
+    /**
+     * Gets the number of layers
+     *
+     * @return depth of the minefield in tiles
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Gets the width of one layer
+     *
+     * @return width of the minefield in tiles
+     */
+    public int getLayerWidth()
+    {
+        return layerWidth;
+    }
+
+    /**
+     * Gets the height of one layer
+     *
+     * @return height of the minefield in tiles
+     */
+    public int getLayerHeight()
+    {
+        return layerHeight;
+    }
+
+    @Override
+    public int getSymmetryCount()
+    {
+        // Reflections of each axis (bit 0 = x, bit 1 = y, bit 2 = z)
+        return 8;
+    }
+
+    @Override
+    public int mapSymmetry(int symmetry, int index)
+    {
+        int layerSize = layerWidth * layerHeight;
+        int x = index % layerWidth;
+        int y = (index / layerWidth) % layerHeight;
+        int z = index / layerSize;
+
+        if ((symmetry & 1) != 0)
+            x = layerWidth - 1 - x;
+
+        if ((symmetry & 2) != 0)
+            y = layerHeight - 1 - y;
+
+        if ((symmetry & 4) != 0)
+            z = depth - 1 - z;
+
+        return x + y * layerWidth + z * layerSize;
+    }
+
+    @Override
+    public int getIndex(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+            return -1;
+
+        int z = x / (layerWidth + 1);
+        int layerX = x % (layerWidth + 1);
+
+        // Gap between layers
+        if (layerX == layerWidth)
+            return -1;
+
+        return layerX + (y + z * layerHeight) * layerWidth;
+    }
+
+    @Override
+    public int getX(int index)
+    {
+        int z = index / (layerWidth * layerHeight);
+        return index % layerWidth + z * (layerWidth + 1);
+    }
+
+    @Override
+    public int getY(int index)
+    {
+        return (index / layerWidth) % layerHeight;
+    }
+
+    @Override
+    protected int findNeighbours(int index, int[] neighbours)
+    {
+        int layerSize = layerWidth * layerHeight;
+        int x = index % layerWidth;
+        int y = (index / layerWidth) % layerHeight;
+        int z = index / layerSize;
+        int count = 0;
+
+        for (int dz = -1; dz <= 1; dz++)
+        {
+            for (int dy = -1; dy <= 1; dy++)
+            {
+                for (int dx = -1; dx <= 1; dx++)
+                {
+                    int nx = x + dx;
+                    int ny = y + dy;
+                    int nz = z + dz;
+
+                    if (nx >= 0 && ny >= 0 && nz >= 0 && nx < layerWidth && ny < layerHeight && nz < depth)
+                        neighbours[count++] = nx + ny * layerWidth + nz * layerSize;
+                }
+            }
+        }
+
+        return count;
+    }
+}
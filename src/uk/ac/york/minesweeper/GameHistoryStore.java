@@ -0,0 +1,484 @@
+package uk.ac.york.minesweeper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Stores the history of completed games in a local file
+ *
+ * The file is an append-only log of fixed size records. When the store is opened the log
+ * is read (on a background thread) into an in-memory index containing a leaderboard of the
+ * fastest wins and statistics for each difficulty, so queries never need to read the file.
+ *
+ * New records are indexed immediately and written to the file in batches by the same
+ * background thread, so {@link #record(GameRecord)} never blocks.
+ */
+public class GameHistoryStore implements Closeable
+{
+    /** Maximum number of games in each leaderboard */
+    public static final int LEADERBOARD_SIZE = 100;
+
+    /** Number of games in the rolling window of recent games */
+    public static final int RECENT_GAMES = 100;
+
+    /** Magic number at the start of the history file ("MSH1") */
+    private static final int MAGIC = 0x4D534831;
+
+    /** Size of the history file header */
+    private static final int HEADER_SIZE = 4;
+
+    /** Maximum number of records written at once */
+    private static final int BATCH_SIZE = 4096;
+
+    /** Record put on the write queue to stop the writer thread */
+    private static final GameRecord STOP = new GameRecord(0, 0, 0, 0, 0, 0, 0, 0, false);
+
+    /** The history file */
+    private final File file;
+
+    /** Records waiting to be written */
+    private final LinkedBlockingQueue<GameRecord> writeQueue = new LinkedBlockingQueue<GameRecord>();
+
+    /** Thread which loads the history and writes new records */
+    private final Thread writerThread;
+
+    /** Index for each difficulty (guarded by this) */
+    private final Map<Integer, DifficultyIndex> indexes = new HashMap<Integer, DifficultyIndex>();
+
+    /** Records added before the history file has been loaded (guarded by this) */
+    private final List<GameRecord> pendingIndex = new ArrayList<GameRecord>();
+
+    /** True once the history file has been loaded (guarded by this) */
+    private boolean loaded = false;
+
+    /** True once close has been called (guarded by this) */
+    private boolean closed = false;
+
+    /**
+     * Opens a history store, creating the file if it does not exist
+     *
+     * The file is loaded in the background. Until it has been loaded, queries only include
+     * the games recorded since the store was opened.
+     *
+     * @param file history file
+     */
+    public GameHistoryStore(File file)
+    {
+        this.file = file;
+        this.writerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runWriter();
+            }
+        }, "Game history writer");
+
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Gets the history file
+     *
+     * @return the history file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Returns true once all the games in the history file have been loaded
+     *
+     * @return true if loaded
+     */
+    public synchronized boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Records a completed game
+     *
+     * The game is added to the leaderboards and statistics immediately and written to the
+     * history file later.
+     *
+     * @param record the game to record
+     */
+    public void record(GameRecord record)
+    {
+        // Queued under the lock so the record cannot be put after the STOP added by close
+        synchronized (this)
+        {
+            if (closed)
+                throw new IllegalStateException("the history store has been closed");
+
+            if (loaded)
+                index(record);
+            else
+                pendingIndex.add(record);
+
+            writeQueue.add(record);
+        }
+    }
+
+    /**
+     * Gets the fastest won games at a difficulty level
+     *
+     * @param difficulty difficulty level
+     * @param count maximum number of games to return (at most LEADERBOARD_SIZE are kept)
+     * @return list of games, fastest first
+     */
+    public synchronized List<GameRecord> getTopGames(int difficulty, int count)
+    {
+        DifficultyIndex index = indexes.get(difficulty);
+
+        if (index == null)
+            return new ArrayList<GameRecord>();
+
+        return new ArrayList<GameRecord>(Arrays.asList(index.top).subList(0, Math.min(count, index.topCount)));
+    }
+
+    /**
+     * Gets statistics for a difficulty level
+     *
+     * @param difficulty difficulty level
+     * @return the statistics
+     */
+    public synchronized GameStatistics getStatistics(int difficulty)
+    {
+        DifficultyIndex index = indexes.get(difficulty);
+
+        if (index == null)
+            return new GameStatistics(0, 0, -1, 0, 0, 0, 0);
+
+        return index.getStatistics();
+    }
+
+    /**
+     * Writes any waiting records and closes the history file
+     *
+     * This waits for the writer thread to finish.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (closed)
+                return;
+
+            closed = true;
+            writeQueue.add(STOP);
+        }
+
+        boolean interrupted = false;
+
+        while (true)
+        {
+            try
+            {
+                writerThread.join();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Adds a record to the index (must hold the lock)
+     */
+    private void index(GameRecord record)
+    {
+        DifficultyIndex index = indexes.get(record.getDifficulty());
+
+        if (index == null)
+        {
+            index = new DifficultyIndex();
+            indexes.put(record.getDifficulty(), index);
+        }
+
+        index.add(record);
+    }
+
+    /**
+     * Main method of the writer thread
+     */
+    private void runWriter()
+    {
+        FileChannel channel = null;
+
+        try
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            load(channel);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not load game history from " + file + ": " + e);
+
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException e2)
+                {
+                    // Ignore
+                }
+            }
+
+            channel = null;
+        }
+
+        // Index any games recorded while we were loading
+        synchronized (this)
+        {
+            for (GameRecord record : pendingIndex)
+                index(record);
+
+            pendingIndex.clear();
+            loaded = true;
+        }
+
+        // Write new records in batches
+        List<GameRecord> batch = new ArrayList<GameRecord>();
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH_SIZE * GameRecord.ENCODED_SIZE);
+        boolean running = true;
+
+        while (running)
+        {
+            try
+            {
+                batch.add(writeQueue.take());
+            }
+            catch (InterruptedException e)
+            {
+                continue;
+            }
+
+            writeQueue.drainTo(batch, BATCH_SIZE - 1);
+            buffer.clear();
+
+            for (GameRecord record : batch)
+            {
+                if (record == STOP)
+                    running = false;
+                else
+                    record.encode(buffer);
+            }
+
+            batch.clear();
+            buffer.flip();
+
+            if (channel != null && buffer.hasRemaining())
+            {
+                try
+                {
+                    writeFully(channel, buffer, channel.size());
+                }
+                catch (IOException e)
+                {
+                    System.err.println("Could not write game history to " + file + ": " + e);
+                }
+            }
+        }
+
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not close game history file " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Reads all the records from the history file into the index
+     */
+    private void load(FileChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH_SIZE * GameRecord.ENCODED_SIZE);
+
+        // Create or check the header
+        if (channel.size() < HEADER_SIZE)
+        {
+            buffer.putInt(MAGIC).flip();
+            channel.truncate(0);
+            writeFully(channel, buffer, 0);
+            return;
+        }
+
+        buffer.limit(HEADER_SIZE);
+        readFully(channel, buffer, 0);
+
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException("not a game history file");
+
+        // Ignore any partially written record at the end
+        long records = (channel.size() - HEADER_SIZE) / GameRecord.ENCODED_SIZE;
+        long end = HEADER_SIZE + records * GameRecord.ENCODED_SIZE;
+
+        if (end != channel.size())
+            channel.truncate(end);
+
+        // Read the records in batches
+        List<GameRecord> batch = new ArrayList<GameRecord>(BATCH_SIZE);
+        long position = HEADER_SIZE;
+
+        while (position < end)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(channel, buffer, position);
+
+            position += buffer.limit();
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+                batch.add(GameRecord.decode(buffer));
+
+            synchronized (this)
+            {
+                for (GameRecord record : batch)
+                    index(record);
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Leaderboard and statistics for one difficulty level
+     */
+    private static final class DifficultyIndex
+    {
+        /** Total number of games */
+        private long played;
+
+        /** Total number of wins */
+        private long won;
+
+        /** Total duration of all wins */
+        private long totalWinTime;
+
+        /** Fastest wins (sorted by duration) */
+        private final GameRecord[] top = new GameRecord[LEADERBOARD_SIZE];
+        private int topCount;
+
+        /** Ring buffer of recent games */
+        private final GameRecord[] recent = new GameRecord[RECENT_GAMES];
+        private int recentCount;
+        private int recentNext;
+
+        /**
+         * Adds a game to the index
+         */
+        public void add(GameRecord record)
+        {
+            played++;
+
+            // Add to the recent games
+            recent[recentNext] = record;
+            recentNext = (recentNext + 1) % RECENT_GAMES;
+            recentCount = Math.min(recentCount + 1, RECENT_GAMES);
+
+            if (!record.isWon())
+                return;
+
+            won++;
+            totalWinTime += record.getDuration();
+
+            // Insert into the leaderboard if it is fast enough
+            long duration = record.getDuration();
+
+            if (topCount == LEADERBOARD_SIZE && duration >= top[topCount - 1].getDuration())
+                return;
+
+            int pos = topCount;
+            while (pos > 0 && top[pos - 1].getDuration() > duration)
+                pos--;
+
+            int moved = Math.min(topCount, LEADERBOARD_SIZE - 1) - pos;
+            System.arraycopy(top, pos, top, pos + 1, moved);
+            top[pos] = record;
+            topCount = Math.min(topCount + 1, LEADERBOARD_SIZE);
+        }
+
+        /**
+         * Calculates the statistics for this difficulty
+         */
+        public GameStatistics getStatistics()
+        {
+            int recentWins = 0;
+            long recentWinTime = 0;
+
+            for (int i = 0; i < recentCount; i++)
+            {
+                if (recent[i].isWon())
+                {
+                    recentWins++;
+                    recentWinTime += recent[i].getDuration();
+                }
+            }
+
+            return new GameStatistics(played, won,
+                    topCount == 0 ? -1 : top[0].getDuration(),
+                    won == 0 ? 0 : (double) totalWinTime / won,
+                    recentCount, recentWins,
+                    recentWins == 0 ? 0 : (double) recentWinTime / recentWins);
+        }
+    }
+
+    /**
+     * Writes all the remaining bytes of a buffer at a position in a file
+     *
+     * A single positional write may write fewer bytes than asked for.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        long start = position - buffer.position();
+
+        while (buffer.hasRemaining())
+            channel.write(buffer, start + buffer.position());
+    }
+
+    /**
+     * Fills the remaining bytes of a buffer from a position in a file
+     *
+     * @throws IOException if the end of the file is reached first
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        long start = position - buffer.position();
+
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, start + buffer.position()) < 0)
+                throw new IOException("unexpected end of game history file");
+        }
+    }
+}
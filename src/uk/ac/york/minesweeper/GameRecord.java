@@ -0,0 +1,220 @@
+package uk.ac.york.minesweeper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable record of a completed game
+ */
+public final class GameRecord
+{
+    /** Size of a record in the history file (in bytes) */
+    static final int ENCODED_SIZE = 48;
+
+    /** Time the game finished (milliseconds since the epoch) */
+    private final long finishTime;
+
+    /** Difficulty level (game specific identifier) */
+    private final int difficulty;
+
+    /** Width of the minefield */
+    private final int width;
+
+    /** Height of the minefield */
+    private final int height;
+
+    /** Number of mines */
+    private final int mines;
+
+    /** Seed used to place the mines */
+    private final long seed;
+
+    /** Length of the game in milliseconds */
+    private final long duration;
+
+    /** Number of moves made */
+    private final int moves;
+
+    /** True if the game was won */
+    private final boolean won;
+
+    /**
+     * Initializes a new GameRecord
+     *
+     * @param finishTime time the game finished (milliseconds since the epoch)
+     * @param difficulty difficulty level
+     * @param width width of the minefield
+     * @param height height of the minefield
+     * @param mines number of mines
+     * @param seed seed used to place the mines
+     * @param duration length of the game in milliseconds
+     * @param moves number of moves made
+     * @param won true if the game was won
+     */
+    public GameRecord(long finishTime, int difficulty, int width, int height, int mines,
+                      long seed, long duration, int moves, boolean won)
+    {
+        this.finishTime = finishTime;
+        this.difficulty = difficulty;
+        this.width = width;
+        this.height = height;
+        this.mines = mines;
+        this.seed = seed;
+        this.duration = duration;
+        this.moves = moves;
+        this.won = won;
+    }
+
+    /**
+     * Creates a record for a finished minefield
+     *
+     * @param minefield the finished minefield
+     * @param difficulty difficulty level
+     * @param duration length of the game in milliseconds
+     * @return the new record
+     */
+    public static GameRecord fromMinefield(Minefield minefield, int difficulty, long duration)
+    {
+        if (!minefield.isFinished())
+            throw new IllegalArgumentException("the game has not finished");
+
+        return new GameRecord(System.currentTimeMillis(), difficulty,
+                minefield.getWidth(), minefield.getHeight(), minefield.getMines(), minefield.getSeed(),
+                duration, minefield.getMoveCount(), minefield.getGameState() == GameState.WON);
+    }
+
+    /**
+     * Gets the time the game finished
+     *
+     * @return finish time in milliseconds since the epoch
+     */
+    public long getFinishTime()
+    {
+        return finishTime;
+    }
+
+    /**
+     * Gets the difficulty level
+     *
+     * @return difficulty level
+     */
+    public int getDifficulty()
+    {
+        return difficulty;
+    }
+
+    /**
+     * Gets the width of the minefield
+     *
+     * @return width in tiles
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Gets the height of the minefield
+     *
+     * @return height in tiles
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Gets the number of mines
+     *
+     * @return number of mines
+     */
+    public int getMines()
+    {
+        return mines;
+    }
+
+    /**
+     * Gets the seed used to place the mines
+     *
+     * @return the seed
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Gets the length of the game
+     *
+     * @return length in milliseconds
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    /**
+     * Gets the number of moves made
+     *
+     * @return number of moves
+     */
+    public int getMoves()
+    {
+        return moves;
+    }
+
+    /**
+     * Returns true if the game was won
+     *
+     * @return true if won
+     */
+    public boolean isWon()
+    {
+        return won;
+    }
+
+    /**
+     * Writes the record into a buffer (using ENCODED_SIZE bytes)
+     *
+     * @param buffer buffer to write to
+     */
+    void encode(ByteBuffer buffer)
+    {
+        buffer.putLong(finishTime);
+        buffer.putLong(seed);
+        buffer.putLong(duration);
+        buffer.putInt(difficulty);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(mines);
+        buffer.putInt(moves);
+        buffer.putInt(won ? 1 : 0);
+    }
+
+    /**
+     * Reads a record from a buffer (using ENCODED_SIZE bytes)
+     *
+     * @param buffer buffer to read from
+     * @return the record
+     */
+    static GameRecord decode(ByteBuffer buffer)
+    {
+        long finishTime = buffer.getLong();
+        long seed = buffer.getLong();
+        long duration = buffer.getLong();
+        int difficulty = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int mines = buffer.getInt();
+        int moves = buffer.getInt();
+        boolean won = buffer.getInt() != 0;
+
+        return new GameRecord(finishTime, difficulty, width, height, mines, seed, duration, moves, won);
+    }
+
+    @Override
+    public String toString()
+    {
+        return (won ? "Won" : "Lost") + " " + width + "x" + height + "/" + mines +
+               " in " + duration + " ms (" + moves + " moves)";
+    }
+}
@@ -0,0 +1,107 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * Immutable statistics about the games played at one difficulty level
+ */
+public final class GameStatistics
+{
+    private final long gamesPlayed;
+    private final long gamesWon;
+    private final long bestTime;
+    private final double averageWinTime;
+    private final int recentGames;
+    private final int recentWins;
+    private final double recentAverageWinTime;
+
+    GameStatistics(long gamesPlayed, long gamesWon, long bestTime, double averageWinTime,
+                   int recentGames, int recentWins, double recentAverageWinTime)
+    {
+        this.gamesPlayed = gamesPlayed;
+        this.gamesWon = gamesWon;
+        this.bestTime = bestTime;
+        this.averageWinTime = averageWinTime;
+        this.recentGames = recentGames;
+        this.recentWins = recentWins;
+        this.recentAverageWinTime = recentAverageWinTime;
+    }
+
+    /**
+     * Gets the total number of games played
+     *
+     * @return number of games
+     */
+    public long getGamesPlayed()
+    {
+        return gamesPlayed;
+    }
+
+    /**
+     * Gets the total number of games won
+     *
+     * @return number of wins
+     */
+    public long getGamesWon()
+    {
+        return gamesWon;
+    }
+
+    /**
+     * Gets the fraction of all games which were won
+     *
+     * @return win rate (between 0 and 1)
+     */
+    public double getWinRate()
+    {
+        return gamesPlayed == 0 ? 0 : (double) gamesWon / gamesPlayed;
+    }
+
+    /**
+     * Gets the duration of the fastest win
+     *
+     * @return duration in milliseconds, or -1 if no games have been won
+     */
+    public long getBestTime()
+    {
+        return bestTime;
+    }
+
+    /**
+     * Gets the average duration of all won games
+     *
+     * @return average duration in milliseconds (0 if no games have been won)
+     */
+    public double getAverageWinTime()
+    {
+        return averageWinTime;
+    }
+
+    /**
+     * Gets the number of games in the rolling window of recent games
+     *
+     * @return number of recent games
+     */
+    public int getRecentGames()
+    {
+        return recentGames;
+    }
+
+    /**
+     * Gets the fraction of recent games which were won
+     *
+     * @return recent win rate (between 0 and 1)
+     */
+    public double getRecentWinRate()
+    {
+        return recentGames == 0 ? 0 : (double) recentWins / recentGames;
+    }
+
+    /**
+     * Gets the average duration of recent won games
+     *
+     * @return average duration in milliseconds (0 if no recent games have been won)
+     */
+    public double getRecentAverageWinTime()
+    {
+        return recentAverageWinTime;
+    }
+}
@@ -0,0 +1,456 @@
+package uk.ac.york.minesweeper;
+
+import java.util.Arrays;
+
+/**
+ * Thread which owns a minefield and makes all the moves on it
+ *
+ * Moves are submitted (usually from the event dispatch thread) as primitive commands and
+ * applied in order on the game thread, so an expensive move never blocks the submitting
+ * thread. After each group of moves the game thread publishes an immutable snapshot of the
+ * minefield with the list of tiles which changed. Updates published before the previous one
+ * has been taken are merged, so a slow reader only ever sees the latest state.
+ */
+final class GameThread
+{
+    /** Command which cycles a covered tile between covered, flagged and question mark */
+    static final byte CYCLE_MARK = -1;
+
+    /** Lock guarding all the shared state below */
+    private final Object lock = new Object();
+
+    /** Ring buffer of waiting commands (op and tile index) */
+    private byte[] commandOps = new byte[256];
+    private int[] commandTiles = new int[256];
+    private int commandHead;
+    private int commandCount;
+
+    /** The minefield commands apply to */
+    private Minefield latest;
+
+    /** The latest published update */
+    private Minefield publishedSnapshot;
+    private int[] publishedChanges = new int[256];
+    private int publishedCount;
+    private RuntimeException publishedError;
+    private boolean updatePending;
+
+    /** First exception thrown by a move in the current group (only used by the game thread) */
+    private RuntimeException moveError;
+
+    /** Called on the game thread when an update is published and none was pending */
+    private final Runnable updateListener;
+
+    /** The game thread */
+    private final Thread thread;
+
+    /** If true, the bytes allocated while making each group of moves are counted */
+    private volatile boolean measuringAllocations;
+
+    /** Bytes allocated while making the last group of moves */
+    private volatile long allocatedBytes;
+
+    /** Totals since measuring was enabled (written by the game thread, read by anyone) */
+    private volatile long measuredGroups;
+    private volatile long totalAllocatedBytes;
+    private volatile long totalCopiedArrays;
+    private volatile long totalCopiedBytes;
+
+    /**
+     * Creates and starts a game thread
+     *
+     * @param updateListener called (on the game thread) when there is a new update to take
+     *                       after all previous updates have been taken
+     */
+    public GameThread(Runnable updateListener)
+    {
+        this.updateListener = updateListener;
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runGame();
+            }
+        }, "Minesweeper game");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gives the game thread a new minefield
+     *
+     * Any waiting commands and updates for the old minefield are discarded. The game thread
+     * takes ownership of the minefield so it must not be used by the caller afterwards.
+     *
+     * @param minefield the new minefield
+     * @return a snapshot of the new minefield
+     */
+    public Minefield setMinefield(Minefield minefield)
+    {
+        Minefield snapshot = minefield.snapshot();
+        minefield.setTrackingChanges(true);
+
+        synchronized (lock)
+        {
+            commandCount = 0;
+
+            latest = minefield;
+            publishedSnapshot = snapshot;
+            publishedCount = 0;
+            publishedError = null;
+            updatePending = false;
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Submits a move
+     *
+     * Moves which are invalid or made after the game has finished are ignored.
+     *
+     * @param op the move (a Minefield.MOVE_ constant or CYCLE_MARK)
+     * @param tile index of tile
+     */
+    public void submit(byte op, int tile)
+    {
+        synchronized (lock)
+        {
+            addCommand(op, tile);
+        }
+    }
+
+    /**
+     * Submits a list of moves
+     *
+     * The moves are added together, so the game thread applies them in one group. Moves
+     * which are invalid or made after the game has finished are ignored.
+     *
+     * @param ops the moves (Minefield.MOVE_ constants)
+     * @param xs x positions of the tiles, or tile indexes if ys is null
+     * @param ys y positions of the tiles (or null)
+     * @param offset index of the first move in the arrays
+     * @param count number of moves
+     */
+    public void submit(byte[] ops, int[] xs, int[] ys, int offset, int count)
+    {
+        synchronized (lock)
+        {
+            Topology topology = latest.getTopology();
+
+            for (int i = offset; i < offset + count; i++)
+            {
+                // Other values would be taken as CYCLE_MARK
+                if (ops[i] < Minefield.MOVE_UNCOVER || ops[i] > Minefield.MOVE_QUESTION)
+                    continue;
+
+                int tile = (ys == null) ? xs[i] : topology.getIndex(xs[i], ys[i]);
+
+                if (tile >= 0)
+                    addCommand(ops[i], tile);
+            }
+        }
+    }
+
+    /**
+     * Enables counting the bytes allocated by the game thread while making moves
+     *
+     * @param measuringAllocations true to count them
+     */
+    public void setMeasuringAllocations(boolean measuringAllocations)
+    {
+        if (measuringAllocations && !this.measuringAllocations)
+        {
+            measuredGroups = 0;
+            totalAllocatedBytes = 0;
+            totalCopiedArrays = 0;
+            totalCopiedBytes = 0;
+        }
+
+        this.measuringAllocations = measuringAllocations;
+    }
+
+    /**
+     * Gets the number of bytes allocated while making the last group of moves
+     *
+     * This includes publishing the update and any copy-on-write pages copied because the
+     * previous snapshot shares them.
+     *
+     * @return number of bytes (0 if not measuring)
+     */
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the number of groups of moves measured since measuring was enabled
+     *
+     * The totals below are updated after the group's update has been published, so this
+     * should be checked before reading them.
+     *
+     * @return number of groups
+     */
+    long getMeasuredGroups()
+    {
+        return measuredGroups;
+    }
+
+    /**
+     * Gets the bytes allocated by all the groups of moves measured
+     *
+     * @return number of bytes
+     */
+    long getTotalAllocatedBytes()
+    {
+        return totalAllocatedBytes;
+    }
+
+    /**
+     * Gets the number of arrays copied on write by all the groups of moves measured
+     *
+     * @return number of arrays
+     * @see Minefield#getCopiedArrays()
+     */
+    long getTotalCopiedArrays()
+    {
+        return totalCopiedArrays;
+    }
+
+    /**
+     * Gets the size of the arrays copied on write by all the groups of moves measured
+     *
+     * @return number of bytes (excluding array headers)
+     * @see Minefield#getCopiedBytes()
+     */
+    long getTotalCopiedBytes()
+    {
+        return totalCopiedBytes;
+    }
+
+    /**
+     * Takes the latest update
+     *
+     * The update's change array is swapped with the published one so nothing is allocated.
+     *
+     * @param update object to store the update in
+     * @return false if there was no update to take
+     */
+    public boolean takeUpdate(Update update)
+    {
+        synchronized (lock)
+        {
+            if (!updatePending)
+                return false;
+
+            int[] changes = update.changes;
+
+            update.snapshot = publishedSnapshot;
+            update.changes = publishedChanges;
+            update.count = publishedCount;
+            update.error = publishedError;
+
+            publishedChanges = changes;
+            publishedCount = 0;
+            publishedError = null;
+            updatePending = false;
+            return true;
+        }
+    }
+
+    /**
+     * Adds a command to the ring buffer (must hold the lock)
+     */
+    private void addCommand(byte op, int tile)
+    {
+        if (commandCount == commandOps.length)
+        {
+            // Grow (unwrapping the ring)
+            byte[] newOps = new byte[commandOps.length * 2];
+            int[] newTiles = new int[commandOps.length * 2];
+
+            for (int i = 0; i < commandCount; i++)
+            {
+                int pos = (commandHead + i) % commandOps.length;
+                newOps[i] = commandOps[pos];
+                newTiles[i] = commandTiles[pos];
+            }
+
+            commandOps = newOps;
+            commandTiles = newTiles;
+            commandHead = 0;
+        }
+
+        int pos = (commandHead + commandCount) % commandOps.length;
+        commandOps[pos] = op;
+        commandTiles[pos] = tile;
+        commandCount++;
+
+        lock.notify();
+    }
+
+    /**
+     * Main method of the game thread
+     */
+    private void runGame()
+    {
+        byte[] ops = new byte[256];
+        int[] tiles = new int[256];
+        byte[] results = new byte[256];
+
+        while (true)
+        {
+            Minefield minefield;
+            int count;
+
+            // Take all the waiting commands
+            synchronized (lock)
+            {
+                while (commandCount == 0)
+                {
+                    try
+                    {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Ignore
+                    }
+                }
+
+                if (ops.length < commandCount)
+                {
+                    ops = new byte[commandOps.length];
+                    results = new byte[commandOps.length];
+                    tiles = new int[commandOps.length];
+                }
+
+                for (count = 0; count < commandCount; count++)
+                {
+                    int pos = (commandHead + count) % commandOps.length;
+                    ops[count] = commandOps[pos];
+                    tiles[count] = commandTiles[pos];
+                }
+
+                commandHead = 0;
+                commandCount = 0;
+                minefield = latest;
+            }
+
+            // Apply them
+            boolean measuring = measuringAllocations;
+            long startAllocated = measuring ? UiDiagnostics.getThreadAllocatedBytes() : 0;
+            long startCopiedArrays = minefield.getCopiedArrays();
+            long startCopiedBytes = minefield.getCopiedBytes();
+
+            for (int i = 0; i < count; i++)
+            {
+                byte op = ops[i];
+
+                try
+                {
+                    if (op == CYCLE_MARK)
+                        ops[i] = nextMark(minefield, tiles[i]);
+
+                    minefield.applyMoves(ops, tiles, null, i, 1, results);
+                }
+                catch (RuntimeException e)
+                {
+                    // Passed on with the update (later errors in the group are dropped)
+                    if (moveError == null)
+                        moveError = e;
+                }
+            }
+
+            publish(minefield);
+
+            if (measuring)
+            {
+                long allocated = UiDiagnostics.getThreadAllocatedBytes() - startAllocated;
+
+                allocatedBytes = allocated;
+                totalAllocatedBytes += allocated;
+                totalCopiedArrays += minefield.getCopiedArrays() - startCopiedArrays;
+                totalCopiedBytes += minefield.getCopiedBytes() - startCopiedBytes;
+                measuredGroups++;
+            }
+        }
+    }
+
+    /**
+     * Gets the move which replaces the mark on a tile with the next one in the cycle
+     */
+    private static byte nextMark(Minefield minefield, int tile)
+    {
+        if (tile < 0 || tile >= minefield.getTileCount())
+            return CYCLE_MARK;
+
+        switch (minefield.getTileState(tile))
+        {
+            case COVERED:   return Minefield.MOVE_FLAG;
+            case FLAGGED:   return Minefield.MOVE_QUESTION;
+            case QUESTION:  return Minefield.MOVE_COVER;
+            default:        return CYCLE_MARK;
+        }
+    }
+
+    /**
+     * Publishes the changes made to a minefield since the last update
+     */
+    private void publish(Minefield minefield)
+    {
+        int count = minefield.getChangeCount();
+        RuntimeException error = moveError;
+        boolean notify = false;
+
+        if (count == 0 && error == null)
+            return;
+
+        moveError = null;
+
+        synchronized (lock)
+        {
+            // Ignore changes to minefields which have been replaced
+            if (minefield == latest)
+            {
+                if (publishedCount + count > publishedChanges.length)
+                    publishedChanges = Arrays.copyOf(publishedChanges, Math.max(publishedCount + count, publishedChanges.length * 2));
+
+                System.arraycopy(minefield.getChangedTiles(), 0, publishedChanges, publishedCount, count);
+                publishedCount += count;
+
+                if (count > 0)
+                    publishedSnapshot = minefield.snapshot();
+
+                if (publishedError == null)
+                    publishedError = error;
+
+                notify = !updatePending;
+                updatePending = true;
+            }
+        }
+
+        minefield.clearChanges();
+
+        if (notify)
+            updateListener.run();
+    }
+
+    /**
+     * An update taken from the game thread
+     */
+    static final class Update
+    {
+        /** Snapshot of the minefield after the changes */
+        public Minefield snapshot;
+
+        /** Indexes of the changed tiles (only the first count are valid) */
+        public int[] changes = new int[256];
+        public int count;
+
+        /** First exception thrown by a move since the last update (or null) */
+        public RuntimeException error;
+    }
+}
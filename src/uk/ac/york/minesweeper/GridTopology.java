@@ -0,0 +1,144 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * The classic rectangular minefield where each tile has up to 8 neighbours
+ *
+ * Tiles are numbered row by row (index = x + y * width).
+ */
+public final class GridTopology extends Topology
+{
+    /**
+     * Initializes a new rectangular topology
+     *
+     * @param width width of the minefield in tiles
+     * @param height height of the minefield in tiles
+     */
+    public GridTopology(int width, int height)
+    {
+        super(checkedArea(width, height), width, height);
+        buildNeighbourTable();
+    }
+
+    /**
+     * Calculates the number of tiles in a rectangle, checking for overflow
+     *
+     * @param width width of rectangle
+     * @param height height of rectangle
+     * @return number of tiles
+     */
+    static int checkedArea(int width, int height)
+    {
+        if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("invalid minefield dimensions");
+
+        return width * height;
+    }
+
+    /**
+     * Gets the number of symmetries of a rectangle
+     *
+     * Symmetry bit 0 reflects x, bit 1 reflects y and bit 2 (only for squares) swaps x and y
+     * first, giving the 8 rotations and reflections of a square or 4 of a rectangle.
+     *
+     * @param width width of rectangle
+     * @param height height of rectangle
+     * @return number of symmetries
+     */
+    static int rectangleSymmetries(int width, int height)
+    {
+        return width == height ? 8 : 4;
+    }
+
+    /**
+     * Maps a tile in a row major rectangle through one of its symmetries
+     *
+     * @param symmetry symmetry number (see {@link #rectangleSymmetries(int, int)})
+     * @param index index of tile
+     * @param width width of rectangle
+     * @param height height of rectangle
+     * @return index of the tile it is mapped to
+     */
+    static int mapRectangle(int symmetry, int index, int width, int height)
+    {
+        int x = index % width;
+        int y = index / width;
+
+        if ((symmetry & 4) != 0)
+        {
+            int temp = x;
+            x = y;
+            y = temp;
+        }
+
+        if ((symmetry & 1) != 0)
+            x = width - 1 - x;
+
+        if ((symmetry & 2) != 0)
+            y = height - 1 - y;
+
+        return x + y * width;
+    }
+
+    @Override
+    public boolean isRowMajor()
+    {
+        return true;
+    }
+
+    @Override
+    public int getSymmetryCount()
+    {
+        return rectangleSymmetries(getWidth(), getHeight());
+    }
+
+    @Override
+    public int mapSymmetry(int symmetry, int index)
+    {
+        return mapRectangle(symmetry, index, getWidth(), getHeight());
+    }
+
+    @Override
+    public int getIndex(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+            return -1;
+
+        return x + y * getWidth();
+    }
+
+    @Override
+    public int getX(int index)
+    {
+        return index % getWidth();
+    }
+
+    @Override
+    public int getY(int index)
+    {
+        return index / getWidth();
+    }
+
+    @Override
+    protected int findNeighbours(int index, int[] neighbours)
+    {
+        int width = getWidth();
+        int height = getHeight();
+        int x = index % width;
+        int y = index / width;
+        int count = 0;
+
+        for (int dy = -1; dy <= 1; dy++)
+        {
+            for (int dx = -1; dx <= 1; dx++)
+            {
+                int nx = x + dx;
+                int ny = y + dy;
+
+                if (nx >= 0 && ny >= 0 && nx < width && ny < height)
+                    neighbours[count++] = nx + ny * width;
+            }
+        }
+
+        return count;
+    }
+}
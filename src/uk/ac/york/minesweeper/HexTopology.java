@@ -0,0 +1,110 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * A minefield of hexagonal tiles where each tile has up to 6 neighbours
+ *
+ * The hexagons are arranged in rows with odd rows shifted half a tile to the right.
+ * Tiles are numbered row by row (index = x + y * width).
+ */
+public final class HexTopology extends Topology
+{
+    /**
+     * Initializes a new hexagonal topology
+     *
+     * @param width width of the minefield in tiles
+     * @param height height of the minefield in tiles
+     */
+    public HexTopology(int width, int height)
+    {
+        super(GridTopology.checkedArea(width, height), width, height);
+        buildNeighbourTable();
+    }
+
+    @Override
+    public boolean isRowShifted(int y)
+    {
+        return (y & 1) != 0;
+    }
+
+    @Override
+    public boolean hasShiftedRows()
+    {
+        return getHeight() > 1;
+    }
+
+    @Override
+    public boolean isRowMajor()
+    {
+        return true;
+    }
+
+    @Override
+    public int getSymmetryCount()
+    {
+        // Shifting odd rows breaks every symmetry except reflecting y, which only keeps odd
+        //  rows odd if there are an odd number of rows
+        return (getHeight() & 1) != 0 ? 2 : 1;
+    }
+
+    @Override
+    public int mapSymmetry(int symmetry, int index)
+    {
+        if (symmetry == 0)
+            return index;
+
+        int width = getWidth();
+        return index % width + (getHeight() - 1 - index / width) * width;
+    }
+
+    @Override
+    public int getIndex(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+            return -1;
+
+        return x + y * getWidth();
+    }
+
+    @Override
+    public int getX(int index)
+    {
+        return index % getWidth();
+    }
+
+    @Override
+    public int getY(int index)
+    {
+        return index / getWidth();
+    }
+
+    @Override
+    protected int findNeighbours(int index, int[] neighbours)
+    {
+        int width = getWidth();
+        int height = getHeight();
+        int x = index % width;
+        int y = index / width;
+        int count = 0;
+
+        // Rows above and below touch x and either x - 1 (even rows) or x + 1 (odd rows)
+        int diagonalX = isRowShifted(y) ? x + 1 : x - 1;
+
+        if (x > 0)
+            neighbours[count++] = index - 1;
+        if (x < width - 1)
+            neighbours[count++] = index + 1;
+
+        for (int ny = y - 1; ny <= y + 1; ny += 2)
+        {
+            if (ny >= 0 && ny < height)
+            {
+                neighbours[count++] = x + ny * width;
+
+                if (diagonalX >= 0 && diagonalX < width)
+                    neighbours[count++] = diagonalX + ny * width;
+            }
+        }
+
+        return count;
+    }
+}
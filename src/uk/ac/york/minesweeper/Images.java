@@ -1,13 +1,23 @@
 package uk.ac.york.minesweeper;
 
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.imageio.ImageIO;
 
 /**
  * Static class containing the game's images
+ *
+ * Images are decoded lazily the first time they are requested, or in the background
+ * (in parallel) after {@link #preloadAsync()} is called.
  */
 public final class Images
 {
@@ -15,19 +25,38 @@
     private static final String RES_DIRECTORY = "/res/";
 
     /** Image of a sea mine */
-    public static final BufferedImage MINE = loadImageResource("mine.png");
+    public static final LazyImage MINE = new LazyImage("mine.png");
 
     /** Image of a generic flag */
-    public static final BufferedImage FLAG = loadImageResource("flag.png");
+    public static final LazyImage FLAG = new LazyImage("flag.png");
 
     /** Image of a normal face */
-    public static final BufferedImage FACE_NORMAL = loadImageResource("default.png");
+    public static final LazyImage FACE_NORMAL = new LazyImage("default.png");
 
     /** Image of a face when you win */
-    public static final BufferedImage FACE_WON = loadImageResource("won.png");
+    public static final LazyImage FACE_WON = new LazyImage("won.png");
 
     /** Image of a face when you lose */
-    public static final BufferedImage FACE_LOST = loadImageResource("lost.png");
+    public static final LazyImage FACE_LOST = new LazyImage("lost.png");
+
+    /** All the images (in the order they are preloaded) */
+    private static final LazyImage[] ALL_IMAGES = { FACE_NORMAL, MINE, FLAG, FACE_WON, FACE_LOST };
+
+    /**
+     * Starts decoding all the images in the background
+     *
+     * Each image is decoded on its own daemon thread so this returns immediately.
+     * Calling {@link LazyImage#get()} before the image has been decoded simply waits for it.
+     */
+    public static void preloadAsync()
+    {
+        for (LazyImage image : ALL_IMAGES)
+        {
+            Thread thread = new Thread(image.task, "Image loader: " + image.name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
 
     /**
      * Loads an image from the resources directory
@@ -41,7 +70,7 @@ private static BufferedImage loadImageResource(String name)
         try (InputStream imgStream = Images.class.getResourceAsStream(RES_DIRECTORY + name))
         {
             // Decompress image
-            return ImageIO.read(imgStream);
+            return toDrawableImage(ImageIO.read(imgStream));
         }
         catch (IOException e)
         {
@@ -50,7 +79,107 @@ private static BufferedImage loadImageResource(String name)
         }
     }
 
+    /**
+     * Converts a decoded image into the raster format which is fastest to draw
+     *
+     * On a display this is the screen's compatible format, otherwise it is premultiplied ARGB.
+     *
+     * @param img decoded image
+     * @return image in a format ready for drawing
+     */
+    private static BufferedImage toDrawableImage(BufferedImage img)
+    {
+        BufferedImage result;
+
+        if (GraphicsEnvironment.isHeadless())
+        {
+            if (img.getType() == BufferedImage.TYPE_INT_ARGB_PRE)
+                return img;
+
+            result = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        else
+        {
+            GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+
+            result = config.createCompatibleImage(img.getWidth(), img.getHeight(), Transparency.TRANSLUCENT);
+        }
+
+        Graphics2D g = result.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
     private Images()
     {
     }
+
+    /**
+     * An image which is decoded the first time it is needed
+     */
+    public static final class LazyImage
+    {
+        /** Name of the image resource */
+        private final String name;
+
+        /** Task which decodes the image (runs at most once) */
+        private final FutureTask<BufferedImage> task;
+
+        private LazyImage(final String name)
+        {
+            this.name = name;
+            this.task = new FutureTask<BufferedImage>(new Callable<BufferedImage>()
+            {
+                @Override
+                public BufferedImage call()
+                {
+                    return loadImageResource(name);
+                }
+            });
+        }
+
+        /**
+         * Gets the decoded image, decoding it on this thread if nothing else has started to
+         *
+         * @return the decoded image
+         */
+        public BufferedImage get()
+        {
+            // Does nothing if the task has already been started elsewhere
+            task.run();
+
+            boolean interrupted = false;
+
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        return task.get();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+
+                throw new RuntimeException("Could not load image file: " + name, cause);
+            }
+            finally
+            {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
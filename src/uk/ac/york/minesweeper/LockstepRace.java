@@ -0,0 +1,783 @@
+package uk.ac.york.minesweeper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A race between several players on identical minefields, synchronised by exchanging inputs
+ *
+ * Every player has a copy of every player's minefield. All the minefields have the same
+ * seed and are started by uncovering the same tile, so they have the same mines. Only the
+ * inputs (tick, move, x, y) are sent between players and each player replays the other
+ * players' inputs on its own copies of their minefields, so a move costs a few bytes however
+ * many tiles it uncovers. Every few inputs a player also sends the state hash of its own
+ * minefield (see {@link Minefield#getStateHash()}) so the others can detect desyncs.
+ *
+ * <p>One player hosts the race and the others connect to it. The host relays the messages
+ * of each player to all the others. All messages start with a message type byte and all
+ * numbers are big endian:</p>
+ * <pre>
+ *  MSG_HELLO  (host to each player when the race starts)
+ *    int VERSION, int width, int height, int mines, long seed, int startX, int startY,
+ *    byte player count, byte player number of the receiver
+ *  MSG_INPUT  byte player, int tick (milliseconds since the race started), byte move
+ *             (a Minefield.MOVE_ constant), int x, int y
+ *  MSG_HASH   byte player, int number of inputs made so far, long state hash afterwards
+ * </pre>
+ *
+ * Received inputs are queued by the network threads and applied by {@link #poll()}. Apart
+ * from close, the methods of this class must be called on a single thread.
+ */
+public class LockstepRace implements Closeable
+{
+    /** Version of the protocol */
+    public static final int VERSION = 1;
+
+    /** Message types */
+    public static final byte MSG_HELLO = 0;
+    public static final byte MSG_INPUT = 1;
+    public static final byte MSG_HASH = 2;
+
+    /** Default number of inputs between state hashes */
+    public static final int DEFAULT_HASH_INTERVAL = 16;
+
+    /** Largest number of players */
+    public static final int MAX_PLAYERS = 64;
+
+    /** The player using this object */
+    private final int localPlayer;
+
+    /** Every player's minefield (only the local one is changed by local moves) */
+    private final Minefield[] boards;
+
+    /** Milliseconds after the start when each player finished (-1 if not finished) */
+    private final int[] finishTimes;
+
+    /** Number of inputs applied to each player's minefield */
+    private final int[] inputCounts;
+
+    /** Number of inputs after which each player's hash first differed (-1 if it has not) */
+    private final int[] desyncs;
+
+    /** Time the race started (System.nanoTime) */
+    private final long startTime;
+
+    /** Number of inputs between state hashes */
+    private int hashInterval = DEFAULT_HASH_INTERVAL;
+
+    /** Connections to other players (the host has one per player, others only have one) */
+    private final List<Link> links = new ArrayList<Link>();
+
+    /** True if this is the host (which relays messages) */
+    private final boolean relaying;
+
+    /** Lock guarding the received message queue */
+    private final Object lock = new Object();
+
+    /** Ring buffer of received messages (hashes use xs and ys for the high and low halves) */
+    private byte[] queueTypes = new byte[64];
+    private byte[] queuePlayers = new byte[64];
+    private int[] queueTicks = new int[64];
+    private byte[] queueOps = new byte[64];
+    private int[] queueXs = new int[64];
+    private int[] queueYs = new int[64];
+    private int queueHead;
+    private int queueCount;
+
+    /** Messages taken from the queue by poll (owner thread only) */
+    private byte[] takenTypes = new byte[0];
+    private byte[] takenPlayers = new byte[0];
+    private int[] takenTicks = new int[0];
+    private byte[] takenOps = new byte[0];
+    private int[] takenXs = new int[0];
+    private int[] takenYs = new int[0];
+
+    /** Arrays used to apply a single move */
+    private final byte[] moveOps = new byte[1];
+    private final int[] moveXs = new int[1];
+    private final int[] moveYs = new int[1];
+    private final byte[] moveResults = new byte[1];
+
+    /** True once closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a race without any connections (use {@link #host} or {@link #join} for a
+     * networked race)
+     *
+     * @param topology shape of the minefields
+     * @param mines number of mines
+     * @param seed seed of every minefield
+     * @param startTile tile uncovered on every minefield before the race starts
+     * @param playerCount number of players
+     * @param localPlayer the number of the player using this object
+     */
+    public LockstepRace(Topology topology, int mines, long seed, int startTile,
+                        int playerCount, int localPlayer)
+    {
+        this(topology, mines, seed, startTile, playerCount, localPlayer, false);
+    }
+
+    /**
+     * Creates a race
+     */
+    private LockstepRace(Topology topology, int mines, long seed, int startTile,
+                         int playerCount, int localPlayer, boolean relaying)
+    {
+        if (playerCount < 1 || playerCount > MAX_PLAYERS)
+            throw new IllegalArgumentException("invalid number of players");
+
+        if (localPlayer < 0 || localPlayer >= playerCount)
+            throw new IllegalArgumentException("invalid local player");
+
+        if (startTile < 0 || startTile >= topology.getTileCount())
+            throw new IllegalArgumentException("invalid start tile");
+
+        this.localPlayer = localPlayer;
+        this.relaying = relaying;
+        this.boards = new Minefield[playerCount];
+        this.finishTimes = new int[playerCount];
+        this.inputCounts = new int[playerCount];
+        this.desyncs = new int[playerCount];
+
+        for (int p = 0; p < playerCount; p++)
+        {
+            boards[p] = new Minefield(topology, mines, seed);
+            boards[p].uncover(startTile);
+        }
+
+        Arrays.fill(finishTimes, -1);
+        Arrays.fill(desyncs, -1);
+
+        // The start tile might have won the game already
+        for (int p = 0; p < playerCount; p++)
+            checkFinished(p, 0);
+
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Hosts a race on a rectangular minefield
+     *
+     * Waits for playerCount - 1 players to connect to the server socket and then starts the
+     * race. The host is player 0.
+     *
+     * @param server socket to accept players from (not closed afterwards)
+     * @param playerCount number of players including the host
+     * @param width width of the minefield
+     * @param height height of the minefield
+     * @param mines number of mines
+     * @param seed seed of the minefield
+     * @param startX x position of the tile uncovered at the start
+     * @param startY y position of the tile uncovered at the start
+     * @return the race
+     * @throws IOException if a connection fails
+     */
+    public static LockstepRace host(ServerSocket server, int playerCount, int width, int height,
+                                    int mines, long seed, int startX, int startY) throws IOException
+    {
+        Topology topology = new GridTopology(width, height);
+        LockstepRace race = new LockstepRace(topology, mines, seed,
+                                             topology.getIndex(startX, startY), playerCount, 0, true);
+        List<Socket> sockets = new ArrayList<Socket>();
+
+        try
+        {
+            // Accept everyone before sending anything so no inputs are missed
+            while (sockets.size() < playerCount - 1)
+                sockets.add(server.accept());
+
+            for (int i = 0; i < sockets.size(); i++)
+            {
+                Link link = race.new Link(sockets.get(i), i + 1);
+
+                link.out.writeByte(MSG_HELLO);
+                link.out.writeInt(VERSION);
+                link.out.writeInt(width);
+                link.out.writeInt(height);
+                link.out.writeInt(mines);
+                link.out.writeLong(seed);
+                link.out.writeInt(startX);
+                link.out.writeInt(startY);
+                link.out.writeByte(playerCount);
+                link.out.writeByte(i + 1);
+                link.out.flush();
+
+                race.links.add(link);
+            }
+        }
+        catch (IOException e)
+        {
+            for (Socket socket : sockets)
+                socket.close();
+
+            throw e;
+        }
+
+        for (Link link : race.links)
+            link.start();
+
+        return race;
+    }
+
+    /**
+     * Joins a race hosted by another player
+     *
+     * Blocks until the host starts the race.
+     *
+     * @param address address of the host
+     * @return the race
+     * @throws IOException if the connection fails or the host is not hosting a race
+     */
+    public static LockstepRace join(InetSocketAddress address) throws IOException
+    {
+        Socket socket = new Socket();
+
+        try
+        {
+            socket.connect(address);
+            socket.setTcpNoDelay(true);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            if (in.readByte() != MSG_HELLO || in.readInt() != VERSION)
+                throw new IOException("not a race host (or a different version)");
+
+            int width = in.readInt();
+            int height = in.readInt();
+            int mines = in.readInt();
+            long seed = in.readLong();
+            int startX = in.readInt();
+            int startY = in.readInt();
+            int playerCount = in.readByte();
+            int localPlayer = in.readByte();
+
+            Topology topology = new GridTopology(width, height);
+            LockstepRace race = new LockstepRace(topology, mines, seed, topology.getIndex(startX, startY),
+                                                 playerCount, localPlayer, false);
+
+            // Messages from the host may be from any player
+            Link link = race.new Link(socket, in, -1);
+            race.links.add(link);
+            link.start();
+            return race;
+        }
+        catch (IOException e)
+        {
+            socket.close();
+            throw e;
+        }
+        catch (IllegalArgumentException e)
+        {
+            socket.close();
+            throw new IOException("invalid race: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the number of players
+     *
+     * @return number of players
+     */
+    public int getPlayerCount()
+    {
+        return boards.length;
+    }
+
+    /**
+     * Gets the number of the player using this object
+     *
+     * @return local player number
+     */
+    public int getLocalPlayer()
+    {
+        return localPlayer;
+    }
+
+    /**
+     * Gets a snapshot of a player's minefield
+     *
+     * @param player player number
+     * @return snapshot of the player's minefield (as far as this player knows)
+     */
+    public Minefield getBoard(int player)
+    {
+        return boards[player].snapshot();
+    }
+
+    /**
+     * Gets the number of inputs between the state hashes sent by the local player
+     *
+     * @return hash interval
+     */
+    public int getHashInterval()
+    {
+        return hashInterval;
+    }
+
+    /**
+     * Sets the number of inputs between the state hashes sent by the local player
+     *
+     * A hash is also sent when the local player's game finishes.
+     *
+     * @param hashInterval number of inputs (at least 1)
+     */
+    public void setHashInterval(int hashInterval)
+    {
+        if (hashInterval < 1)
+            throw new IllegalArgumentException("hashInterval must be positive");
+
+        this.hashInterval = hashInterval;
+    }
+
+    /**
+     * Gets the number of milliseconds since the race started
+     *
+     * @return race time
+     */
+    public int getTime()
+    {
+        return (int) ((System.nanoTime() - startTime) / 1000000);
+    }
+
+    /**
+     * Gets the time a player finished (won or lost)
+     *
+     * @param player player number
+     * @return milliseconds after the start of the race, or -1 if the player has not finished
+     */
+    public int getFinishTime(int player)
+    {
+        return finishTimes[player];
+    }
+
+    /**
+     * Gets the number of inputs which have been applied to a player's minefield
+     *
+     * @param player player number
+     * @return number of inputs
+     */
+    public int getInputCount(int player)
+    {
+        return inputCounts[player];
+    }
+
+    /**
+     * Returns true if a state hash sent by a player did not match this player's copy of
+     * their minefield
+     *
+     * @param player player number
+     * @return true if the copy is out of sync
+     */
+    public boolean isDesynced(int player)
+    {
+        return desyncs[player] >= 0;
+    }
+
+    /**
+     * Gets the number of inputs after which a player's minefield was first found to be out
+     * of sync
+     *
+     * @param player player number
+     * @return number of inputs, or -1 if not out of sync
+     */
+    public int getDesyncInput(int player)
+    {
+        return desyncs[player];
+    }
+
+    /**
+     * Makes a move on the local player's minefield and sends it to the other players
+     *
+     * @param op the move (a Minefield.MOVE_ constant)
+     * @param x x position of the tile
+     * @param y y position of the tile
+     * @return the result of the move (a Minefield.RESULT_ constant)
+     */
+    public byte move(byte op, int x, int y)
+    {
+        int tick = getTime();
+        byte result = apply(localPlayer, op, x, y);
+
+        // Moves after the end are not sent (they cannot change anything)
+        if (result == Minefield.RESULT_SKIPPED)
+            return result;
+
+        int inputs = ++inputCounts[localPlayer];
+        boolean sendHash = (inputs % hashInterval == 0) || boards[localPlayer].isFinished();
+        long hash = boards[localPlayer].getStateHash();
+
+        checkFinished(localPlayer, tick);
+
+        for (int i = 0; i < links.size(); i++)
+        {
+            Link link = links.get(i);
+
+            link.sendInput(localPlayer, tick, op, x, y);
+
+            if (sendHash)
+                link.sendHash(localPlayer, inputs, hash);
+        }
+
+        return result;
+    }
+
+    /**
+     * Applies the inputs received from other players to their minefields and checks their hashes
+     *
+     * @return number of messages processed
+     */
+    public int poll()
+    {
+        int count;
+
+        synchronized (lock)
+        {
+            count = queueCount;
+
+            if (takenTypes.length < count)
+            {
+                takenTypes = new byte[queueTypes.length];
+                takenPlayers = new byte[queueTypes.length];
+                takenTicks = new int[queueTypes.length];
+                takenOps = new byte[queueTypes.length];
+                takenXs = new int[queueTypes.length];
+                takenYs = new int[queueTypes.length];
+            }
+
+            for (int i = 0; i < count; i++)
+            {
+                int pos = (queueHead + i) % queueTypes.length;
+
+                takenTypes[i] = queueTypes[pos];
+                takenPlayers[i] = queuePlayers[pos];
+                takenTicks[i] = queueTicks[pos];
+                takenOps[i] = queueOps[pos];
+                takenXs[i] = queueXs[pos];
+                takenYs[i] = queueYs[pos];
+            }
+
+            queueHead = 0;
+            queueCount = 0;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            int player = takenPlayers[i];
+
+            if (takenTypes[i] == MSG_INPUT)
+            {
+                apply(player, takenOps[i], takenXs[i], takenYs[i]);
+                inputCounts[player]++;
+                checkFinished(player, takenTicks[i]);
+            }
+            else
+            {
+                long hash = ((long) takenXs[i] << 32) | (takenYs[i] & 0xFFFFFFFFL);
+
+                if (desyncs[player] < 0 && (takenTicks[i] != inputCounts[player] ||
+                                            hash != boards[player].getStateHash()))
+                {
+                    desyncs[player] = takenTicks[i];
+                    System.err.println("Race desync: player " + player + " after " + takenTicks[i] + " inputs");
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Disconnects from the other players
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+
+        for (Link link : links)
+            link.close();
+    }
+
+    /**
+     * Applies a move to a player's minefield
+     */
+    private byte apply(int player, byte op, int x, int y)
+    {
+        moveOps[0] = op;
+        moveXs[0] = x;
+        moveYs[0] = y;
+
+        boards[player].applyMoves(moveOps, moveXs, moveYs, 0, 1, moveResults);
+        return moveResults[0];
+    }
+
+    /**
+     * Records the finish time of a player if their game has just finished
+     */
+    private void checkFinished(int player, int tick)
+    {
+        if (finishTimes[player] < 0 && boards[player].isFinished())
+            finishTimes[player] = tick;
+    }
+
+    /**
+     * Adds a received message to the queue (called by the network threads)
+     */
+    private void enqueue(byte type, int player, int tick, byte op, int x, int y)
+    {
+        synchronized (lock)
+        {
+            if (queueCount == queueTypes.length)
+            {
+                // Grow (unwrapping the ring)
+                int size = queueTypes.length * 2;
+                byte[] types = new byte[size];
+                byte[] players = new byte[size];
+                int[] ticks = new int[size];
+                byte[] ops = new byte[size];
+                int[] xs = new int[size];
+                int[] ys = new int[size];
+
+                for (int i = 0; i < queueCount; i++)
+                {
+                    int pos = (queueHead + i) % queueTypes.length;
+
+                    types[i] = queueTypes[pos];
+                    players[i] = queuePlayers[pos];
+                    ticks[i] = queueTicks[pos];
+                    ops[i] = queueOps[pos];
+                    xs[i] = queueXs[pos];
+                    ys[i] = queueYs[pos];
+                }
+
+                queueTypes = types;
+                queuePlayers = players;
+                queueTicks = ticks;
+                queueOps = ops;
+                queueXs = xs;
+                queueYs = ys;
+                queueHead = 0;
+            }
+
+            int pos = (queueHead + queueCount) % queueTypes.length;
+
+            queueTypes[pos] = type;
+            queuePlayers[pos] = (byte) player;
+            queueTicks[pos] = tick;
+            queueOps[pos] = op;
+            queueXs[pos] = x;
+            queueYs[pos] = y;
+            queueCount++;
+        }
+    }
+
+    /**
+     * Relays a message to every link except the one it came from (host only)
+     */
+    private void relay(Link from, byte type, int player, int tick, byte op, int x, int y)
+    {
+        for (Link link : links)
+        {
+            if (link == from)
+                continue;
+
+            if (type == MSG_INPUT)
+                link.sendInput(player, tick, op, x, y);
+            else
+                link.sendHash(player, tick, ((long) x << 32) | (y & 0xFFFFFFFFL));
+        }
+    }
+
+    /**
+     * A connection to another player (or to the host)
+     */
+    private final class Link
+    {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        /** The only player whose messages may arrive on this link (-1 for any) */
+        private final int player;
+
+        /** Thread reading messages */
+        private final Thread thread;
+
+        /** True once the connection has failed */
+        private volatile boolean failed;
+
+        public Link(Socket socket, int player) throws IOException
+        {
+            this(socket, new DataInputStream(new BufferedInputStream(socket.getInputStream())), player);
+        }
+
+        public Link(Socket socket, DataInputStream in, int player) throws IOException
+        {
+            this.socket = socket;
+            this.in = in;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.player = player;
+
+            socket.setTcpNoDelay(true);
+
+            this.thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runReader();
+                }
+            }, "Race connection");
+
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Starts reading messages
+         */
+        public void start()
+        {
+            thread.start();
+        }
+
+        /**
+         * Sends an input
+         */
+        public void sendInput(int player, int tick, byte op, int x, int y)
+        {
+            synchronized (out)
+            {
+                try
+                {
+                    out.writeByte(MSG_INPUT);
+                    out.writeByte(player);
+                    out.writeInt(tick);
+                    out.writeByte(op);
+                    out.writeInt(x);
+                    out.writeInt(y);
+                    out.flush();
+                }
+                catch (IOException e)
+                {
+                    fail(e);
+                }
+            }
+        }
+
+        /**
+         * Sends a state hash
+         */
+        public void sendHash(int player, int inputs, long hash)
+        {
+            synchronized (out)
+            {
+                try
+                {
+                    out.writeByte(MSG_HASH);
+                    out.writeByte(player);
+                    out.writeInt(inputs);
+                    out.writeLong(hash);
+                    out.flush();
+                }
+                catch (IOException e)
+                {
+                    fail(e);
+                }
+            }
+        }
+
+        /**
+         * Closes the connection
+         */
+        public void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore
+            }
+        }
+
+        /**
+         * Main method of the reader thread
+         */
+        private void runReader()
+        {
+            try
+            {
+                while (true)
+                {
+                    byte type = in.readByte();
+                    int sender = in.readByte();
+
+                    // Players may only send their own inputs (and never the receiver's)
+                    if ((player >= 0 && sender != player) || sender < 0 ||
+                        sender >= boards.length || sender == localPlayer)
+                        throw new IOException("message from unexpected player " + sender);
+
+                    if (type == MSG_INPUT)
+                    {
+                        int tick = in.readInt();
+                        byte op = in.readByte();
+                        int x = in.readInt();
+                        int y = in.readInt();
+
+                        enqueue(MSG_INPUT, sender, tick, op, x, y);
+
+                        if (relaying)
+                            relay(this, MSG_INPUT, sender, tick, op, x, y);
+                    }
+                    else if (type == MSG_HASH)
+                    {
+                        int inputs = in.readInt();
+                        long hash = in.readLong();
+
+                        enqueue(MSG_HASH, sender, inputs, (byte) 0, (int) (hash >>> 32), (int) hash);
+
+                        if (relaying)
+                            relay(this, MSG_HASH, sender, inputs, (byte) 0, (int) (hash >>> 32), (int) hash);
+                    }
+                    else
+                    {
+                        throw new IOException("invalid message type " + type);
+                    }
+                }
+            }
+            catch (EOFException e)
+            {
+                close();
+            }
+            catch (IOException e)
+            {
+                fail(e);
+            }
+        }
+
+        /**
+         * Reports a failed connection and closes it
+         */
+        private void fail(IOException e)
+        {
+            if (!failed && !closed)
+                System.err.println("Race connection failed: " + e);
+
+            failed = true;
+            close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package uk.ac.york.minesweeper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * A stand-in opponent for testing races
+ *
+ * Joins a race hosted by {@link LockstepRace#host} (normally on the loopback interface) and
+ * plays it with a {@link SimpleStrategy} on its own thread, using the same protocol as a
+ * real player.
+ */
+public class LoopbackPeer implements Closeable
+{
+    /** Address of the host */
+    private final InetSocketAddress address;
+
+    /** The bot */
+    private final Strategy strategy;
+
+    /** Delay between moves in milliseconds */
+    private final int moveDelay;
+
+    /** Thread playing the race */
+    private final Thread thread;
+
+    /** The race (null until joined) */
+    private volatile LockstepRace race;
+
+    /** Error which stopped the peer (null if none) */
+    private volatile IOException error;
+
+    /** True once closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a peer and starts joining the race
+     *
+     * @param address address of the host
+     * @param seed seed of the bot's guesses
+     * @param moveDelay milliseconds to wait between moves
+     */
+    public LoopbackPeer(InetSocketAddress address, long seed, int moveDelay)
+    {
+        this.address = address;
+        this.strategy = new SimpleStrategy(seed);
+        this.moveDelay = moveDelay;
+        this.thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runPeer();
+            }
+        }, "Loopback race peer");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the peer to finish its game (or fail)
+     *
+     * @param timeout maximum time to wait in milliseconds (0 to wait forever)
+     * @return true if the peer has stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean await(long timeout) throws InterruptedException
+    {
+        thread.join(timeout);
+        return !thread.isAlive();
+    }
+
+    /**
+     * Gets the peer's race
+     *
+     * The race is owned by the peer's thread, so this should only be used once it has stopped.
+     *
+     * @return the race, or null if the peer has not joined
+     */
+    public LockstepRace getRace()
+    {
+        return race;
+    }
+
+    /**
+     * Gets the error which stopped the peer
+     *
+     * @return the error, or null if none
+     */
+    public IOException getError()
+    {
+        return error;
+    }
+
+    /**
+     * Stops the peer and leaves the race
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        thread.interrupt();
+
+        LockstepRace race = this.race;
+        if (race != null)
+            race.close();
+    }
+
+    /**
+     * Main method of the peer's thread
+     */
+    private void runPeer()
+    {
+        try
+        {
+            race = LockstepRace.join(address);
+        }
+        catch (IOException e)
+        {
+            error = e;
+            return;
+        }
+
+        int player = race.getLocalPlayer();
+
+        while (!closed && race.getFinishTime(player) < 0)
+        {
+            race.poll();
+            makeMove(race.getBoard(player));
+
+            if (moveDelay > 0)
+            {
+                try
+                {
+                    Thread.sleep(moveDelay);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+
+        race.poll();
+    }
+
+    /**
+     * Chooses and makes one move
+     */
+    private void makeMove(Minefield board)
+    {
+        int action = strategy.chooseMove(board);
+        int tile = action % board.getTileCount();
+        Topology topology = board.getTopology();
+
+        race.move((byte) (action / board.getTileCount()), topology.getX(tile), topology.getY(tile));
+    }
+}
@@ -1,5 +1,8 @@
 package uk.ac.york.minesweeper;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -8,15 +11,144 @@
  */
 public class Minefield
 {
-    // Array containing tile values (-1 = mine)
-    private final byte[][] valuesArray;
+    /** Batch move: uncover a tile */
+    public static final byte MOVE_UNCOVER = 0;
 
-    // Array containing tile states
-    private final TileState[][] stateArray;
+    /** Batch move: chord around a tile */
+    public static final byte MOVE_CHORD = 1;
+
+    /** Batch move: set a tile to COVERED (removing any flag / question) */
+    public static final byte MOVE_COVER = 2;
+
+    /** Batch move: set a tile to FLAGGED */
+    public static final byte MOVE_FLAG = 3;
+
+    /** Batch move: set a tile to QUESTION */
+    public static final byte MOVE_QUESTION = 4;
+
+    /** Batch result: the move changed the minefield */
+    public static final byte RESULT_CHANGED = 0;
+
+    /** Batch result: the move was valid but did nothing */
+    public static final byte RESULT_UNCHANGED = 1;
+
+    /** Batch result: the move was invalid (no such tile / move, or covering an uncovered tile) */
+    public static final byte RESULT_INVALID = 2;
+
+    /** Batch result: the move was not attempted because the game had finished */
+    public static final byte RESULT_SKIPPED = 3;
+
+    /** Visible tile: uncovered mine (uncovered tiles are otherwise shown by their value) */
+    public static final byte VISIBLE_MINE = -1;
+
+    /** Visible tile: covered */
+    public static final byte VISIBLE_COVERED = -2;
+
+    /** Visible tile: covered with a flag */
+    public static final byte VISIBLE_FLAGGED = -3;
+
+    /** Visible tile: covered with a question */
+    public static final byte VISIBLE_QUESTION = -4;
+
+    /** Visible tile: there is no tile at this position on the layout grid */
+    public static final byte VISIBLE_NONE = -5;
+
+    /** Region count: covered tiles (including question marks) */
+    public static final int REGION_COVERED = 0;
+
+    /** Region count: flagged tiles */
+    public static final int REGION_FLAGGED = 1;
+
+    /** Region count: uncovered tiles */
+    public static final int REGION_UNCOVERED = 2;
+
+    // Tiles are stored in pages of PAGE_SIZE tiles. Pages are copied on write so they can be shared
+    //  between snapshots and forks. Pages which have never been written refer to one of the shared
+    //  pages below, so unexplored parts of the minefield use no memory.
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Value of tiles whose value has not been calculated yet
+    private static final byte VALUE_UNKNOWN = Byte.MIN_VALUE;
+
+    // Seed of the Zobrist keys used by the state hash
+    private static final long HASH_SEED = 0x2545F4914F6CDD1DL;
+
+    // Largest minefield which gets an opening index when the mines are placed (the index uses
+    //  at least 4 bytes per tile). Larger minefields flood fill and calculate their statistics
+    //  when first asked.
+    private static final int OPENING_INDEX_LIMIT = 1 << 24;
+
+    // Shared pages used until a page is first written (never modified)
+    private static final byte[] COVERED_PAGE = filledPage(VISIBLE_COVERED);
+    private static final byte[] UNKNOWN_PAGE = filledPage(VALUE_UNKNOWN);
+    private static final byte[] ZERO_AROUND_PAGE = new byte[2 * PAGE_SIZE];
+
+    // The summary pyramid divides the layout grid into square cells of 1 << (SUMMARY_SHIFT + level)
+    //  positions on each level, up to a single cell. Its counts are stored in pages of
+    //  SUMMARY_PAGE_SIZE cells (two ints per cell) which are copied on write like the tile pages.
+    private static final int SUMMARY_SHIFT = 3;
+    private static final int SUMMARY_PAGE_SHIFT = 10;
+    private static final int SUMMARY_PAGE_SIZE = 1 << SUMMARY_PAGE_SHIFT;
+    private static final int SUMMARY_PAGE_MASK = SUMMARY_PAGE_SIZE - 1;
+    private static final int[] ZERO_SUMMARY_PAGE = new int[2 * SUMMARY_PAGE_SIZE];
+
+    // Shape of the minefield
+    private final Topology topology;
+
+    // Neighbour table (see Topology)
+    private final char[] tileClasses;
+    private final int[][] classOffsets;
+
+    // Number of tiles
+    private final int tileCount;
+
+    // Bitmap of mine locations (allocated when the mines are placed)
+    private long[] mineBits;
+
+    // If true, the mine bitmap may be shared with a snapshot or fork (so reset cannot reuse it)
+    private boolean mineBitsShared = false;
+
+    // Pages containing tile values (-1 = mine, VALUE_UNKNOWN = not calculated yet)
+    private byte[][] valuePages;
+
+    // Pages containing the visible state of each tile
+    //  (the VISIBLE_ constants for covered tiles or the tile's value if uncovered)
+    //  Only modify using setVisible
+    private byte[][] visiblePages;
+
+    // Pages containing the number of flagged neighbours (at 2 * tile) and uncovered neighbours
+    //  (at 2 * tile + 1) of each tile. Kept up to date by setVisible.
+    private byte[][] aroundPages;
+
+    // The token of the minefield which owns each page
+    //  Pages not owned by this minefield's token may be shared and must be copied before writing
+    private Object[] valueOwners;
+    private Object[] visibleOwners;
+    private Object[] aroundOwners;
+
+    // Token identifying the pages owned by this minefield (replaced when a snapshot or fork is made)
+    private Object token = new Object();
+
+    // If true, the page tables themselves are shared and must be copied before being modified
+    private boolean tablesShared = false;
+
+    // If true, this minefield is a snapshot and cannot be changed
+    private final boolean readOnly;
+
+    // If true, tile values are only calculated when needed
+    private boolean lazyValues = false;
 
     // Number of mines
     private final int mines;
 
+    // Seed used to place the mines
+    private long seed;
+
+    // Number of moves made
+    private int moveCount;
+
     // Number of extra tiles which need to uncovered to win
     private int tilesLeft;
 
@@ -26,8 +158,63 @@
     // State of the game
     private GameState gameState = GameState.NOT_STARTED;
 
+    // If true, the indexes of changed tiles are recorded
+    private boolean trackingChanges = false;
+
+    // Indexes of tiles which have changed since the last call to clearChanges
+    private int[] changedTiles = new int[16];
+    private int changeCount = 0;
+
+    // Queue of tiles used when flood filling (reused between moves)
+    private int[] floodQueue = new int[64];
+
+    // Difficulty statistics of the mine layout (null until calculated)
+    private BoardStatistics boardStatistics;
+
+    // Opening index (null if not built). For each zero tile, the opening it is in (-1 for other
+    //  tiles). The tiles in opening n are openingTiles[openingStart[n]] to
+    //  openingTiles[openingStart[n + 1] - 1]. Never modified once built.
+    private int[] tileOpenings;
+    private int[] openingStart;
+    private int[] openingTiles;
+
+    // If true, the opening index may be shared with a snapshot or fork (so reset cannot reuse it)
+    private boolean openingIndexShared = false;
+
+    // Opening index arrays from before the last reset which can be reused (or null)
+    private int[] spareTileOpenings;
+    private int[] spareOpeningStart;
+    private int[] spareOpeningTiles;
+
+    // Work list of tiles which may have become chordable since the last chordSatisfied sweep
+    //  (only tracked once a sweep has been made, and not copied by snapshots and forks)
+    private boolean trackingDirty = false;
+    private long[] dirtyBits;
+    private int[] dirtyTiles;
+    private int dirtyCount;
+
+    // Zobrist hash of the visible state (the XOR of tileHash for every tile which is not covered)
+    private long stateHash;
+
+    // The state hash of the minefield transformed by each of the topology's symmetries
+    //  (null unless tracking symmetries)
+    private long[] symmetryHashes;
+
+    // Shape of the summary pyramid (null unless tracking region counts, never modified)
+    private SummaryLayout summaryLayout;
+
+    // Pages of the summary pyramid containing the number of flagged tiles (at 2 * cell) and
+    //  uncovered tiles (at 2 * cell + 1) in each cell. Kept up to date by setVisible.
+    private int[][] summaryPages;
+    private Object[] summaryOwners;
+
+    // Number of arrays copied on write and the size of their elements in bytes (references
+    //  are counted as 8 bytes). Only used to check the allocations made by moves.
+    private long copiedArrays;
+    private long copiedBytes;
+
     /**
-     * Initializes a new Minefield class with the given properties
+     * Initializes a new rectangular Minefield class with the given properties
      *
      * The mine locations are not allocated until the first click is made
      *
@@ -37,47 +224,446 @@
      */
     public Minefield(int width, int height, int mines)
     {
-        int tilesLeft = (width * height) - mines;
+        this(new GridTopology(width, height), mines);
+    }
+
+    /**
+     * Initializes a new Minefield class with the given topology
+     *
+     * The mine locations are not allocated until the first click is made
+     *
+     * @param topology shape of the minefield
+     * @param mines number of mines
+     */
+    public Minefield(Topology topology, int mines)
+    {
+        this(topology, mines, new Random().nextLong());
+    }
+
+    /**
+     * Initializes a new Minefield class with the given topology and seed
+     *
+     * The mine locations are not allocated until the first click is made.
+     * Two minefields with the same topology, seed and first click have the same mine locations.
+     *
+     * @param topology shape of the minefield
+     * @param mines number of mines
+     * @param seed seed used to place mines
+     */
+    public Minefield(Topology topology, int mines, long seed)
+    {
+        int tilesLeft = topology.getTileCount() - mines;
 
         // Validate arguments
-        if (width < 1 || height < 1 || mines < 0)
+        if (mines < 0)
             throw new IllegalArgumentException("invalid minefield dimensions");
 
         if (tilesLeft <= 0)
             throw new IllegalArgumentException("too many mines");
 
         // Save initial properties
+        this.topology = topology;
+        this.tileClasses = topology.getTileClasses();
+        this.classOffsets = topology.getClassOffsets();
         this.mines = mines;
+        this.seed = seed;
         this.tilesLeft = tilesLeft;
 
-        // Create arrays (empty + covered)
-        TileState[][] stateArray = new TileState[width][height];
+        // Create pages (all covered with unknown values)
+        int pageCount = (topology.getTileCount() + PAGE_MASK) >>> PAGE_SHIFT;
+
+        this.tileCount = topology.getTileCount();
+        this.visiblePages = new byte[pageCount][];
+        this.valuePages = new byte[pageCount][];
+        this.aroundPages = new byte[pageCount][];
+        this.visibleOwners = new Object[pageCount];
+        this.valueOwners = new Object[pageCount];
+        this.aroundOwners = new Object[pageCount];
+        this.readOnly = false;
+
+        Arrays.fill(visiblePages, COVERED_PAGE);
+        Arrays.fill(valuePages, UNKNOWN_PAGE);
+        Arrays.fill(aroundPages, ZERO_AROUND_PAGE);
+    }
+
+    /**
+     * Initializes a new Minefield which shares the pages of an existing minefield
+     *
+     * @param source minefield to copy
+     * @param readOnly true to create a snapshot
+     */
+    private Minefield(Minefield source, boolean readOnly)
+    {
+        this.topology = source.topology;
+        this.tileClasses = source.tileClasses;
+        this.classOffsets = source.classOffsets;
+        this.tileCount = source.tileCount;
+        this.mines = source.mines;
+        this.seed = source.seed;
+        this.moveCount = source.moveCount;
+        this.tilesLeft = source.tilesLeft;
+        this.uncoverMinesAtEnd = source.uncoverMinesAtEnd;
+        this.gameState = source.gameState;
+        this.lazyValues = source.lazyValues;
+        this.readOnly = readOnly;
+        this.stateHash = source.stateHash;
+
+        if (source.symmetryHashes != null)
+            this.symmetryHashes = source.symmetryHashes.clone();
+
+        // The mine bitmap and opening index are never modified once the mines have been placed
+        this.mineBits = source.mineBits;
+        this.mineBitsShared = true;
+        this.boardStatistics = source.boardStatistics;
+        this.tileOpenings = source.tileOpenings;
+        this.openingStart = source.openingStart;
+        this.openingTiles = source.openingTiles;
+        this.openingIndexShared = true;
+
+        // Share the page tables. Neither minefield owns any pages afterwards so both copy
+        //  each page (and the tables) the first time they write to it.
+        this.visiblePages = source.visiblePages;
+        this.valuePages = source.valuePages;
+        this.aroundPages = source.aroundPages;
+        this.visibleOwners = source.visibleOwners;
+        this.valueOwners = source.valueOwners;
+        this.aroundOwners = source.aroundOwners;
+        this.summaryLayout = source.summaryLayout;
+        this.summaryPages = source.summaryPages;
+        this.summaryOwners = source.summaryOwners;
+        this.tablesShared = true;
+
+        if (!source.readOnly)
+        {
+            source.mineBitsShared = true;
+            source.openingIndexShared = true;
+            source.tablesShared = true;
+            source.token = new Object();
+        }
+    }
+
+    /**
+     * Creates an immutable snapshot of the minefield's current state
+     *
+     * The snapshot shares its tiles with this minefield so it takes O(1) time to make. Each
+     * page of tiles is copied the next time this minefield changes it. Snapshots can be passed
+     * to other threads (for example for rendering or exporting) while the game continues.
+     * Any attempt to change a snapshot throws UnsupportedOperationException.
+     *
+     * @return the snapshot
+     */
+    public Minefield snapshot()
+    {
+        return readOnly ? this : new Minefield(this, true);
+    }
+
+    /**
+     * Creates an independent copy of the minefield
+     *
+     * Like {@link #snapshot()} this takes O(1) time and the tiles are shared (and copied a
+     * page at a time when either minefield changes them), but the fork can be played. A fork
+     * of a game which has not started will place its own mines on its first move.
+     * Listener state such as change tracking is not copied.
+     *
+     * @return the new minefield
+     */
+    public Minefield fork()
+    {
+        return new Minefield(this, false);
+    }
+
+    /**
+     * Starts a new game on this minefield using a new seed
+     *
+     * Afterwards the minefield is the same as a new minefield with the same topology, number
+     * of mines and seed, except that the evaluation mode, change tracking and
+     * uncoverMinesAtEnd settings are kept. Memory owned by this minefield (the pages, the mine
+     * bitmap and the opening index) is cleared and reused instead of being allocated again, so
+     * this is much cheaper than creating a new minefield when playing many short games. Only
+     * the board statistics are allocated for each game. Memory shared with a snapshot or fork
+     * is not reused, and snapshots and forks are not affected.
+     *
+     * The change list is cleared (the tiles which were reset are not added to it).
+     *
+     * @param seed seed used to place mines
+     */
+    public void reset(long seed)
+    {
+        checkWritable();
+        unshareTables();
+
+        for (int p = 0; p < visiblePages.length; p++)
+        {
+            int end = Math.min(PAGE_SIZE, tileCount - (p << PAGE_SHIFT));
+
+            if (visibleOwners[p] == token)
+                Arrays.fill(visiblePages[p], 0, end, VISIBLE_COVERED);
+            else
+                visiblePages[p] = COVERED_PAGE;
+
+            if (valueOwners[p] == token)
+                Arrays.fill(valuePages[p], 0, end, VALUE_UNKNOWN);
+            else
+                valuePages[p] = UNKNOWN_PAGE;
+
+            if (aroundOwners[p] == token)
+                Arrays.fill(aroundPages[p], 0, 2 * end, (byte) 0);
+            else
+                aroundPages[p] = ZERO_AROUND_PAGE;
+        }
+
+        this.seed = seed;
+        this.moveCount = 0;
+        this.tilesLeft = tileCount - mines;
+        this.gameState = GameState.NOT_STARTED;
+        this.changeCount = 0;
+        this.stateHash = 0;
+
+        if (symmetryHashes != null)
+            Arrays.fill(symmetryHashes, 0);
+
+        if (summaryPages != null)
+        {
+            for (int p = 0; p < summaryPages.length; p++)
+            {
+                if (summaryOwners[p] == token)
+                    Arrays.fill(summaryPages[p], 0);
+                else
+                    summaryPages[p] = ZERO_SUMMARY_PAGE;
+            }
+        }
+
+        // Keep the opening index to be rebuilt for the next game (unless it may be shared)
+        if (tileOpenings != null && !openingIndexShared)
+        {
+            spareTileOpenings = tileOpenings;
+            spareOpeningStart = openingStart;
+            spareOpeningTiles = openingTiles;
+        }
+
+        this.openingIndexShared = false;
+        this.boardStatistics = null;
+        this.tileOpenings = null;
+        this.openingStart = null;
+        this.openingTiles = null;
+
+        this.trackingDirty = false;
+        this.dirtyBits = null;
+        this.dirtyTiles = null;
+        this.dirtyCount = 0;
+    }
+
+    /**
+     * Returns true if this minefield is a snapshot which cannot be changed
+     *
+     * @return true if read only
+     */
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    /**
+     * Throws an exception if this minefield is a snapshot
+     */
+    private void checkWritable()
+    {
+        if (readOnly)
+            throw new UnsupportedOperationException("minefield snapshots cannot be changed");
+    }
+
+    /**
+     * Throws IndexOutOfBoundsException if there is no tile with the given index
+     */
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= tileCount)
+            throw new IndexOutOfBoundsException("no tile with index " + index);
+    }
+
+    /**
+     * Gets a visible page which can be written to, copying it if it is shared
+     */
+    private byte[] writableVisiblePage(int p)
+    {
+        if (visibleOwners[p] != token)
+        {
+            unshareTables();
+            visiblePages[p] = visiblePages[p].clone();
+            visibleOwners[p] = token;
+            countCopy(1, visiblePages[p].length);
+        }
+
+        return visiblePages[p];
+    }
+
+    /**
+     * Gets a value page which can be written to, copying it if it is shared
+     */
+    private byte[] writableValuePage(int p)
+    {
+        if (valueOwners[p] != token)
+        {
+            unshareTables();
+            valuePages[p] = valuePages[p].clone();
+            valueOwners[p] = token;
+            countCopy(1, valuePages[p].length);
+        }
+
+        return valuePages[p];
+    }
+
+    /**
+     * Gets a neighbourhood count page which can be written to, copying it if it is shared
+     */
+    private byte[] writableAroundPage(int p)
+    {
+        if (aroundOwners[p] != token)
+        {
+            unshareTables();
+            aroundPages[p] = aroundPages[p].clone();
+            aroundOwners[p] = token;
+            countCopy(1, aroundPages[p].length);
+        }
+
+        return aroundPages[p];
+    }
+
+    /**
+     * Gets a page of the summary pyramid which can be written to (copying it if needed)
+     *
+     * @param p page number
+     * @return the page
+     */
+    private int[] writableSummaryPage(int p)
+    {
+        if (summaryOwners[p] != token)
+        {
+            unshareTables();
+            summaryPages[p] = summaryPages[p].clone();
+            summaryOwners[p] = token;
+            countCopy(1, summaryPages[p].length * 4L);
+        }
+
+        return summaryPages[p];
+    }
+
+    /**
+     * Copies the page tables if they are shared with another minefield
+     */
+    private void unshareTables()
+    {
+        if (tablesShared)
+        {
+            visiblePages = visiblePages.clone();
+            valuePages = valuePages.clone();
+            aroundPages = aroundPages.clone();
+            visibleOwners = visibleOwners.clone();
+            valueOwners = valueOwners.clone();
+            aroundOwners = aroundOwners.clone();
+
+            countCopy(6, visiblePages.length * 8L * 6);
+
+            if (summaryPages != null)
+            {
+                summaryPages = summaryPages.clone();
+                summaryOwners = summaryOwners.clone();
+                countCopy(2, summaryPages.length * 8L * 2);
+            }
+
+            tablesShared = false;
+        }
+    }
+
+    /**
+     * Counts arrays copied on write
+     *
+     * @param arrays number of arrays
+     * @param bytes total size of their elements in bytes
+     */
+    private void countCopy(int arrays, long bytes)
+    {
+        copiedArrays += arrays;
+        copiedBytes += bytes;
+    }
+
+    /**
+     * Gets the number of arrays this minefield has copied on write (pages and page tables)
+     *
+     * Together with {@link #getCopiedBytes()} this is used to check that moves only allocate
+     * the copies needed because a snapshot or fork shares the minefield's pages.
+     *
+     * @return number of arrays copied
+     */
+    long getCopiedArrays()
+    {
+        return copiedArrays;
+    }
+
+    /**
+     * Gets the total size of the elements of the arrays this minefield has copied on write
+     *
+     * References are counted as 8 bytes and array headers are not included.
+     *
+     * @return number of bytes
+     */
+    long getCopiedBytes()
+    {
+        return copiedBytes;
+    }
 
-        for (int x = 0; x < width; x++)
-            Arrays.fill(stateArray[x], TileState.COVERED);
+    /**
+     * Creates a page with every tile set to the given value
+     */
+    private static byte[] filledPage(byte value)
+    {
+        byte[] page = new byte[PAGE_SIZE];
+        Arrays.fill(page, value);
+        return page;
+    }
 
-        this.stateArray = stateArray;
-        this.valuesArray = new byte[width][height];
+    /**
+     * Gets the topology (shape) of the minefield
+     *
+     * @return the minefield's topology
+     */
+    public Topology getTopology()
+    {
+        return topology;
     }
 
     /**
      * Gets the width of the minefield in tiles
      *
+     * For topologies which are not rectangular, this is the width of the layout grid.
+     *
      * @return width of the minefield
      */
     public int getWidth()
     {
-        return valuesArray.length;
+        return topology.getWidth();
     }
 
     /**
      * Gets the height of the minefield in tiles
      *
+     * For topologies which are not rectangular, this is the height of the layout grid.
+     *
      * @return height of the minefield
      */
     public int getHeight()
     {
-        return valuesArray[0].length;
+        return topology.getHeight();
+    }
+
+    /**
+     * Gets the total number of tiles in the minefield
+     *
+     * @return number of tiles
+     */
+    public int getTileCount()
+    {
+        return tileCount;
     }
 
     /**
@@ -90,6 +676,31 @@ public int getMines()
         return mines;
     }
 
+    /**
+     * Gets the seed used to place the mines
+     *
+     * @return the seed
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Gets the number of moves made so far
+     *
+     * Every call which changes the visible state of at least one tile is counted: uncovering
+     * a tile which was not uncovered, a chord which uncovers something and changing a tile's
+     * mark. Calls which have no effect (such as uncovering an uncovered tile, a chord with
+     * the wrong number of flags or flagging a flagged tile) are not counted.
+     *
+     * @return number of moves
+     */
+    public int getMoveCount()
+    {
+        return moveCount;
+    }
+
     /**
      * Gets a value which is true if all mines are uncovered at the end of the game
      *
@@ -107,9 +718,45 @@ public boolean isUncoveringMinesAtEnd()
      */
     public void setUncoverMinesAtEnd(boolean uncoverMinesAtEnd)
     {
+        checkWritable();
         this.uncoverMinesAtEnd = uncoverMinesAtEnd;
     }
 
+    /**
+     * Returns true if tile values are only calculated when needed
+     *
+     * @return true if lazy
+     * @see #setLazyValues(boolean)
+     */
+    public boolean isLazyValues()
+    {
+        return lazyValues;
+    }
+
+    /**
+     * Sets whether tile values are only calculated when needed
+     *
+     * Normally the value of every tile is calculated when the mines are placed. In lazy mode
+     * only the locations of the mines are stored and each tile's value is calculated (and
+     * cached) the first time it is uncovered or passed to getTileValue. This makes starting
+     * a game on a huge minefield take O(mines) time and the memory used is proportional to
+     * the mine bitmap plus the area explored.
+     *
+     * The mines are placed in the same locations in both modes.
+     *
+     * @param lazyValues true to calculate values lazily
+     * @throws IllegalStateException if the game has started
+     */
+    public void setLazyValues(boolean lazyValues)
+    {
+        checkWritable();
+
+        if (gameState != GameState.NOT_STARTED)
+            throw new IllegalStateException("the evaluation mode cannot be changed once the game has started");
+
+        this.lazyValues = lazyValues;
+    }
+
     /**
      * Gets the current state of the game
      *
@@ -117,429 +764,1887 @@ public void setUncoverMinesAtEnd(boolean uncoverMinesAtEnd)
      */
     public GameState getGameState()
     {
-        return gameState;
+        return gameState;
+    }
+
+    /**
+     * Returns true if the game has finished
+     *
+     * @return true if the game has finished
+     */
+    public boolean isFinished()
+    {
+        return gameState != GameState.RUNNING && gameState != GameState.NOT_STARTED;
+    }
+
+    /**
+     * Gets the index of the tile at the given position
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @return index of the tile
+     * @throws IndexOutOfBoundsException if there is no tile at that position
+     */
+    private int indexOf(int x, int y)
+    {
+        int index = topology.getIndex(x, y);
+
+        if (index < 0)
+            throw new IndexOutOfBoundsException("no tile at (" + x + ", " + y + ")");
+
+        return index;
+    }
+
+    /**
+     * Gets the value of the given tile (mine / surrounding mines)
+     *
+     * This should only be called AFTER the first tile is clicked (or when a tile is uncovered)
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @return value of that tile (-1 = mine)
+     */
+    public int getTileValue(int x, int y)
+    {
+        return getTileValue(indexOf(x, y));
+    }
+
+    /**
+     * Gets the difficulty statistics of the mine layout
+     *
+     * These are calculated when the mines are placed, except in lazy mode or for very large
+     * minefields where they are calculated the first time this is called (which takes O(n) time).
+     *
+     * @return the statistics
+     * @throws IllegalStateException if the mines have not been placed yet
+     */
+    public BoardStatistics getBoardStatistics()
+    {
+        if (gameState == GameState.NOT_STARTED)
+            throw new IllegalStateException("you must call uncover at least once before using getBoardStatistics");
+
+        // The statistics are immutable, so snapshots may also store them here
+        if (boardStatistics == null)
+            boardStatistics = analyseBoard(false);
+
+        return boardStatistics;
+    }
+
+    /**
+     * Gets the value of the tile with the given index
+     *
+     * @param index index of tile
+     * @return value of that tile (-1 = mine)
+     * @see #getTileValue(int, int)
+     */
+    public int getTileValue(int index)
+    {
+        if (gameState == GameState.NOT_STARTED)
+            throw new IllegalStateException("you must call uncover at least once before using getTileValue");
+
+        if (index < 0 || index >= tileCount)
+            throw new IndexOutOfBoundsException("no tile with index " + index);
+
+        return value(index);
+    }
+
+    /**
+     * Gets the state of the given tile
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @return state of that tile
+     */
+    public TileState getTileState(int x, int y)
+    {
+        return getTileState(indexOf(x, y));
+    }
+
+    /**
+     * Gets the state of the tile with the given index
+     *
+     * @param index index of tile
+     * @return state of that tile
+     */
+    public TileState getTileState(int index)
+    {
+        switch (visible(index))
+        {
+            case VISIBLE_COVERED:   return TileState.COVERED;
+            case VISIBLE_FLAGGED:   return TileState.FLAGGED;
+            case VISIBLE_QUESTION:  return TileState.QUESTION;
+            default:                return TileState.UNCOVERED;
+        }
+    }
+
+    /**
+     * Returns true if the indexes of changed tiles are being recorded
+     *
+     * @return true if tracking changes
+     */
+    public boolean isTrackingChanges()
+    {
+        return trackingChanges;
+    }
+
+    /**
+     * Sets whether the indexes of tiles whose visible state changes are recorded
+     *
+     * Changed tiles can be read with {@link #getChangedTiles()} and are recorded in the
+     * order they change. A move's own tile is recorded before the tiles it uncovers around
+     * it, but openings are uncovered in index order when the opening index is used (minefields
+     * with eager values, up to 16M tiles) and in breadth first order otherwise, so readers
+     * which need waves spreading out from the tile should not rely on the order.
+     *
+     * @param trackingChanges true to track changes
+     */
+    public void setTrackingChanges(boolean trackingChanges)
+    {
+        this.trackingChanges = trackingChanges;
+        clearChanges();
+    }
+
+    /**
+     * Gets the number of tile changes recorded since the last call to clearChanges
+     *
+     * @return number of changes
+     */
+    public int getChangeCount()
+    {
+        return changeCount;
+    }
+
+    /**
+     * Gets the indexes of the tiles changed since the last call to clearChanges
+     *
+     * Only the first getChangeCount() entries are valid. The same tile may appear more than once.
+     * The array is reused so it must not be modified or kept after the minefield next changes.
+     *
+     * @return array of tile indexes
+     */
+    public int[] getChangedTiles()
+    {
+        return changedTiles;
+    }
+
+    /**
+     * Forgets all the recorded tile changes
+     */
+    public void clearChanges()
+    {
+        changeCount = 0;
+    }
+
+    /**
+     * Gets a 64-bit hash of the visible state of the minefield
+     *
+     * The hash is a Zobrist hash which is updated as each tile changes, so this takes O(1)
+     * time. Minefields with the same topology and visible tiles have the same hash (whatever
+     * their mines or move history).
+     *
+     * @return hash of the visible tiles
+     */
+    public long getStateHash()
+    {
+        return stateHash;
+    }
+
+    /**
+     * Returns true if the hashes of the symmetries of the minefield are being maintained
+     *
+     * @return true if tracking symmetries
+     */
+    public boolean isTrackingSymmetries()
+    {
+        return symmetryHashes != null;
+    }
+
+    /**
+     * Sets whether the hashes of the symmetries of the minefield are maintained
+     *
+     * While tracking, each tile change updates one hash per symmetry of the topology and
+     * {@link #getCanonicalHash()} takes O(symmetries) time. Turning tracking on scans the
+     * whole minefield once.
+     *
+     * @param trackingSymmetries true to track symmetries
+     */
+    public void setTrackingSymmetries(boolean trackingSymmetries)
+    {
+        checkWritable();
+
+        if (!trackingSymmetries)
+            symmetryHashes = null;
+        else if (symmetryHashes == null)
+            symmetryHashes = calculateSymmetryHashes();
+    }
+
+    /**
+     * Gets a hash of the visible state which is the same for all rotations and reflections
+     *
+     * Two minefields with the same topology whose visible tiles are the same after applying
+     * one of the topology's symmetries (see {@link Topology#getSymmetryCount()}) have the same
+     * canonical hash. This is the smallest of the state hashes of all the symmetries.
+     *
+     * This scans the whole minefield unless symmetries are being tracked.
+     *
+     * @return canonical hash of the visible tiles
+     */
+    public long getCanonicalHash()
+    {
+        long[] hashes = (symmetryHashes != null) ? symmetryHashes : calculateSymmetryHashes();
+        long canonical = hashes[0];
+
+        for (int s = 1; s < hashes.length; s++)
+            canonical = Math.min(canonical, hashes[s]);
+
+        return canonical;
+    }
+
+    /**
+     * Calculates the state hash of each symmetry of the minefield by scanning every tile
+     */
+    private long[] calculateSymmetryHashes()
+    {
+        long[] hashes = new long[topology.getSymmetryCount()];
+
+        for (int p = 0; p < visiblePages.length; p++)
+        {
+            // Pages which have never been written are all covered
+            if (visiblePages[p] == COVERED_PAGE)
+                continue;
+
+            int start = p << PAGE_SHIFT;
+            int end = Math.min(tileCount, start + PAGE_SIZE);
+
+            for (int i = start; i < end; i++)
+            {
+                byte visible = visible(i);
+
+                if (visible != VISIBLE_COVERED)
+                {
+                    for (int s = 0; s < hashes.length; s++)
+                        hashes[s] ^= tileHash(topology.mapSymmetry(s, i), visible);
+                }
+            }
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Gets the Zobrist key of a tile with a visible value (0 for covered tiles)
+     */
+    private static long tileHash(int index, byte visible)
+    {
+        if (visible == VISIBLE_COVERED)
+            return 0;
+
+        // SplitMix64 of the index and value (visible values are between -4 and 26)
+        //  The seed and the + 1 make sure no key (such as tile 0 showing 0) hashes to 0
+        //  like a covered tile
+        long key = ((long) index << 6) | (visible & 63);
+        long z = HASH_SEED + (key + 1) * 0x9E3779B97F4A7C15L;
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns true if the summary pyramid used to count the tiles in regions is being maintained
+     *
+     * @return true if tracking region counts
+     */
+    public boolean isTrackingRegionCounts()
+    {
+        return summaryPages != null;
+    }
+
+    /**
+     * Sets whether the summary pyramid used to count the tiles in regions is maintained
+     *
+     * The pyramid holds the number of flagged and uncovered tiles in blocks of the layout grid,
+     * from 8x8 blocks up to a single block covering the whole grid. While tracking, each tile
+     * change updates one block on each level, {@link #countRegion} only looks at individual
+     * tiles along the edges of the region and the pyramid is shared by snapshots and forks
+     * (copied on write like the tiles). Turning tracking on scans the whole minefield once.
+     *
+     * @param trackingRegionCounts true to track region counts
+     */
+    public void setTrackingRegionCounts(boolean trackingRegionCounts)
+    {
+        checkWritable();
+
+        if (!trackingRegionCounts)
+        {
+            summaryLayout = null;
+            summaryPages = null;
+            summaryOwners = null;
+            return;
+        }
+
+        if (summaryPages != null)
+            return;
+
+        SummaryLayout layout = new SummaryLayout(topology);
+        int pageCount = (layout.cellCount + SUMMARY_PAGE_MASK) >>> SUMMARY_PAGE_SHIFT;
+
+        summaryLayout = layout;
+        summaryPages = new int[pageCount][];
+        summaryOwners = new Object[pageCount];
+        Arrays.fill(summaryPages, ZERO_SUMMARY_PAGE);
+
+        // Add every tile which is not covered
+        for (int p = 0; p < visiblePages.length; p++)
+        {
+            if (visiblePages[p] == COVERED_PAGE)
+                continue;
+
+            int start = p << PAGE_SHIFT;
+            int end = Math.min(tileCount, start + PAGE_SIZE);
+
+            for (int i = start; i < end; i++)
+            {
+                byte visible = visible(i);
+
+                if (visible == VISIBLE_FLAGGED)
+                    updateSummary(i, 1, 0);
+                else if (visible >= VISIBLE_MINE)
+                    updateSummary(i, 0, 1);
+            }
+        }
+    }
+
+    /**
+     * Counts the covered, flagged and uncovered tiles in a rectangle of the layout grid
+     *
+     * Positions outside the grid or without tiles are ignored. This takes O(log n + perimeter)
+     * time while tracking region counts, or O(area) otherwise.
+     *
+     * @param x x position of the top left of the rectangle
+     * @param y y position of the top left of the rectangle
+     * @param width width of the rectangle
+     * @param height height of the rectangle
+     * @param counts array to store the counts in (indexed by the REGION_ constants)
+     */
+    public void countRegion(int x, int y, int width, int height, int[] counts)
+    {
+        int left = Math.max(x, 0);
+        int top = Math.max(y, 0);
+        int right = (int) Math.min((long) x + width, getWidth());
+        int bottom = (int) Math.min((long) y + height, getHeight());
+
+        counts[REGION_COVERED] = 0;
+        counts[REGION_FLAGGED] = 0;
+        counts[REGION_UNCOVERED] = 0;
+
+        if (left >= right || top >= bottom)
+            return;
+
+        // Covered tiles are counted as the total number of tiles until the end
+        if (summaryLayout == null)
+            countPositions(left, top, right, bottom, counts);
+        else
+            countCells(summaryLayout.levels - 1, 0, 0, left, top, right, bottom, counts);
+
+        counts[REGION_COVERED] -= counts[REGION_FLAGGED] + counts[REGION_UNCOVERED];
+    }
+
+    /**
+     * Adds the counts of the parts of a cell of the summary pyramid which are inside a rectangle
+     */
+    private void countCells(int level, int cellX, int cellY, int left, int top, int right, int bottom, int[] counts)
+    {
+        int shift = SUMMARY_SHIFT + level;
+        long cellLeft = (long) cellX << shift;
+        long cellTop = (long) cellY << shift;
+        long cellRight = cellLeft + (1L << shift);
+        long cellBottom = cellTop + (1L << shift);
+
+        if (cellRight <= left || cellLeft >= right || cellBottom <= top || cellTop >= bottom)
+            return;
+
+        if (left <= cellLeft && cellRight <= right && top <= cellTop && cellBottom <= bottom)
+        {
+            // The whole cell is inside
+            int cell = summaryLayout.starts[level] + cellY * summaryLayout.widths[level] + cellX;
+            int[] page = summaryPages[cell >>> SUMMARY_PAGE_SHIFT];
+            int pos = (cell & SUMMARY_PAGE_MASK) << 1;
+
+            counts[REGION_COVERED] += summaryLayout.tiles[cell];
+            counts[REGION_FLAGGED] += page[pos];
+            counts[REGION_UNCOVERED] += page[pos + 1];
+        }
+        else if (level == 0)
+        {
+            countPositions((int) Math.max(left, cellLeft), (int) Math.max(top, cellTop),
+                           (int) Math.min(right, cellRight), (int) Math.min(bottom, cellBottom), counts);
+        }
+        else
+        {
+            for (int dy = 0; dy < 2; dy++)
+            {
+                for (int dx = 0; dx < 2; dx++)
+                {
+                    int childX = cellX * 2 + dx;
+                    int childY = cellY * 2 + dy;
+
+                    if (childX < summaryLayout.widths[level - 1] && childY < summaryLayout.heights[level - 1])
+                        countCells(level - 1, childX, childY, left, top, right, bottom, counts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of each tile in a rectangle (covered tiles are counted in the total)
+     */
+    private void countPositions(int left, int top, int right, int bottom, int[] counts)
+    {
+        // Rows of row major topologies are contiguous so can be read straight from the pages
+        if (topology.isRowMajor())
+        {
+            int width = getWidth();
+            int flagged = 0;
+            int uncovered = 0;
+
+            for (int y = top; y < bottom; y++)
+            {
+                int start = y * width + left;
+                int end = y * width + right;
+
+                for (int i = start; i < end; i++)
+                {
+                    byte visible = visiblePages[i >>> PAGE_SHIFT][i & PAGE_MASK];
+
+                    if (visible == VISIBLE_FLAGGED)
+                        flagged++;
+                    else if (visible >= VISIBLE_MINE)
+                        uncovered++;
+                }
+            }
+
+            counts[REGION_COVERED] += (right - left) * (bottom - top);
+            counts[REGION_FLAGGED] += flagged;
+            counts[REGION_UNCOVERED] += uncovered;
+            return;
+        }
+
+        for (int y = top; y < bottom; y++)
+        {
+            for (int x = left; x < right; x++)
+            {
+                int index = topology.getIndex(x, y);
+
+                if (index < 0)
+                    continue;
+
+                byte visible = visible(index);
+
+                counts[REGION_COVERED]++;
+
+                if (visible == VISIBLE_FLAGGED)
+                    counts[REGION_FLAGGED]++;
+                else if (visible >= VISIBLE_MINE)
+                    counts[REGION_UNCOVERED]++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of levels in the summary pyramid
+     *
+     * @return number of levels (0 if not tracking region counts)
+     */
+    int getSummaryLevels()
+    {
+        return summaryLayout == null ? 0 : summaryLayout.levels;
+    }
+
+    /**
+     * Gets the width of a level of the summary pyramid in cells
+     */
+    int getSummaryWidth(int level)
+    {
+        return summaryLayout.widths[level];
+    }
+
+    /**
+     * Gets the height of a level of the summary pyramid in cells
+     */
+    int getSummaryHeight(int level)
+    {
+        return summaryLayout.heights[level];
+    }
+
+    /**
+     * Gets the width and height of each cell of a level of the summary pyramid in layout positions
+     */
+    static int getSummaryCellSize(int level)
+    {
+        return 1 << (SUMMARY_SHIFT + level);
+    }
+
+    /**
+     * Reads the counts of a cell of the summary pyramid
+     *
+     * @param level level of the pyramid
+     * @param cellX x position of the cell
+     * @param cellY y position of the cell
+     * @param counts array to store the counts in (indexed by the REGION_ constants)
+     */
+    void readSummaryCell(int level, int cellX, int cellY, int[] counts)
+    {
+        int cell = summaryLayout.starts[level] + cellY * summaryLayout.widths[level] + cellX;
+        int[] page = summaryPages[cell >>> SUMMARY_PAGE_SHIFT];
+        int pos = (cell & SUMMARY_PAGE_MASK) << 1;
+
+        counts[REGION_FLAGGED] = page[pos];
+        counts[REGION_UNCOVERED] = page[pos + 1];
+        counts[REGION_COVERED] = summaryLayout.tiles[cell] - page[pos] - page[pos + 1];
+    }
+
+    /**
+     * Updates the cells of the summary pyramid containing a tile
+     */
+    private void updateSummary(int index, int flagDelta, int uncoveredDelta)
+    {
+        SummaryLayout layout = summaryLayout;
+        int x = topology.getX(index);
+        int y = topology.getY(index);
+
+        for (int level = 0; level < layout.levels; level++)
+        {
+            int shift = SUMMARY_SHIFT + level;
+            int cell = layout.starts[level] + (y >> shift) * layout.widths[level] + (x >> shift);
+            int[] page = writableSummaryPage(cell >>> SUMMARY_PAGE_SHIFT);
+            int pos = (cell & SUMMARY_PAGE_MASK) << 1;
+
+            page[pos] += flagDelta;
+            page[pos + 1] += uncoveredDelta;
+        }
+    }
+
+    /**
+     * Sets what is visible on a tile and records the change
+     *
+     * All changes to visiblePages must go through this method.
+     *
+     * @param index index of tile
+     * @param visible new visible value
+     */
+    private void setVisible(int index, byte visible)
+    {
+        byte[] page = writableVisiblePage(index >>> PAGE_SHIFT);
+        byte old = page[index & PAGE_MASK];
+        page[index & PAGE_MASK] = visible;
+
+        // Update the neighbourhood counts of the surrounding tiles
+        int flagDelta = (visible == VISIBLE_FLAGGED ? 1 : 0) - (old == VISIBLE_FLAGGED ? 1 : 0);
+        int uncoveredDelta = (visible >= VISIBLE_MINE ? 1 : 0) - (old >= VISIBLE_MINE ? 1 : 0);
+
+        if (flagDelta != 0 || uncoveredDelta != 0)
+        {
+            int[] offsets = classOffsets[tileClasses[index]];
+
+            for (int k = 0; k < offsets.length; k++)
+            {
+                int neighbour = index + offsets[k];
+                byte[] around = writableAroundPage(neighbour >>> PAGE_SHIFT);
+                int pos = (neighbour & PAGE_MASK) << 1;
+
+                around[pos] += flagDelta;
+                around[pos + 1] += uncoveredDelta;
+
+                // Changing a flag can make the numbers around it satisfied
+                if (trackingDirty && flagDelta != 0)
+                    markDirty(neighbour);
+            }
+
+            // A newly uncovered tile may be satisfied already
+            if (trackingDirty && uncoveredDelta > 0)
+                markDirty(index);
+
+            if (summaryPages != null)
+                updateSummary(index, flagDelta, uncoveredDelta);
+        }
+
+        // Update the hashes
+        if (old != visible)
+        {
+            stateHash ^= tileHash(index, old) ^ tileHash(index, visible);
+
+            if (symmetryHashes != null)
+            {
+                for (int s = 0; s < symmetryHashes.length; s++)
+                {
+                    int mapped = topology.mapSymmetry(s, index);
+                    symmetryHashes[s] ^= tileHash(mapped, old) ^ tileHash(mapped, visible);
+                }
+            }
+        }
+
+        if (trackingChanges)
+        {
+            if (changeCount == changedTiles.length)
+                changedTiles = Arrays.copyOf(changedTiles, changeCount * 2);
+
+            changedTiles[changeCount++] = index;
+        }
+    }
+
+    /**
+     * Gets what is visible on a tile (without any checks)
+     */
+    private byte visible(int index)
+    {
+        return visiblePages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    /**
+     * Returns true if there is a mine on a tile (the mines must have been placed)
+     */
+    private boolean isMine(int index)
+    {
+        return (mineBits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Gets the value of a tile (the mines must have been placed), calculating it if needed
+     */
+    private byte value(int index)
+    {
+        byte value = valuePages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+
+        if (value == VALUE_UNKNOWN)
+            value = calculateValue(index);
+
+        return value;
+    }
+
+    /**
+     * Gets the value of a tile without caching it if it has not been calculated yet
+     */
+    private byte peekValue(int index)
+    {
+        byte value = valuePages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+
+        if (value == VALUE_UNKNOWN)
+            value = countValue(index);
+
+        return value;
+    }
+
+    /**
+     * Counts the mines surrounding a tile (-1 if it is a mine)
+     */
+    private byte countValue(int index)
+    {
+        if (isMine(index))
+            return -1;
+
+        int[] offsets = classOffsets[tileClasses[index]];
+        byte value = 0;
+
+        for (int k = 0; k < offsets.length; k++)
+        {
+            if (isMine(index + offsets[k]))
+                value++;
+        }
+
+        return value;
+    }
+
+    /**
+     * Calculates and caches the value of a tile (lazy mode only)
+     */
+    private byte calculateValue(int index)
+    {
+        byte value = countValue(index);
+
+        // Snapshots may be read by other threads so they do not cache anything
+        if (!readOnly)
+            writableValuePage(index >>> PAGE_SHIFT)[index & PAGE_MASK] = value;
+
+        return value;
+    }
+
+    /**
+     * Converts a covered tile state into its visible tile value
+     *
+     * @param state tile state (not UNCOVERED)
+     * @return VISIBLE_ constant for the state
+     */
+    private static byte toVisible(TileState state)
+    {
+        switch (state)
+        {
+            case COVERED:   return VISIBLE_COVERED;
+            case FLAGGED:   return VISIBLE_FLAGGED;
+            case QUESTION:  return VISIBLE_QUESTION;
+
+            default:
+                throw new IllegalArgumentException("state must be covered");
+        }
+    }
+
+    /**
+     * Gets what is visible on a tile as a single byte
+     *
+     * @param index index of tile
+     * @return the value of the tile if it is uncovered (-1 = mine), or one of the VISIBLE_ constants
+     */
+    public byte getVisibleTile(int index)
+    {
+        if (index < 0 || index >= tileCount)
+            throw new IndexOutOfBoundsException("no tile with index " + index);
+
+        return visible(index);
+    }
+
+    /**
+     * Copies what is visible on a range of tiles into an array
+     *
+     * Each tile is encoded as in {@link #getVisibleTile(int)}.
+     *
+     * @param start index of the first tile
+     * @param dst array to copy into
+     * @param offset position in dst to copy the first tile to
+     * @param length number of tiles to copy
+     */
+    public void readTiles(int start, byte[] dst, int offset, int length)
+    {
+        if (start < 0 || length < 0 || start > tileCount - length)
+            throw new IndexOutOfBoundsException("tiles are outside the minefield");
+
+        if (offset < 0 || offset > dst.length - length)
+            throw new IndexOutOfBoundsException("destination array is too small");
+
+        // Copy one page at a time
+        while (length > 0)
+        {
+            int pageOffset = start & PAGE_MASK;
+            int chunk = Math.min(length, PAGE_SIZE - pageOffset);
+
+            System.arraycopy(visiblePages[start >>> PAGE_SHIFT], pageOffset, dst, offset, chunk);
+            start += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Copies what is visible in a rectangle of the layout grid into an array
+     *
+     * The rectangle is stored row by row (width bytes per row) with each tile encoded as
+     * in {@link #getVisibleTile(int)}. Positions without a tile are stored as VISIBLE_NONE.
+     * For row major topologies each row is copied with one array copy per page.
+     *
+     * @param x x position of the left of the rectangle
+     * @param y y position of the top of the rectangle
+     * @param width width of the rectangle
+     * @param height height of the rectangle
+     * @param dst array to copy into
+     * @param offset position in dst to copy the top left tile to
+     */
+    public void readRegion(int x, int y, int width, int height, byte[] dst, int offset)
+    {
+        checkRegion(x, y, width, height);
+
+        if ((long) width * height > dst.length - offset || offset < 0)
+            throw new IndexOutOfBoundsException("destination array is too small");
+
+        for (int row = 0; row < height; row++)
+        {
+            int dstPos = offset + row * width;
+
+            if (topology.isRowMajor())
+            {
+                readTiles(x + (y + row) * getWidth(), dst, dstPos, width);
+            }
+            else
+            {
+                for (int col = 0; col < width; col++)
+                {
+                    int index = topology.getIndex(x + col, y + row);
+                    dst[dstPos + col] = (index < 0) ? VISIBLE_NONE : visible(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies what is visible in a rectangle of the layout grid into a buffer
+     *
+     * The tiles are written at the buffer's position, which is advanced past them.
+     *
+     * @param x x position of the left of the rectangle
+     * @param y y position of the top of the rectangle
+     * @param width width of the rectangle
+     * @param height height of the rectangle
+     * @param dst buffer to copy into
+     * @see #readRegion(int, int, int, int, byte[], int)
+     */
+    public void readRegion(int x, int y, int width, int height, ByteBuffer dst)
+    {
+        checkRegion(x, y, width, height);
+
+        if ((long) width * height > dst.remaining())
+            throw new BufferOverflowException();
+
+        for (int row = 0; row < height; row++)
+        {
+            if (topology.isRowMajor())
+            {
+                int start = x + (y + row) * getWidth();
+                int length = width;
+
+                // Copy one page at a time
+                while (length > 0)
+                {
+                    int pageOffset = start & PAGE_MASK;
+                    int chunk = Math.min(length, PAGE_SIZE - pageOffset);
+
+                    dst.put(visiblePages[start >>> PAGE_SHIFT], pageOffset, chunk);
+                    start += chunk;
+                    length -= chunk;
+                }
+            }
+            else
+            {
+                for (int col = 0; col < width; col++)
+                {
+                    int index = topology.getIndex(x + col, y + row);
+                    dst.put((index < 0) ? VISIBLE_NONE : visible(index));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that a rectangle is inside the layout grid
+     */
+    private void checkRegion(int x, int y, int width, int height)
+    {
+        if (x < 0 || y < 0 || width < 0 || height < 0 ||
+            x + width > getWidth() || y + height > getHeight())
+        {
+            throw new IndexOutOfBoundsException("region is outside the minefield");
+        }
+    }
+
+    /**
+     * Updates the state of the given tile
+     *
+     * Can be used to add flags and uncover tiles.
+     * You cannot cover a tile that has already been uncovered.
+     * If a tile is uncovered, other tile states and the game state may be updated.
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     * @param newState the tile's new state
+     */
+    public void setTileState(int x, int y, TileState newState)
+    {
+        setTileState(indexOf(x, y), newState);
+    }
+
+    /**
+     * Updates the state of the tile with the given index
+     *
+     * @param index index of tile
+     * @param newState the tile's new state
+     * @see #setTileState(int, int, TileState)
+     */
+    public void setTileState(int index, TileState newState)
+    {
+        checkWritable();
+
+        if (isFinished())
+            throw new IllegalStateException("the game has finished");
+
+        switch (newState)
+        {
+            case COVERED:
+            case FLAGGED:
+            case QUESTION:
+                // Set unless we're recovering a tile
+                if (visible(index) >= VISIBLE_MINE)
+                    throw new UnsupportedOperationException("you cannot cover a tile once uncovered");
+
+                // Setting the state a tile already has is not counted as a move
+                if (visible(index) != toVisible(newState))
+                {
+                    moveCount++;
+                    setVisible(index, toVisible(newState));
+                }
+                break;
+
+            case UNCOVERED:
+                // Forward to uncover
+                uncover(index);
+                break;
+
+            default:
+                throw new IllegalArgumentException("newState is not a valid tile state");
+        }
+    }
+
+    /**
+     * Uncovers the tile at the given location
+     *
+     * This method is equivalent to calling {@code setTileState(x, y, TileState.UNCOVERED)}
+     *
+     * @param x x position of tile
+     * @param y y position of tile
+     */
+    public void uncover(int x, int y)
+    {
+        uncover(indexOf(x, y));
+    }
+
+    /**
+     * Uncovers the tile with the given index
+     *
+     * @param index index of tile
+     * @see #uncover(int, int)
+     */
+    public void uncover(int index)
+    {
+        checkWritable();
+
+        if (isFinished())
+            throw new IllegalStateException("the game has finished");
+
+        if (index < 0 || index >= tileCount)
+            throw new IndexOutOfBoundsException("no tile with index " + index);
+
+        // Uncovering an uncovered tile is not counted as a move
+        if (visible(index) >= VISIBLE_MINE)
+            return;
+
+        moveCount++;
+
+        // New game?
+        if (gameState == GameState.NOT_STARTED)
+        {
+            initValues(index);
+            gameState = GameState.RUNNING;
+        }
+
+        // Perform any uncovering
+        uncoverNoChecks(index);
+    }
+
+    /**
+     * Uncovers the given tile and surrounding tiles without performing state checks
+     *
+     * @param index index of tile
+     */
+    private void uncoverNoChecks(int index)
+    {
+        // Ignore if the tile is already uncovered
+        if (visible(index) >= VISIBLE_MINE)
+            return;
+
+        // Uncover this tile
+        byte value = value(index);
+        setVisible(index, value);
+        tilesLeft--;
+
+        // Check for special tiles (0 and mines)
+        if (value < 0)
+        {
+            // Hit a mine
+            gameState = GameState.LOST;
+            uncoverAllMines();
+            return;
+        }
+
+        if (value == 0)
+        {
+            // Uncover all surrounding tiles
+            if (tileOpenings != null)
+                uncoverOpening(tileOpenings[index]);
+            else
+                floodFill(index);
+        }
+
+        if (tilesLeft <= 0 && gameState == GameState.RUNNING)
+        {
+            // Uncovered all the non-mines!
+            //  The gameState check is required for chording since you may hit a mine and then win
+            //  later on the same move (which we don't want to overwrite)
+            gameState = GameState.WON;
+            uncoverAllMines();
+        }
+    }
+
+    /**
+     * Uncovers all the tiles connected to an uncovered zero tile
+     *
+     * Tiles are uncovered in breadth first order. Tiles surrounding a zero are never
+     * mines so there is no need to check for them here.
+     *
+     * @param start index of the zero tile to start from
+     */
+    private void floodFill(int start)
+    {
+        int[] queue = floodQueue;
+        int head = 0;
+        int tail = 0;
+
+        queue[tail++] = start;
+
+        while (head < tail)
+        {
+            int tile = queue[head++];
+            int[] offsets = classOffsets[tileClasses[tile]];
+
+            for (int k = 0; k < offsets.length; k++)
+            {
+                int neighbour = tile + offsets[k];
+
+                if (visible(neighbour) < VISIBLE_MINE)
+                {
+                    byte value = value(neighbour);
+                    setVisible(neighbour, value);
+                    tilesLeft--;
+
+                    if (value == 0)
+                    {
+                        // Grow queue if needed (each tile is only added once)
+                        if (tail == queue.length)
+                            floodQueue = queue = Arrays.copyOf(queue, Math.min(queue.length * 2, tileCount));
+
+                        queue[tail++] = neighbour;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Uncovers all the tiles in an opening using the opening index
+     *
+     * @param opening the opening to uncover
+     */
+    private void uncoverOpening(int opening)
+    {
+        for (int i = openingStart[opening]; i < openingStart[opening + 1]; i++)
+        {
+            int tile = openingTiles[i];
+
+            if (visible(tile) < VISIBLE_MINE)
+            {
+                setVisible(tile, value(tile));
+                tilesLeft--;
+            }
+        }
+    }
+
+    /**
+     * Uncovers all mines if uncoverMinesAtEnd is set
+     *
+     * This does not uncover correctly flagged mines, but sets incorrectly
+     * flagged mines to questions.
+     */
+    private void uncoverAllMines()
+    {
+        if (uncoverMinesAtEnd)
+        {
+            // Set flags on tiles which are not mines to questions
+            //  Pages which have never been written cannot contain flags
+            for (int p = 0; p < visiblePages.length; p++)
+            {
+                byte[] page = visiblePages[p];
+
+                if (page == COVERED_PAGE)
+                    continue;
+
+                int end = Math.min(PAGE_SIZE, tileCount - (p << PAGE_SHIFT));
+
+                for (int i = 0; i < end; i++)
+                {
+                    int index = (p << PAGE_SHIFT) + i;
+
+                    if (page[i] == VISIBLE_FLAGGED && !isMine(index))
+                        setVisible(index, VISIBLE_QUESTION);
+                }
+            }
+
+            // Uncover all mines which are not flagged
+            for (int w = 0; w < mineBits.length; w++)
+            {
+                for (long bits = mineBits[w]; bits != 0; bits &= bits - 1)
+                {
+                    int index = (w << 6) + Long.numberOfTrailingZeros(bits);
+
+                    if (visible(index) != VISIBLE_FLAGGED)
+                        setVisible(index, VISIBLE_MINE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Attempts to chord using the given central position
+     *
+     * Chording causes all the surrounding tiles to be uncovered if the number of
+     * surrounding flags is equal to the value on the central tile.
+     *
+     * This method does nothing if the central tile is still covered of the number of
+     * surrounding flags in incorrect.
+     *
+     * @param x x position of central tile
+     * @param y y position of central tile
+     */
+    public void chord(int x, int y)
+    {
+        chord(indexOf(x, y));
+    }
+
+    /**
+     * Attempts to chord using the tile with the given index
+     *
+     * @param index index of central tile
+     * @see #chord(int, int)
+     */
+    public void chord(int index)
+    {
+        checkWritable();
+
+        if (isFinished())
+            throw new IllegalStateException("the game has finished");
+
+        checkIndex(index);
+
+        // Only chord uncovered numbers with the right number of flags around them and something
+        //  left to uncover (chords which do nothing are not counted as moves)
+        if (isChordable(index))
+        {
+            moveCount++;
+            chordNoChecks(index);
+        }
+    }
+
+    /**
+     * Uncovers all the tiles surrounding a tile which are not flagged
+     *
+     * @param index index of tile
+     */
+    private void chordNoChecks(int index)
+    {
+        int[] offsets = classOffsets[tileClasses[index]];
+
+        for (int k = 0; k < offsets.length; k++)
+        {
+            int neighbour = index + offsets[k];
+
+            if (visible(neighbour) != VISIBLE_FLAGGED)
+                uncoverNoChecks(neighbour);
+        }
+    }
+
+    /**
+     * Chords every satisfied number until there are none left
+     *
+     * A satisfied number is an uncovered tile with as many flags around it as its value and
+     * at least one covered tile around it which is not flagged. Chording may uncover more
+     * satisfied numbers, which are also chorded. Each chord counts as one move. If a flag is
+     * wrong this can lose the game.
+     *
+     * The first sweep checks every tile. Afterwards the minefield keeps a work list of tiles
+     * which may have become satisfied (tiles which have been uncovered and tiles around flags
+     * which have changed) so later sweeps only check those.
+     *
+     * @return number of chords made
+     */
+    public int chordSatisfied()
+    {
+        checkWritable();
+
+        if (isFinished())
+            throw new IllegalStateException("the game has finished");
+
+        if (!trackingDirty)
+        {
+            trackingDirty = true;
+            dirtyBits = new long[(tileCount + 63) >>> 6];
+            dirtyTiles = new int[64];
+            dirtyCount = 0;
+
+            // Pages which have never been written contain no uncovered tiles
+            for (int p = 0; p < visiblePages.length; p++)
+            {
+                if (visiblePages[p] == COVERED_PAGE)
+                    continue;
+
+                int first = p << PAGE_SHIFT;
+                int end = Math.min(first + PAGE_SIZE, tileCount);
+
+                for (int i = first; i < end; i++)
+                {
+                    if (visible(i) > 0)
+                        markDirty(i);
+                }
+            }
+        }
+
+        int chords = 0;
+
+        while (dirtyCount > 0 && !isFinished())
+        {
+            int tile = dirtyTiles[--dirtyCount];
+            dirtyBits[tile >>> 6] &= ~(1L << tile);
+
+            if (isChordable(tile))
+            {
+                moveCount++;
+                chordNoChecks(tile);
+                chords++;
+            }
+        }
+
+        return chords;
+    }
+
+    /**
+     * Returns true if a tile is a satisfied number with covered tiles left around it
+     */
+    private boolean isChordable(int index)
+    {
+        byte value = visible(index);
+
+        return value >= 0 && value == flaggedAround(index) &&
+               uncoveredAround(index) + value < classOffsets[tileClasses[index]].length;
+    }
+
+    /**
+     * Adds a tile to the work list of the chordSatisfied sweep
+     */
+    private void markDirty(int index)
+    {
+        long bit = 1L << index;
+
+        if ((dirtyBits[index >>> 6] & bit) != 0)
+            return;
+
+        dirtyBits[index >>> 6] |= bit;
+
+        if (dirtyCount == dirtyTiles.length)
+            dirtyTiles = Arrays.copyOf(dirtyTiles, Math.min(dirtyCount * 2, tileCount));
+
+        dirtyTiles[dirtyCount++] = index;
+    }
+
+    /**
+     * Gets the number of flagged tiles around a tile (without any checks)
+     */
+    private int flaggedAround(int index)
+    {
+        return aroundPages[index >>> PAGE_SHIFT][(index & PAGE_MASK) << 1];
+    }
+
+    /**
+     * Gets the number of uncovered tiles around a tile (without any checks)
+     */
+    private int uncoveredAround(int index)
+    {
+        return aroundPages[index >>> PAGE_SHIFT][((index & PAGE_MASK) << 1) + 1];
+    }
+
+    /**
+     * Gets the number of flagged tiles surrounding a tile
+     *
+     * This is maintained as tiles change, so takes O(1) time.
+     *
+     * @param index index of tile
+     * @return number of flagged neighbours
+     */
+    public int getFlaggedNeighbours(int index)
+    {
+        checkIndex(index);
+        return flaggedAround(index);
+    }
+
+    /**
+     * Gets the number of covered tiles surrounding a tile (including flagged and question tiles)
+     *
+     * This is maintained as tiles change, so takes O(1) time.
+     *
+     * @param index index of tile
+     * @return number of covered neighbours
+     */
+    public int getCoveredNeighbours(int index)
+    {
+        checkIndex(index);
+        return classOffsets[tileClasses[index]].length - uncoveredAround(index);
     }
 
     /**
-     * Returns true if the game has finished
+     * Returns true if a tile is an uncovered number with exactly as many flags around it as its value
      *
-     * @return true if the game has finished
+     * Chording a satisfied number uncovers the rest of the tiles around it.
+     *
+     * @param index index of tile
+     * @return true if satisfied
      */
-    public boolean isFinished()
+    public boolean isSatisfied(int index)
     {
-        return gameState != GameState.RUNNING && gameState != GameState.NOT_STARTED;
+        checkIndex(index);
+
+        byte value = visible(index);
+        return value >= 0 && value == flaggedAround(index);
     }
 
     /**
-     * Gets the value of the given tile (mine / surrounding mines)
+     * Returns true if every tile surrounding a tile is either uncovered or flagged
      *
-     * This should only be called AFTER the first tile is clicked (or when a tile is uncovered)
-     *
-     * @param x x position of tile
-     * @param y y position of tile
-     * @return value of that tile (-1 = mine)
+     * @param index index of tile
+     * @return true if all the neighbours are resolved
      */
-    public int getTileValue(int x, int y)
+    public boolean isResolved(int index)
     {
-        if (gameState == GameState.NOT_STARTED)
-            throw new IllegalStateException("you must call uncover at least once before using getTileValue");
-
-        return valuesArray[x][y];
+        checkIndex(index);
+        return uncoveredAround(index) + flaggedAround(index) == classOffsets[tileClasses[index]].length;
     }
 
     /**
-     * Gets the state of the given tile
+     * Applies a list of moves to the minefield
      *
-     * @param x x position of tile
-     * @param y y position of tile
-     * @return state of that tile
+     * @param ops the moves to make (MOVE_ constants)
+     * @param xs x positions of the tiles, or tile indexes if ys is null
+     * @param ys y positions of the tiles (or null)
+     * @return the result of each move (RESULT_ constants)
+     * @see #applyMoves(byte[], int[], int[], int, int, byte[])
      */
-    public TileState getTileState(int x, int y)
+    public byte[] applyMoves(byte[] ops, int[] xs, int[] ys)
     {
-        return stateArray[x][y];
+        byte[] results = new byte[ops.length];
+        applyMoves(ops, xs, ys, 0, ops.length, results);
+        return results;
     }
 
     /**
-     * Updates the state of the given tile
+     * Applies a list of moves to the minefield
      *
-     * Can be used to add flags and uncover tiles.
-     * You cannot cover a tile that has already been uncovered.
-     * If a tile is uncovered, other tile states and the game state may be updated.
+     * Moves are applied in order until the game finishes. Unlike the single move methods,
+     * invalid moves do not throw exceptions but are reported in the results array.
      *
-     * @param x x position of tile
-     * @param y y position of tile
-     * @param newState the tile's new state
+     * @param ops the moves to make (MOVE_ constants)
+     * @param xs x positions of the tiles, or tile indexes if ys is null
+     * @param ys y positions of the tiles (or null)
+     * @param offset index of the first move in the arrays
+     * @param count number of moves to make
+     * @param results array to store the result of each move in (RESULT_ constants, at the same offset)
+     * @return number of moves attempted before the game finished (count if it didn't)
      */
-    public void setTileState(int x, int y, TileState newState)
+    public int applyMoves(byte[] ops, int[] xs, int[] ys, int offset, int count, byte[] results)
     {
-        if (isFinished())
-            throw new IllegalStateException("the game has finished");
+        checkWritable();
 
-        switch (newState)
+        int end = offset + count;
+
+        for (int i = offset; i < end; i++)
         {
-            case COVERED:
-            case FLAGGED:
-            case QUESTION:
-                // Set unless we're recovering a tile
-                if (stateArray[x][y] == TileState.UNCOVERED)
-                    throw new UnsupportedOperationException("you cannot cover a tile once uncovered");
+            if (isFinished())
+            {
+                Arrays.fill(results, i, end, RESULT_SKIPPED);
+                return i - offset;
+            }
 
-                stateArray[x][y] = newState;
-                break;
+            int index = (ys == null) ? xs[i] : topology.getIndex(xs[i], ys[i]);
 
-            case UNCOVERED:
-                // Forward to uncover
-                uncover(x, y);
-                break;
+            if (index < 0 || index >= tileCount)
+            {
+                results[i] = RESULT_INVALID;
+                continue;
+            }
 
-            default:
-                throw new IllegalArgumentException("newState is not a valid tile state");
+            results[i] = applyMove(ops[i], index);
         }
+
+        return count;
     }
 
     /**
-     * Uncovers the tile at the given location
+     * Applies a single move from a batch
      *
-     * This method is equivalent to calling {@code setTileState(x, y, TileState.UNCOVERED)}
-     *
-     * @param x x position of tile
-     * @param y y position of tile
+     * @param op the move
+     * @param index index of the tile (which is valid)
+     * @return the result of the move
      */
-    public void uncover(int x, int y)
+    private byte applyMove(byte op, int index)
     {
-        if (isFinished())
-            throw new IllegalStateException("the game has finished");
+        byte oldState = visible(index);
+        byte newState;
 
-        // New game?
-        if (gameState == GameState.NOT_STARTED)
+        switch (op)
         {
-            initValues(x, y);
-            gameState = GameState.RUNNING;
+            case MOVE_UNCOVER:
+                uncover(index);
+                return oldState >= VISIBLE_MINE ? RESULT_UNCHANGED : RESULT_CHANGED;
+
+            case MOVE_CHORD:
+                int oldTilesLeft = tilesLeft;
+                GameState oldGameState = gameState;
+
+                chord(index);
+                return (tilesLeft != oldTilesLeft || gameState != oldGameState) ? RESULT_CHANGED : RESULT_UNCHANGED;
+
+            case MOVE_COVER:    newState = VISIBLE_COVERED;   break;
+            case MOVE_FLAG:     newState = VISIBLE_FLAGGED;   break;
+            case MOVE_QUESTION: newState = VISIBLE_QUESTION;  break;
+
+            default:
+                return RESULT_INVALID;
         }
 
-        // Perform any uncovering
-        uncoverNoChecks(x, y);
+        if (oldState >= VISIBLE_MINE)
+            return RESULT_INVALID;
+
+        if (oldState == newState)
+            return RESULT_UNCHANGED;
+
+        moveCount++;
+        setVisible(index, newState);
+        return RESULT_CHANGED;
     }
 
-    /** Tile processor for uncoverNoChecks which uncovers a tile immediately */
-    private final SurroundingTilesProcessor PROCESSOR_UNCOVER = new SurroundingTilesProcessor()
+    /**
+     * Initializes the values grid for a new game
+     *
+     * start is used to prevent mines from appearing at the start location
+     *
+     * @param start index of tile to prevent mines for
+     */
+    private void initValues(int start)
     {
-        @Override
-        public void process(int x, int y)
+        allocateMines();
+
+        // Randomly place all the mines
+        Random rnd = new Random(seed);
+
+        for (int i = 0; i < mines; i++)
         {
-            uncoverNoChecks(x, y);
+            int tile;
+
+            // Keep trying random positions until we've found an acceptable one
+            do
+            {
+                tile = rnd.nextInt(tileCount);
+            }
+            while(isMine(tile) || tile == start);
+
+            placeMine(tile);
         }
-    };
+
+        if (!lazyValues && tileCount <= OPENING_INDEX_LIMIT)
+            boardStatistics = analyseBoard(true);
+    }
 
     /**
-     * Uncovers the given tile and surrounding tiles without performing state checks
+     * Finds the openings and isolated numbers of the mine layout
      *
-     * @param x x position of tile
-     * @param y y position of tile
+     * Zero tiles are joined into openings using a union-find pass, then each number is added
+     * to the openings around it (or counted as isolated if there are none).
+     *
+     * @param buildIndex true to also build the opening index used by uncover
+     * @return the statistics
      */
-    private void uncoverNoChecks(int x, int y)
+    private BoardStatistics analyseBoard(boolean buildIndex)
     {
-        int width = getWidth();
-        int height = getHeight();
+        // Union-find over the zero tiles (-1 for other tiles)
+        //  The root of each set is its lowest index, so parent[i] <= i
+        //  When building the index this becomes tileOpenings, so a spare one is reused
+        int[] parent = (buildIndex && spareTileOpenings != null) ? spareTileOpenings : new int[tileCount];
 
-        // Ignore if the tile does not exist / is already uncovered
-        if (x < 0 || y < 0 || x >= width || y >= height)
-            return;
+        for (int i = 0; i < tileCount; i++)
+        {
+            if (peekValue(i) != 0)
+            {
+                parent[i] = -1;
+                continue;
+            }
 
-        if (stateArray[x][y] == TileState.UNCOVERED)
-            return;
+            parent[i] = i;
 
-        // Uncover this tile
-        stateArray[x][y] = TileState.UNCOVERED;
-        tilesLeft--;
+            // Only join with neighbours which have already been visited (each pair of
+            //  neighbours is joined when the second one is visited)
+            int[] offsets = classOffsets[tileClasses[i]];
 
-        // Check for special tiles (0 and mines)
-        if (valuesArray[x][y] == 0)
-        {
-            // Uncover all surrounding tiles
-            processSurrounding(x, y, PROCESSOR_UNCOVER);
+            for (int k = 0; k < offsets.length; k++)
+            {
+                int neighbour = i + offsets[k];
+
+                if (neighbour < i && parent[neighbour] >= 0)
+                {
+                    int a = findRoot(parent, neighbour);
+                    int b = findRoot(parent, i);
+
+                    if (a < b)
+                        parent[b] = a;
+                    else if (b < a)
+                        parent[a] = b;
+                }
+            }
         }
-        else if (valuesArray[x][y] < 0)
+
+        // Number the openings, replacing each zero's parent with its opening number (encoded as
+        //  -2 - n to tell it apart). Parents come before their children, so each parent has
+        //  already been replaced by the time it is read.
+        int openings = 0;
+
+        for (int i = 0; i < tileCount; i++)
         {
-            // Hit a mine
-            gameState = GameState.LOST;
-            uncoverAllMines();
+            if (parent[i] == i)
+                parent[i] = -2 - openings++;
+            else if (parent[i] >= 0)
+                parent[i] = parent[parent[i]];
         }
-        else if (tilesLeft <= 0 && gameState == GameState.RUNNING)
+
+        for (int i = 0; i < tileCount; i++)
+            parent[i] = (parent[i] == -1) ? -1 : -2 - parent[i];
+
+        // Count the tiles in each opening and the isolated numbers
+        int[] sizes = new int[openings];
+        int maxNeighbours = 0;
+        for (int[] offsets : classOffsets)
+            maxNeighbours = Math.max(maxNeighbours, offsets.length);
+
+        int[] around = new int[maxNeighbours];
+        int isolated = 0;
+
+        for (int i = 0; i < tileCount; i++)
         {
-            // Uncovered all the non-mines!
-            //  The gameState check is required for chording since you may hit a mine and then win
-            //  later on the same move (which we don't want to overwrite)
-            gameState = GameState.WON;
-            uncoverAllMines();
+            if (parent[i] >= 0)
+            {
+                sizes[parent[i]]++;
+            }
+            else if (!isMine(i))
+            {
+                int count = findOpeningsAround(parent, i, around);
+
+                if (count == 0)
+                    isolated++;
+
+                for (int j = 0; j < count; j++)
+                    sizes[around[j]]++;
+            }
         }
-    }
 
-    /**
-     * Uncovers all mines if uncoverMinesAtEnd is set
-     *
-     * This does not uncover correctly flagged mines, but sets incorrectly
-     * flagged mines to questions.
-     */
-    private void uncoverAllMines()
-    {
-        if (uncoverMinesAtEnd)
+        if (buildIndex)
         {
-            int width = getWidth();
-            int height = getHeight();
+            // Lay out the tiles of each opening one after another (in index order)
+            //  The spare arrays are reused if they are large enough
+            int[] start = spareOpeningStart;
+
+            if (start == null || start.length < openings + 1)
+                start = new int[openings + 1];
+
+            start[0] = 0;
 
-            // Set state of all mines to uncovered
-            for (int x = 0; x < width; x++)
+            for (int n = 0; n < openings; n++)
+                start[n + 1] = start[n] + sizes[n];
+
+            int[] tiles = spareOpeningTiles;
+
+            if (tiles == null || tiles.length < start[openings])
+                tiles = new int[start[openings]];
+
+            // Each start[n] is used as the next position in opening n, which leaves it equal
+            //  to the old start[n + 1]. They are then moved back up one place.
+            for (int i = 0; i < tileCount; i++)
             {
-                for (int y = 0; y < height; y++)
+                if (parent[i] >= 0)
                 {
-                    if (valuesArray[x][y] < 0)
-                    {
-                        // Uncover if not flagged
-                        if (stateArray[x][y] != TileState.FLAGGED)
-                            stateArray[x][y] = TileState.UNCOVERED;
-                    }
-                    else
-                    {
-                        // Set flags to questions
-                        if (stateArray[x][y] == TileState.FLAGGED)
-                            stateArray[x][y] = TileState.QUESTION;
-                    }
+                    tiles[start[parent[i]]++] = i;
+                }
+                else if (!isMine(i))
+                {
+                    int count = findOpeningsAround(parent, i, around);
+
+                    for (int j = 0; j < count; j++)
+                        tiles[start[around[j]]++] = i;
                 }
             }
+
+            System.arraycopy(start, 0, start, 1, openings);
+            start[0] = 0;
+
+            tileOpenings = parent;
+            openingStart = start;
+            openingTiles = tiles;
+            spareTileOpenings = null;
+            spareOpeningStart = null;
+            spareOpeningTiles = null;
         }
+
+        return new BoardStatistics(sizes, isolated);
     }
 
-    /** Tile processor for chord which uncovers a tile if it is not flagged */
-    private final SurroundingTilesProcessor PROCESSOR_CHORD = new SurroundingTilesProcessor()
+    /**
+     * Finds the root of a tile's set in the union-find array (halving the path as it goes)
+     */
+    private static int findRoot(int[] parent, int tile)
     {
-        @Override
-        public void process(int x, int y)
+        while (parent[tile] != tile)
         {
-            // Uncover non-flagged tiles
-            if (stateArray[x][y] != TileState.FLAGGED)
-                uncoverNoChecks(x, y);
+            parent[tile] = parent[parent[tile]];
+            tile = parent[tile];
         }
-    };
+
+        return tile;
+    }
 
     /**
-     * Attempts to chord using the given central position
-     *
-     * Chording causes all the surrounding tiles to be uncovered if the number of
-     * surrounding flags is equal to the value on the central tile.
-     *
-     * This method does nothing if the central tile is still covered of the number of
-     * surrounding flags in incorrect.
+     * Finds the different openings next to a number
      *
-     * @param x x position of central tile
-     * @param y y position of central tile
+     * @param openings opening of each tile (-1 for non-zeros)
+     * @param tile index of the number
+     * @param around array to store the openings in
+     * @return number of openings found
      */
-    public void chord(int x, int y)
+    private int findOpeningsAround(int[] openings, int tile, int[] around)
     {
-        if (isFinished())
-            throw new IllegalStateException("the game has finished");
-
-        // Ensure the tile is uncovered
-        if (stateArray[x][y] != TileState.UNCOVERED)
-            return;
+        int[] offsets = classOffsets[tileClasses[tile]];
+        int count = 0;
 
-        // Check number of surrounding flags
-        if (valuesArray[x][y] == countSurroundingFlags(x, y))
+        for (int k = 0; k < offsets.length; k++)
         {
-            // Uncover all surrounding tiles which are not flagged
-            processSurrounding(x, y, PROCESSOR_CHORD);
+            int opening = openings[tile + offsets[k]];
+
+            if (opening < 0)
+                continue;
+
+            int j = 0;
+            while (j < count && around[j] != opening)
+                j++;
+
+            if (j == count)
+                around[count++] = opening;
         }
+
+        return count;
     }
 
-    /** Tile processor for initValues which increments a tile's value if it is not a mine */
-    private final SurroundingTilesProcessor PROCESSOR_INIT_VALUES = new SurroundingTilesProcessor()
+    /**
+     * Allocates the mine bitmap (and all the value pages unless values are lazy)
+     */
+    private void allocateMines()
     {
-        @Override
-        public void process(int x, int y)
+        // Reuse the bitmap from before the last reset if possible
+        if (mineBits == null || mineBitsShared)
+        {
+            mineBits = new long[(tileCount + 63) >>> 6];
+            mineBitsShared = false;
+        }
+        else
+        {
+            Arrays.fill(mineBits, 0);
+        }
+
+        if (!lazyValues)
         {
-            // Increment values which are not mines
-            if (valuesArray[x][y] >= 0)
-                valuesArray[x][y]++;
+            unshareTables();
+
+            for (int p = 0; p < valuePages.length; p++)
+            {
+                if (valueOwners[p] == token)
+                {
+                    Arrays.fill(valuePages[p], (byte) 0);
+                }
+                else
+                {
+                    valuePages[p] = new byte[PAGE_SIZE];
+                    valueOwners[p] = token;
+                }
+            }
         }
-    };
+    }
 
     /**
-     * Initializes the values grid for a new game
+     * Places a mine on a tile and updates the values of the surrounding tiles
      *
-     * startX and startY are used to prevent mines from appearing at the start location
+     * In lazy mode only the mine bitmap is updated.
      *
-     * @param startX x position to prevent mines for
-     * @param startY y position to prevent mines for
+     * @param tile index of tile (which must not already be a mine)
      */
-    private void initValues(int startX, int startY)
+    private void placeMine(int tile)
     {
-        int width = getWidth();
-        int height = getHeight();
+        // Set as a mine
+        mineBits[tile >>> 6] |= 1L << tile;
 
-        // Randomly place all the mines
-        Random rnd = new Random();
+        if (lazyValues)
+            return;
 
-        for (int i = 0; i < mines; i++)
-        {
-            int x, y;
+        valuePages[tile >>> PAGE_SHIFT][tile & PAGE_MASK] = -1;
 
-            // Keep trying random positions until we've found an acceptable one
-            do
-            {
-                x = rnd.nextInt(width);
-                y = rnd.nextInt(height);
-            }
-            while(valuesArray[x][y] < 0 || (x == startX && y == startY));
+        // Increment number of mines in all surrounding tiles which are not mines
+        int[] offsets = classOffsets[tileClasses[tile]];
 
-            // Set as a mine
-            valuesArray[x][y] = -1;
+        for (int k = 0; k < offsets.length; k++)
+        {
+            int neighbour = tile + offsets[k];
+            byte[] page = valuePages[neighbour >>> PAGE_SHIFT];
 
-            // Increment number of mines in all surrounding tiles
-            processSurrounding(x, y, PROCESSOR_INIT_VALUES);
+            if (page[neighbour & PAGE_MASK] >= 0)
+                page[neighbour & PAGE_MASK]++;
         }
     }
 
     /**
-     * Counts the number of flags surrounding a position
+     * Starts the game using the given mines and tile states instead of placing mines randomly
      *
-     * @param x x position of central tile
-     * @param y y position of central tile
-     * @return number of surrounding flags
+     * This is used when loading minefields. Afterwards the game is WON if all the non-mines are
+     * uncovered, LOST if a mine is uncovered or otherwise RUNNING (even if no tiles are uncovered).
+     *
+     * @param mineIndexes indexes of the mines (there must be exactly getMines() of them)
+     * @param states the state of each tile
      */
-    private int countSurroundingFlags(int x, int y)
+    void load(int[] mineIndexes, TileState[] states)
     {
-        int count = 0;
-        int width = getWidth();
-        int height = getHeight();
+        checkWritable();
+
+        if (gameState != GameState.NOT_STARTED)
+            throw new IllegalStateException("the game has already started");
+
+        if (mineIndexes.length != mines || states.length != tileCount)
+            throw new IllegalArgumentException("wrong number of mines or tiles");
 
-        if (y > 0)
+        allocateMines();
+
+        for (int tile : mineIndexes)
         {
-            if (x > 0)          if (stateArray[x - 1][y - 1] == TileState.FLAGGED) count++;
-                                if (stateArray[x    ][y - 1] == TileState.FLAGGED) count++;
-            if (x < width - 1)  if (stateArray[x + 1][y - 1] == TileState.FLAGGED) count++;
+            if (isMine(tile))
+                throw new IllegalArgumentException("duplicate mine at tile " + tile);
+
+            placeMine(tile);
         }
 
-        if (x > 0)              if (stateArray[x - 1][y    ] == TileState.FLAGGED) count++;
-        if (x < width - 1)      if (stateArray[x + 1][y    ] == TileState.FLAGGED) count++;
+        if (!lazyValues && tileCount <= OPENING_INDEX_LIMIT)
+            boardStatistics = analyseBoard(true);
 
-        if (y < height - 1)
+        boolean mineUncovered = false;
+
+        for (int i = 0; i < states.length; i++)
         {
-            if (x > 0)          if (stateArray[x - 1][y + 1] == TileState.FLAGGED) count++;
-                                if (stateArray[x    ][y + 1] == TileState.FLAGGED) count++;
-            if (x < width - 1)  if (stateArray[x + 1][y + 1] == TileState.FLAGGED) count++;
+            if (states[i] != TileState.UNCOVERED)
+            {
+                setVisible(i, toVisible(states[i]));
+            }
+            else
+            {
+                setVisible(i, value(i));
+                if (isMine(i))
+                    mineUncovered = true;
+                else
+                    tilesLeft--;
+            }
         }
 
-        return count;
+        // Mines are also uncovered at the end of won games, so check for a win first
+        if (tilesLeft <= 0)
+            gameState = GameState.WON;
+        else if (mineUncovered)
+            gameState = GameState.LOST;
+        else
+            gameState = GameState.RUNNING;
     }
 
     /**
-     * Calls a function on all the surrounding tiles which exist
+     * Gets a string representing the minefield's current visible state
      *
-     * @param x x position of central tile
-     * @param y y position of central tile
+     * @see MinefieldTextFormat
      */
-    private void processSurrounding(int x, int y, SurroundingTilesProcessor processor)
+    @Override
+    public String toString()
     {
-        int width = getWidth();
-        int height = getHeight();
+        StringBuilder builder = new StringBuilder();
 
-        if (y > 0)
+        try
         {
-            if (x > 0)          processor.process(x - 1, y - 1);
-                                processor.process(x    , y - 1);
-            if (x < width - 1)  processor.process(x + 1, y - 1);
+            MinefieldTextFormat.write(this, builder, false);
         }
-
-        if (x > 0)              processor.process(x - 1, y    );
-        if (x < width - 1)      processor.process(x + 1, y    );
-
-        if (y < height - 1)
+        catch (IOException e)
         {
-            if (x > 0)          processor.process(x - 1, y + 1);
-                                processor.process(x    , y + 1);
-            if (x < width - 1)  processor.process(x + 1, y + 1);
+            // StringBuilder never throws IOException
+            throw new AssertionError(e);
         }
+
+        return builder.toString();
     }
 
     /**
-     * Gets a string representing the minefield's current visible state
+     * The shape of the summary pyramid of a topology
      */
-    @Override
-    public String toString()
+    private static final class SummaryLayout
     {
-        int width = getWidth();
-        int height = getHeight();
+        /** Number of levels (the top level has a single cell) */
+        public final int levels;
 
-        StringBuilder builder = new StringBuilder();
+        /** Width and height of each level in cells */
+        public final int[] widths;
+        public final int[] heights;
+
+        /** Number of the first cell of each level */
+        public final int[] starts;
+
+        /** Total number of cells */
+        public final int cellCount;
 
-        // Write top line
-        builder.append('+');
-        for (int x = 0; x < width; x++)
-            builder.append('-');
-        builder.append("+\n");
+        /** Number of tiles in each cell */
+        public final int[] tiles;
 
-        // Write each line of the minefield
-        for (int y = 0; y < height; y++)
+        public SummaryLayout(Topology topology)
         {
-            builder.append('|');
+            int width = topology.getWidth();
+            int height = topology.getHeight();
+            int levels = 1;
 
-            for (int x = 0; x < width; x++)
-            {
-                char c;
+            while (((width - 1) >> (SUMMARY_SHIFT + levels - 1)) > 0 ||
+                   ((height - 1) >> (SUMMARY_SHIFT + levels - 1)) > 0)
+                levels++;
 
-                // Handle each tile state
-                switch (getTileState(x, y))
-                {
-                    case COVERED:
-                        c = '#';
-                        break;
-
-                    case FLAGGED:
-                        c = 'f';
-                        break;
-
-                    case QUESTION:
-                        c = '?';
-                        break;
-
-                    default:
-                        // Show tile's value
-                        int tileValue = getTileValue(x, y);
-
-                        if (tileValue < 0)
-                            c = '!';
-                        else if(tileValue == 0)
-                            c = ' ';
-                        else
-                            c = (char) ('0' + tileValue);
-                }
+            this.levels = levels;
+            this.widths = new int[levels];
+            this.heights = new int[levels];
+            this.starts = new int[levels];
+
+            int cells = 0;
 
-                builder.append(c);
+            for (int level = 0; level < levels; level++)
+            {
+                widths[level] = ((width - 1) >> (SUMMARY_SHIFT + level)) + 1;
+                heights[level] = ((height - 1) >> (SUMMARY_SHIFT + level)) + 1;
+                starts[level] = cells;
+                cells += widths[level] * heights[level];
             }
 
-            builder.append("|\n");
-        }
+            this.cellCount = cells;
+            this.tiles = new int[cells];
 
-        // Write bottom line
-        builder.append('+');
-        for (int x = 0; x < width; x++)
-            builder.append('-');
-        builder.append("+\n");
+            // Count the tiles in each cell of the lowest level, then add each level to the next
+            for (int i = 0; i < topology.getTileCount(); i++)
+            {
+                int x = topology.getX(i) >> SUMMARY_SHIFT;
+                int y = topology.getY(i) >> SUMMARY_SHIFT;
 
-        return builder.toString();
-    }
+                tiles[y * widths[0] + x]++;
+            }
 
-    /**
-     * Interface used for processing surrounding tiles
-     */
-    private interface SurroundingTilesProcessor
-    {
-        /**
-         * Processes the given tile (which is guaranteed to exist)
-         *
-         * @param x x position of tile
-         * @param y y position of tile
-         */
-        public void process(int x, int y);
+            for (int level = 1; level < levels; level++)
+            {
+                for (int y = 0; y < heights[level - 1]; y++)
+                {
+                    for (int x = 0; x < widths[level - 1]; x++)
+                    {
+                        tiles[starts[level] + (y >> 1) * widths[level] + (x >> 1)] +=
+                            tiles[starts[level - 1] + y * widths[level - 1] + x];
+                    }
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,79 @@
+package uk.ac.york.minesweeper;
+
+import java.util.EventObject;
+
+/**
+ * Event fired when the visible state of some tiles in a minefield changes
+ */
+public class MinefieldChangeEvent extends EventObject
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient Minefield minefield;
+    private final transient int[] changedTiles;
+    private final int changeCount;
+    private final boolean newMinefield;
+
+    /**
+     * Initializes a new MinefieldChangeEvent object
+     *
+     * @param source event source
+     * @param minefield the minefield which changed
+     * @param changedTiles array containing the indexes of the changed tiles
+     * @param changeCount number of valid entries in changedTiles
+     * @param newMinefield true if the whole minefield has been replaced
+     */
+    public MinefieldChangeEvent(Object source, Minefield minefield,
+                                int[] changedTiles, int changeCount, boolean newMinefield)
+    {
+        super(source);
+
+        this.minefield = minefield;
+        this.changedTiles = changedTiles;
+        this.changeCount = changeCount;
+        this.newMinefield = newMinefield;
+    }
+
+    /**
+     * Gets the minefield which changed
+     *
+     * @return the minefield
+     */
+    public Minefield getMinefield()
+    {
+        return minefield;
+    }
+
+    /**
+     * Gets the indexes of the changed tiles in the order they changed
+     *
+     * Only the first getChangeCount() entries are valid and a tile may appear more than once.
+     * The array is reused so it is only valid until the listener returns.
+     *
+     * @return array of tile indexes
+     */
+    public int[] getChangedTiles()
+    {
+        return changedTiles;
+    }
+
+    /**
+     * Gets the number of changed tiles
+     *
+     * @return number of changes
+     */
+    public int getChangeCount()
+    {
+        return changeCount;
+    }
+
+    /**
+     * Returns true if the minefield has been replaced (so every tile may have changed)
+     *
+     * @return true if this is a new minefield
+     */
+    public boolean isNewMinefield()
+    {
+        return newMinefield;
+    }
+}
@@ -0,0 +1,14 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * Event fired when tiles in the minefield change
+ */
+public interface MinefieldChangeListener
+{
+    /**
+     * Called after each move which changes some tiles and when the minefield is replaced
+     *
+     * @param event the event object from the minefield panel
+     */
+    public void tilesChanged(MinefieldChangeEvent event);
+}
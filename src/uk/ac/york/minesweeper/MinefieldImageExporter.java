@@ -0,0 +1,417 @@
+package uk.ac.york.minesweeper;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Exports images of minefields as PNG files without needing a display
+ *
+ * The image is split into horizontal bands which are drawn (using the same code as
+ * {@link MinefieldPanel}) and compressed in parallel. Each band is written to the output as
+ * soon as it and all the bands above it are finished, so the whole image is never in memory.
+ *
+ * The minefield must not be modified while it is being exported. To export on a background
+ * thread while the game continues, pass a {@link Minefield#snapshot()} taken by the thread
+ * playing the game.
+ */
+public class MinefieldImageExporter
+{
+    /** Approximate number of pixels to draw in each band */
+    private static final int BAND_PIXELS = 1 << 22;
+
+    /** PNG file signature */
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    /** Size of each tile in pixels */
+    private int tileSize = MinefieldPanel.TILE_SIZE;
+
+    /** If true, covered mines are drawn */
+    private boolean revealMines = false;
+
+    /** Number of threads used to draw bands */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Gets the size of each tile in pixels
+     *
+     * @return tile size
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Sets the size of each tile in pixels (the default is the same as the panel)
+     *
+     * @param tileSize new tile size
+     */
+    public void setTileSize(int tileSize)
+    {
+        if (tileSize < 1)
+            throw new IllegalArgumentException("tileSize must be positive");
+
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Returns true if covered mines are shown in the exported image
+     *
+     * @return true if mines are revealed
+     */
+    public boolean isRevealingMines()
+    {
+        return revealMines;
+    }
+
+    /**
+     * Sets whether covered mines are shown in the exported image (for post-mortems)
+     *
+     * @param revealMines true to reveal mines
+     */
+    public void setRevealMines(boolean revealMines)
+    {
+        this.revealMines = revealMines;
+    }
+
+    /**
+     * Gets the number of threads used to draw the image
+     *
+     * @return number of threads
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads used to draw the image
+     *
+     * @param threads number of threads
+     */
+    public void setThreads(int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.threads = threads;
+    }
+
+    /**
+     * Exports an image of a minefield to a file
+     *
+     * @param minefield minefield to export
+     * @param file file to write the PNG image to
+     * @throws IOException if an error occurs writing the file
+     */
+    public void export(Minefield minefield, File file) throws IOException
+    {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+        {
+            export(minefield, out);
+        }
+    }
+
+    /**
+     * Exports an image of a minefield to a stream
+     *
+     * @param minefield minefield to export
+     * @param stream stream to write the PNG image to (not closed afterwards)
+     * @throws IOException if an error occurs writing to the stream
+     */
+    public void export(final Minefield minefield, OutputStream stream) throws IOException
+    {
+        final int tileSize = this.tileSize;
+        final boolean revealMines = this.revealMines;
+
+        long longWidth = (long) tileSize * minefield.getWidth() +
+                (minefield.getTopology().hasShiftedRows() ? tileSize / 2 : 0);
+        long longHeight = (long) tileSize * minefield.getHeight();
+
+        if (longWidth * 3 + 1 > Integer.MAX_VALUE || longHeight > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("minefield is too large to export");
+
+        final int width = (int) longWidth;
+        final int rowsPerBand = (int) Math.max(1, BAND_PIXELS / (longWidth * tileSize));
+        int bands = (minefield.getHeight() + rowsPerBand - 1) / rowsPerBand;
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(PNG_SIGNATURE);
+        writeHeader(out, width, (int) longHeight);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Queue<Future<Band>> pending = new ArrayDeque<Future<Band>>();
+
+        try
+        {
+            int nextBand = 0;
+            long adler = 1;
+            boolean first = true;
+
+            while (nextBand < bands || !pending.isEmpty())
+            {
+                // Keep a limited number of bands in progress so memory use is bounded
+                while (nextBand < bands && pending.size() < threads * 2)
+                {
+                    final int firstRow = nextBand * rowsPerBand;
+                    final int endRow = Math.min(firstRow + rowsPerBand, minefield.getHeight());
+                    final boolean last = (nextBand == bands - 1);
+
+                    pending.add(executor.submit(new Callable<Band>()
+                    {
+                        @Override
+                        public Band call()
+                        {
+                            return renderBand(minefield, width, tileSize, revealMines, firstRow, endRow, last);
+                        }
+                    }));
+
+                    nextBand++;
+                }
+
+                // Write the oldest band
+                Band band = waitFor(pending.remove());
+                adler = combineAdler32(adler, band.adler, band.rawLength);
+
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream(band.data.length + 6);
+
+                if (first)
+                {
+                    // Zlib header (deflate, fastest compression)
+                    chunk.write(0x78);
+                    chunk.write(0x01);
+                    first = false;
+                }
+
+                chunk.write(band.data);
+
+                if (pending.isEmpty() && nextBand == bands)
+                {
+                    // Zlib trailer
+                    chunk.write((int) (adler >>> 24));
+                    chunk.write((int) (adler >>> 16));
+                    chunk.write((int) (adler >>> 8));
+                    chunk.write((int) adler);
+                }
+
+                writeChunk(out, "IDAT", chunk.toByteArray());
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        writeChunk(out, "IEND", new byte[0]);
+        out.flush();
+    }
+
+    /**
+     * Waits for a band to finish
+     */
+    private static Band waitFor(Future<Band> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while exporting image", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new IOException("error drawing image band", e.getCause());
+        }
+    }
+
+    /**
+     * Draws and compresses one band of the image
+     *
+     * @param minefield minefield to draw
+     * @param width width of the image in pixels
+     * @param tileSize size of each tile in pixels
+     * @param revealMines true to reveal covered mines
+     * @param firstRow first row of tiles in the band
+     * @param endRow row after the last row in the band
+     * @param last true if this is the last band in the image
+     * @return the compressed band
+     */
+    private static Band renderBand(Minefield minefield, int width, int tileSize, boolean revealMines,
+                                   int firstRow, int endRow, boolean last)
+    {
+        int height = (endRow - firstRow) * tileSize;
+
+        // Draw the band
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+
+        g.setColor(MinefieldPanel.COLOUR_BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        g.translate(0, -firstRow * tileSize);
+
+        double scale = (double) tileSize / MinefieldPanel.TILE_SIZE;
+        g.scale(scale, scale);
+
+        MinefieldPanel.paintTiles(g, minefield, firstRow, endRow, -1, revealMines);
+        g.dispose();
+
+        // Convert to PNG scanlines (no filtering) and compress
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        byte[] line = new byte[width * 3 + 1];
+
+        Adler32 adler = new Adler32();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+
+        for (int y = 0; y < height; y++)
+        {
+            int p = y * width;
+
+            for (int x = 0, i = 1; x < width; x++, p++)
+            {
+                int rgb = pixels[p];
+                line[i++] = (byte) (rgb >>> 16);
+                line[i++] = (byte) (rgb >>> 8);
+                line[i++] = (byte) rgb;
+            }
+
+            adler.update(line);
+            deflater.setInput(line);
+
+            while (!deflater.needsInput())
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+
+        // Only the last band ends the deflate stream, the others flush to a byte boundary
+        int count;
+
+        if (last)
+        {
+            deflater.finish();
+
+            while (!deflater.finished())
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        else
+        {
+            do
+            {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, count);
+            }
+            while (count == buffer.length);
+        }
+
+        deflater.end();
+        return new Band(compressed.toByteArray(), adler.getValue(), (long) line.length * height);
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two blocks of data (as in zlib's adler32_combine)
+     *
+     * @param adler1 checksum of first block
+     * @param adler2 checksum of second block
+     * @param length2 length of second block
+     * @return checksum of both blocks
+     */
+    private static long combineAdler32(long adler1, long adler2, long length2)
+    {
+        final long base = 65521;
+
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base * 2) sum2 -= base * 2;
+        if (sum2 >= base) sum2 -= base;
+
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Writes the PNG header chunk for an 8-bit RGB image
+     */
+    private static void writeHeader(DataOutputStream out, int width, int height) throws IOException
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerOut = new DataOutputStream(header);
+
+        headerOut.writeInt(width);
+        headerOut.writeInt(height);
+        headerOut.writeByte(8);     // Bit depth
+        headerOut.writeByte(2);     // Colour type = RGB
+        headerOut.writeByte(0);     // Compression = deflate
+        headerOut.writeByte(0);     // Filter method = adaptive
+        headerOut.writeByte(0);     // Not interlaced
+
+        writeChunk(out, "IHDR", header.toByteArray());
+    }
+
+    /**
+     * Writes a PNG chunk
+     */
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException
+    {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * A compressed band of the image
+     */
+    private static final class Band
+    {
+        /** Raw deflate data */
+        public final byte[] data;
+
+        /** Adler-32 checksum of the uncompressed data */
+        public final long adler;
+
+        /** Length of the uncompressed data */
+        public final long rawLength;
+
+        public Band(byte[] data, long adler, long rawLength)
+        {
+            this.data = data;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+}
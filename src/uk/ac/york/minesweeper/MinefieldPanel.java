@@ -3,9 +3,10 @@
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
@@ -17,13 +18,17 @@
 
 /**
  * A component which can display a minefield graphically and handle various events
+ *
+ * Moves are not made on the event dispatch thread. The panel owns a {@link GameThread} which
+ * applies them and publishes snapshots of the minefield back to the panel, so the panel only
+ * has to paint the tiles which changed however expensive a move is.
  */
 public class MinefieldPanel extends JComponent
 {
     private static final long serialVersionUID = 1L;
 
     /** Size of all the tiles */
-    private static final int TILE_SIZE = 32;
+    static final int TILE_SIZE = 32;
 
     /** Width of the bevel */
     private static final int BEVEL_WIDTH = 2;
@@ -36,7 +41,7 @@ public class MinefieldPanel extends JComponent
 
 
     /** Default background colour */
-    private static final Color COLOUR_BACKGROUND = new Color(0xC0, 0xC0, 0xC0);
+    static final Color COLOUR_BACKGROUND = new Color(0xC0, 0xC0, 0xC0);
 
     /** Light grey for bevels */
     private static final Color COLOUR_LIGHT = new Color(0xE0, 0xE0, 0xE0);
@@ -61,15 +66,57 @@ public class MinefieldPanel extends JComponent
         new Color(0x7F, 0x7F, 0x7F),    // 8 = Grey
     };
 
-    /** Current minefield */
+    /** Characters drawn on tiles (tile values in base 36, then the question mark) */
+    private static final char[] CHARACTERS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ?".toCharArray();
+    private static final int CHAR_QUESTION = CHARACTERS.length - 1;
+
+    /** Width of each character in CHARACTERS (calculated on first use) */
+    private static int[] characterWidths;
+
+    /** Snapshot of the current minefield (updated from the game thread) */
     private Minefield minefield;
 
-    /** Currently selected tile (null most of the time) */
-    private Point selectedTile;
+    /** Thread which owns the real minefield and makes all the moves */
+    private final GameThread gameThread;
+
+    /** Animates revealed tiles (or null if animation is disabled) */
+    private RevealAnimator animator;
+
+    /** Update taken from the game thread (reused) */
+    private final GameThread.Update update = new GameThread.Update();
+
+    /** Takes updates from the game thread (run on the event dispatch thread) */
+    private final Runnable updateTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            takeUpdate();
+        }
+    };
+
+    /** Responsiveness measurements */
+    private final UiDiagnostics diagnostics;
+
+    /** Preferred size (updated when the minefield is replaced) */
+    private final Dimension preferredSize = new Dimension();
+
+    /** Rectangles reused by paintComponent */
+    private final Rectangle clipBounds = new Rectangle();
+    private final Rectangle visibleBounds = new Rectangle();
+
+    /** Event fired to state change listeners (it has no state other than the source) */
+    private final MinefieldStateChangeEvent stateChangeEvent = new MinefieldStateChangeEvent(this);
+
+    /** Index of currently selected tile (-1 most of the time) */
+    private int selectedTile = -1;
 
     /** List of state change listeners */
     private ArrayList<MinefieldStateChangeListener> listeners = new ArrayList<MinefieldStateChangeListener>();
 
+    /** List of tile change listeners */
+    private ArrayList<MinefieldChangeListener> changeListeners = new ArrayList<MinefieldChangeListener>();
+
     /**
      * Initializes a new MinefieldPanel with the given Minefield
      *
@@ -79,6 +126,16 @@ public class MinefieldPanel extends JComponent
      */
     public MinefieldPanel(Minefield minefield)
     {
+        this.gameThread = new GameThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                SwingUtilities.invokeLater(updateTask);
+            }
+        });
+
+        this.diagnostics = new UiDiagnostics(this, gameThread);
         this.addMouseListener(new MouseEventListener());
         this.setBackground(COLOUR_BACKGROUND);
         this.setOpaque(true);
@@ -112,17 +169,165 @@ public void removeStateChangeListener(MinefieldStateChangeListener listener)
      */
     private void fireStateChangeEvent()
     {
-        MinefieldStateChangeEvent event = new MinefieldStateChangeEvent(this);
+        for (int i = 0; i < listeners.size(); i++)
+            listeners.get(i).stateChanged(stateChangeEvent);
+    }
+
+    /**
+     * Adds a listener which receives the tiles changed by each move
+     *
+     * @param listener listener to add
+     */
+    public void addChangeListener(MinefieldChangeListener listener)
+    {
+        if (!changeListeners.contains(listener))
+            changeListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener which received tile change events
+     *
+     * @param listener listener to remove
+     */
+    public void removeChangeListener(MinefieldChangeListener listener)
+    {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Fires the tile change event
+     *
+     * @param changedTiles indexes of the changed tiles
+     * @param count number of changed tiles
+     * @param newMinefield true if the minefield has just been replaced
+     */
+    private void fireChangeEvent(int[] changedTiles, int count, boolean newMinefield)
+    {
+        if (changeListeners.isEmpty())
+            return;
+
+        MinefieldChangeEvent event = new MinefieldChangeEvent(this, minefield,
+                changedTiles, count, newMinefield);
 
-        for (MinefieldStateChangeListener listener : listeners)
-            listener.stateChanged(event);
+        for (int i = 0; i < changeListeners.size(); i++)
+            changeListeners.get(i).tilesChanged(event);
+    }
+
+    /**
+     * Takes the latest update from the game thread, repaints the changed tiles and fires events
+     */
+    private void takeUpdate()
+    {
+        if (!gameThread.takeUpdate(update))
+            return;
+
+        GameState oldState = minefield.getGameState();
+        minefield = update.snapshot;
+        diagnostics.updateReceived();
+
+        if (animator != null)
+            animator.finish();
+
+        // Animate moves which uncover more than one tile
+        if (animator != null && update.count > 1)
+            animator.start(minefield, update.changes, update.count);
+        else
+            repaintTiles(update.changes, update.count);
+
+        fireChangeEvent(update.changes, update.count, false);
+
+        if (minefield.getGameState() != oldState)
+            fireStateChangeEvent();
+
+        diagnostics.updateFinished();
+
+        if (update.error != null)
+        {
+            RuntimeException error = update.error;
+            update.error = null;
+            throw new IllegalStateException("a move failed on the game thread", error);
+        }
+    }
+
+    /**
+     * Gets the responsiveness diagnostics for this panel (disabled by default)
+     *
+     * @return the diagnostics
+     */
+    public UiDiagnostics getDiagnostics()
+    {
+        return diagnostics;
+    }
+
+    /**
+     * Gets the thread which makes the moves for this panel (used by {@link AllocationCheck})
+     *
+     * @return the game thread
+     */
+    GameThread getGameThread()
+    {
+        return gameThread;
+    }
+
+    /**
+     * Returns true if uncovered tiles are animated
+     *
+     * @return true if animated
+     */
+    public boolean isAnimatedReveal()
+    {
+        return animator != null;
+    }
+
+    /**
+     * Sets whether moves which uncover several tiles are animated
+     *
+     * When animated, the tiles are revealed in breadth first waves from the tile clicked on
+     * at 60 frames per second (large openings reveal several waves per frame).
+     *
+     * @param animated true to animate
+     */
+    public void setAnimatedReveal(boolean animated)
+    {
+        if (animated && animator == null)
+        {
+            animator = new RevealAnimator(this);
+        }
+        else if (!animated && animator != null)
+        {
+            animator.finish();
+            animator = null;
+        }
+    }
+
+    /**
+     * Gets a snapshot of the current minefield
+     *
+     * The snapshot is read only (any attempt to change it throws
+     * UnsupportedOperationException). It is replaced by a new snapshot after each move, so
+     * call this again to see the effect of later moves. Moves are made with
+     * {@link #applyMoves(byte[], int[], int[], int, int)}.
+     *
+     * @return snapshot of the current minefield
+     */
+    public Minefield getSnapshot()
+    {
+        return minefield;
     }
 
     /**
      * Gets the current minefield
      *
-     * @return current minefield
+     * Since moves were moved to the game thread, this returns the same read only snapshot as
+     * {@link #getSnapshot()} instead of the minefield passed to
+     * {@link #setMinefield(Minefield)}. Code which changed the minefield returned by this
+     * method will now throw UnsupportedOperationException and must use
+     * {@link #applyMoves(byte[], int[], int[], int, int)} instead.
+     *
+     * @return snapshot of the current minefield
+     * @deprecated use {@link #getSnapshot()}, which makes it clear the minefield is read only
      */
+    @Deprecated
     public Minefield getMinefield()
     {
         return minefield;
@@ -131,6 +336,9 @@ public Minefield getMinefield()
     /**
      * Sets a new minefield for the component
      *
+     * The panel takes ownership of the minefield (it is changed on the game thread), so it
+     * must not be used after calling this. Use {@link #getSnapshot()} to read its state.
+     *
      * @param newMinefield the new minefield
      */
     public void setMinefield(Minefield newMinefield)
@@ -138,35 +346,78 @@ public void setMinefield(Minefield newMinefield)
         if (newMinefield == null)
             throw new IllegalArgumentException("newMinefield cannot be null");
 
-        this.minefield = newMinefield;
+        if (animator != null)
+            animator.finish();
+
+        this.minefield = gameThread.setMinefield(newMinefield);
 
         // Reset selected tile
-        this.selectedTile = null;
+        this.selectedTile = -1;
 
         // Update all visuals
-        this.setSize(getPreferredSize());
+        int extraWidth = minefield.getTopology().hasShiftedRows() ? TILE_SIZE / 2 : 0;
+        preferredSize.setSize(TILE_SIZE * minefield.getWidth() + extraWidth,
+                              TILE_SIZE * minefield.getHeight());
+
+        this.setSize(preferredSize);
         this.repaint();
 
-        // Fire event
+        // Fire events
+        this.fireChangeEvent(update.changes, 0, true);
         this.fireStateChangeEvent();
     }
 
+    /**
+     * Applies a list of moves to the current minefield
+     *
+     * The moves are queued for the game thread and this returns straight away, so it never
+     * blocks the event dispatch thread and may be called from any thread. The moves are
+     * applied in order and the panel is then updated once (as it is after a click), so their
+     * effects are seen through the change and state change events or {@link #getSnapshot()}.
+     * Invalid moves and moves made after the game has finished are ignored.
+     *
+     * If a move throws an exception, the exception is rethrown on the event dispatch thread
+     * (wrapped in an IllegalStateException) after the panel has been updated.
+     *
+     * @param ops the moves to make (Minefield.MOVE_ constants)
+     * @param xs x positions of the tiles, or tile indexes if ys is null
+     * @param ys y positions of the tiles (or null)
+     * @param offset index of the first move in the arrays
+     * @param count number of moves to make
+     * @see Minefield#applyMoves(byte[], int[], int[], int, int, byte[])
+     */
+    public void applyMoves(byte[] ops, int[] xs, int[] ys, int offset, int count)
+    {
+        gameThread.submit(ops, xs, ys, offset, count);
+    }
+
     /**
      * Draws a character on a tile
      *
      * @param g graphics object
      * @param x x position of top-left of tile
      * @param y y position of top-left of tile
-     * @param c character to draw
+     * @param c index of character to draw in CHARACTERS
      */
-    private static void drawCharacter(Graphics g, int x, int y, char c)
+    private static void drawCharacter(Graphics g, int x, int y, int c)
     {
+        if (characterWidths == null)
+        {
+            FontMetrics metrics = g.getFontMetrics();
+            int[] widths = new int[CHARACTERS.length];
+
+            for (int i = 0; i < widths.length; i++)
+                widths[i] = metrics.charWidth(CHARACTERS[i]);
+
+            characterWidths = widths;
+        }
+
         // Get coordinates to draw at
-        int drawX = x + (TILE_SIZE - g.getFontMetrics().charWidth(c)) / 2;
+        int drawX = x + (TILE_SIZE - characterWidths[c]) / 2;
         int drawY = y + FONT_VOFFSET;
 
         // Draw the character
-        g.drawChars(new char[] { c }, 0, 1, drawX, drawY);
+        g.drawChars(CHARACTERS, c, 1, drawX, drawY);
     }
 
     /**
@@ -185,31 +436,213 @@ private static void drawImage(Graphics g, int tileX, int tileY, BufferedImage im
         g.drawImage(img, xOff, yOff, null);
     }
 
+    /**
+     * Gets the x position of the left of a tile in pixels
+     *
+     * @param topology topology of the minefield
+     * @param x x position of tile on the layout grid
+     * @param y y position of tile on the layout grid
+     * @return x position of tile in pixels
+     */
+    private static int getTilePixelX(Topology topology, int x, int y)
+    {
+        return x * TILE_SIZE + (topology.isRowShifted(y) ? TILE_SIZE / 2 : 0);
+    }
+
+    /**
+     * Gets the index of the tile at the given pixel position
+     *
+     * @param pixelX x position in pixels
+     * @param pixelY y position in pixels
+     * @return index of the tile or -1 if there is no tile there
+     */
+    private int getTileAt(int pixelX, int pixelY)
+    {
+        Topology topology = minefield.getTopology();
+
+        if (pixelX < 0 || pixelY < 0)
+            return -1;
+
+        int y = pixelY / TILE_SIZE;
+        int shiftedX = pixelX - (topology.isRowShifted(y) ? TILE_SIZE / 2 : 0);
+
+        if (shiftedX < 0)
+            return -1;
+
+        return topology.getIndex(shiftedX / TILE_SIZE, y);
+    }
+
+    /**
+     * Repaints the area containing a tile
+     *
+     * @param index index of tile (ignored if -1)
+     */
+    private void repaintTile(int index)
+    {
+        if (index >= 0)
+        {
+            Topology topology = minefield.getTopology();
+            int x = topology.getX(index);
+            int y = topology.getY(index);
+
+            // Tiles draw one pixel into the next tile
+            repaint(getTilePixelX(topology, x, y), y * TILE_SIZE, TILE_SIZE + 1, TILE_SIZE + 1);
+        }
+    }
+
+    /**
+     * Repaints the smallest rectangle containing some tiles
+     *
+     * @param tiles indexes of tiles
+     * @param count number of tiles
+     */
+    private void repaintTiles(int[] tiles, int count)
+    {
+        if (count == 0)
+            return;
+
+        Topology topology = minefield.getTopology();
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        for (int i = 0; i < count; i++)
+        {
+            int x = topology.getX(tiles[i]);
+            int y = topology.getY(tiles[i]);
+            int pixelX = getTilePixelX(topology, x, y);
+
+            minX = Math.min(minX, pixelX);
+            maxX = Math.max(maxX, pixelX);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        repaint(minX, minY * TILE_SIZE, maxX - minX + TILE_SIZE + 1, (maxY - minY + 1) * TILE_SIZE + 1);
+    }
+
     @Override
     public void paintComponent(Graphics gOld)
     {
+        long startTime = diagnostics.paintStarted();
         Graphics2D g = (Graphics2D) gOld;
 
-        // Get selected tile position
-        int selectedX = (selectedTile == null ? -1 : selectedTile.x);
-        int selectedY = (selectedTile == null ? -1 : selectedTile.y);
-
-        // Make the numbers look a little nicer
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // Whole component if there is no clip
+        clipBounds.setBounds(0, 0, getWidth(), getHeight());
+        Rectangle clip = g.getClipBounds(clipBounds);
 
         // Draw background
         if (isOpaque())
         {
             g.setColor(getBackground());
-            g.fillRect(0, 0, getWidth(), getHeight());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+
+        // Only draw the tiles inside the clip (plus one each side for the lines drawn into
+        //  neighbouring tiles and shifted rows)
+        int firstRow = Math.max(0, clip.y / TILE_SIZE - 1);
+        int endRow = Math.min(minefield.getHeight(), (clip.y + clip.height) / TILE_SIZE + 1);
+        int firstCol = Math.max(0, clip.x / TILE_SIZE - 1);
+        int endCol = Math.min(minefield.getWidth(), (clip.x + clip.width) / TILE_SIZE + 1);
+
+        long[] hiddenTiles = (animator == null) ? null : animator.getHiddenTiles();
+        int tiles = paintTiles(g, minefield, firstCol, endCol, firstRow, endRow, selectedTile, false, hiddenTiles);
+
+        // The overlay is not part of the measured paint (it formats its text each time)
+        diagnostics.paintFinished(startTime, tiles);
+
+        if (diagnostics.isOverlayVisible())
+        {
+            computeVisibleRect(visibleBounds);
+            diagnostics.paintOverlay(g, visibleBounds);
         }
+    }
+
+    /**
+     * Draws a single tile immediately (used for active rendering by the animator)
+     *
+     * @param g graphics object for the panel
+     * @param index index of tile
+     * @param visible visible area of the panel (tiles outside it are not drawn)
+     */
+    void drawTile(Graphics2D g, int index, Rectangle visible)
+    {
+        Topology topology = minefield.getTopology();
+        int x = topology.getX(index);
+        int y = topology.getY(index);
+        int pixelX = getTilePixelX(topology, x, y);
+        int pixelY = y * TILE_SIZE;
+
+        if (!visible.intersects(pixelX, pixelY, TILE_SIZE, TILE_SIZE))
+            return;
+
+        g.setColor(getBackground());
+        g.fillRect(pixelX, pixelY, TILE_SIZE, TILE_SIZE);
+
+        paintTiles(g, minefield, x, x + 1, y, y + 1, selectedTile, false, animator.getHiddenTiles());
+    }
+
+    /**
+     * Draws some rows of tiles from a minefield (without the background)
+     *
+     * This is also used by {@link MinefieldImageExporter} so must not use any panel state.
+     *
+     * @param g graphics object (tiles are drawn at their normal positions)
+     * @param minefield minefield to draw
+     * @param firstRow first row of the layout grid to draw
+     * @param endRow row after the last row to draw
+     * @param selectedTile index of the selected tile (drawn without a bevel) or -1
+     * @param revealMines if true, covered mines are drawn as mines
+     */
+    static void paintTiles(Graphics2D g, Minefield minefield, int firstRow, int endRow,
+                           int selectedTile, boolean revealMines)
+    {
+        paintTiles(g, minefield, 0, minefield.getWidth(), firstRow, endRow, selectedTile, revealMines, null);
+    }
+
+    /**
+     * Draws a rectangle of tiles from a minefield (without the background)
+     *
+     * @param g graphics object (tiles are drawn at their normal positions)
+     * @param minefield minefield to draw
+     * @param firstCol first column of the layout grid to draw
+     * @param endCol column after the last column to draw
+     * @param firstRow first row of the layout grid to draw
+     * @param endRow row after the last row to draw
+     * @param selectedTile index of the selected tile (drawn without a bevel) or -1
+     * @param revealMines if true, covered mines are drawn as mines
+     * @param hiddenTiles bitmap of tiles to draw as covered (bit i of word i / 64) or null
+     * @return number of tiles drawn
+     */
+    static int paintTiles(Graphics2D g, Minefield minefield, int firstCol, int endCol,
+                           int firstRow, int endRow, int selectedTile, boolean revealMines,
+                           long[] hiddenTiles)
+    {
+        Topology topology = minefield.getTopology();
+        int tiles = 0;
+
+        // Mines can only be revealed once they've been placed
+        revealMines &= minefield.getGameState() != GameState.NOT_STARTED;
+
+        // Make the numbers look a little nicer
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setFont(FONT);
 
         // Draw all the tiles
-        for (int x = 0; x < minefield.getWidth(); x++)
+        for (int x = firstCol; x < endCol; x++)
         {
-            for (int y = 0; y < minefield.getHeight(); y++)
+            for (int y = firstRow; y < endRow; y++)
             {
-                int graphicsX1 = x * TILE_SIZE;
+                int index = topology.getIndex(x, y);
+
+                // Skip gaps in the layout
+                if (index < 0)
+                    continue;
+
+                tiles++;
+
+                int graphicsX1 = getTilePixelX(topology, x, y);
                 int graphicsY1 = y * TILE_SIZE;
 
                 // Draw standard background
@@ -218,25 +651,30 @@ public void paintComponent(Graphics gOld)
                 g.drawLine(graphicsX1, graphicsY1, graphicsX1, graphicsY1 + TILE_SIZE);
 
                 // Covered or uncovered?
-                if (minefield.getTileState(x, y) == TileState.UNCOVERED)
+                TileState state = minefield.getTileState(index);
+
+                if (hiddenTiles != null && (hiddenTiles[index >>> 6] & (1L << index)) != 0)
+                    state = TileState.COVERED;
+
+                if (state == TileState.UNCOVERED)
                 {
                     // Draw the correct symbol
-                    int tileValue = minefield.getTileValue(x, y);
+                    int tileValue = minefield.getTileValue(index);
 
                     if (tileValue < 0)
                     {
-                        drawImage(g, graphicsX1, graphicsY1, Images.MINE);
+                        drawImage(g, graphicsX1, graphicsY1, Images.MINE.get());
                     }
                     else if (tileValue > 0)
                     {
-                        g.setColor(COLOUR_NUMBERS[tileValue]);
-                        drawCharacter(g, graphicsX1, graphicsY1, (char) ('0' + tileValue));
+                        g.setColor(COLOUR_NUMBERS[Math.min(tileValue, COLOUR_NUMBERS.length - 1)]);
+                        drawCharacter(g, graphicsX1, graphicsY1, Math.min(tileValue, CHAR_QUESTION - 1));
                     }
                 }
                 else
                 {
                     // Only draw the bevel background if this is NOT the selected tile
-                    if (x != selectedX || y != selectedY)
+                    if (index != selectedTile)
                     {
                         int bevelX2 = graphicsX1 + TILE_SIZE - BEVEL_WIDTH;
                         int bevelY2 = graphicsY1 + TILE_SIZE - BEVEL_WIDTH;
@@ -249,26 +687,37 @@ else if (tileValue > 0)
                         g.fillRect(bevelX2,    graphicsY1, BEVEL_WIDTH, TILE_SIZE);
                     }
 
-                    // Draw flag or question mark if needed
-                    if (minefield.getTileState(x, y) == TileState.FLAGGED)
+                    // Draw flag, question mark or revealed mine if needed
+                    if (state == TileState.FLAGGED)
+                    {
+                        drawImage(g, graphicsX1, graphicsY1, Images.FLAG.get());
+                    }
+                    else if (revealMines && minefield.getTileValue(index) < 0)
                     {
-                        drawImage(g, graphicsX1, graphicsY1, Images.FLAG);
+                        drawImage(g, graphicsX1, graphicsY1, Images.MINE.get());
                     }
-                    else if (minefield.getTileState(x, y) == TileState.QUESTION)
+                    else if (state == TileState.QUESTION)
                     {
                         g.setColor(COLOUR_QUESTION);
-                        drawCharacter(g, graphicsX1, graphicsY1, '?');
+                        drawCharacter(g, graphicsX1, graphicsY1, CHAR_QUESTION);
                     }
                 }
             }
         }
+
+        return tiles;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The same object is returned every time (layout managers query it very often), so it
+     * must not be modified.
+     */
     @Override
     public Dimension getPreferredSize()
     {
-        return new Dimension(TILE_SIZE * minefield.getWidth(),
-                             TILE_SIZE * minefield.getHeight());
+        return preferredSize;
     }
 
     @Override
@@ -291,19 +740,19 @@ private class MouseEventListener extends MouseAdapter
         /**
          * Calculates the selected tile from a mouse event
          */
-        private Point getTileFromEvent(MouseEvent e)
+        private int getTileFromEvent(MouseEvent e)
         {
-            return new Point(e.getX() / TILE_SIZE, e.getY() / TILE_SIZE);
+            return getTileAt(e.getX(), e.getY());
         }
 
         @Override
         public void mouseExited(MouseEvent e)
         {
             // Clear selected tile
-            if (selectedTile != null)
+            if (selectedTile >= 0)
             {
-                selectedTile = null;
-                repaint();
+                repaintTile(selectedTile);
+                selectedTile = -1;
             }
         }
 
@@ -315,36 +764,29 @@ public void mousePressed(MouseEvent e)
                 return;
 
             // Get tile position
-            Point tile = getTileFromEvent(e);
+            int tile = getTileFromEvent(e);
+
+            if (tile < 0)
+                return;
 
             // Right or left click?
             if (SwingUtilities.isLeftMouseButton(e))
             {
                 // Do not select tiles with flags on
-                if (minefield.getTileState(tile.x, tile.y) == TileState.FLAGGED)
+                if (minefield.getTileState(tile) == TileState.FLAGGED)
                     return;
 
                 // Set new selected tile
+                diagnostics.inputReceived(false);
                 selectedTile = tile;
+                repaintTile(tile);
             }
             else if (SwingUtilities.isRightMouseButton(e))
             {
-                TileState newState;
-
-                // Change flagged state
-                switch(minefield.getTileState(tile.x, tile.y))
-                {
-                    case COVERED:   newState = TileState.FLAGGED;   break;
-                    case FLAGGED:   newState = TileState.QUESTION;  break;
-                    default:        newState = TileState.COVERED;   break;
-
-                    case UNCOVERED: newState = TileState.UNCOVERED; break;
-                }
-
-                minefield.setTileState(tile.x, tile.y, newState);
+                // Change flagged state (on the game thread since the snapshot may be out of date)
+                diagnostics.inputReceived(true);
+                gameThread.submit(GameThread.CYCLE_MARK, tile);
             }
-
-            repaint();
         }
 
         @Override
@@ -355,27 +797,28 @@ public void mouseReleased(MouseEvent e)
                 return;
 
             // Ensure there was a tile selected
-            if (selectedTile != null)
+            if (selectedTile >= 0)
             {
                 // Ensure the tile was the same as the one clicked on
-                if (selectedTile.equals(getTileFromEvent(e)))
+                if (selectedTile == getTileFromEvent(e))
                 {
                     // Either chord or uncover depending on the number of clicks
-                    GameState state = minefield.getGameState();
-
+                    //  The tiles are repainted when the game thread publishes the result
                     if (e.getClickCount() == 2)
-                        minefield.chord(selectedTile.x, selectedTile.y);
+                    {
+                        diagnostics.inputReceived(true);
+                        gameThread.submit(Minefield.MOVE_CHORD, selectedTile);
+                    }
                     else if (e.getClickCount() == 1)
-                        minefield.uncover(selectedTile.x, selectedTile.y);
-
-                    // Fire state changed event if needed
-                    if (minefield.getGameState() != state)
-                        fireStateChangeEvent();
+                    {
+                        diagnostics.inputReceived(true);
+                        gameThread.submit(Minefield.MOVE_UNCOVER, selectedTile);
+                    }
                 }
 
                 // Clear selected tile
-                selectedTile = null;
-                repaint();
+                repaintTile(selectedTile);
+                selectedTile = -1;
             }
         }
     }
@@ -0,0 +1,273 @@
+package uk.ac.york.minesweeper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads and writes minefields in the text format used by {@link Minefield#toString()}
+ *
+ * The minefield is surrounded by a border of {@code +}, {@code -} and {@code |} characters.
+ * Each tile is written as one of:
+ * <ul>
+ * <li>{@code #} covered</li>
+ * <li>{@code f} flagged</li>
+ * <li>{@code ?} question mark</li>
+ * <li>{@code !} uncovered mine</li>
+ * <li>space or a digit: uncovered tile and the number of surrounding mines</li>
+ * </ul>
+ * When mines are revealed, covered mines are written as {@code *}, flagged mines as {@code F}
+ * and mines with question marks as {@code Q}. Only text with revealed mines contains
+ * enough information to be read back in.
+ *
+ * Both reading and writing work one row at a time so the whole text is never in memory.
+ */
+public final class MinefieldTextFormat
+{
+    /**
+     * Gets the character used to display a tile
+     *
+     * @param minefield minefield containing the tile
+     * @param index index of tile
+     * @param revealMines if true, covered mines are shown
+     * @return the tile's character
+     */
+    static char getTileChar(Minefield minefield, int index, boolean revealMines)
+    {
+        TileState state = minefield.getTileState(index);
+
+        if (state == TileState.UNCOVERED)
+        {
+            int value = minefield.getTileValue(index);
+
+            if (value < 0)
+                return '!';
+            else if (value == 0)
+                return ' ';
+            else
+                return Character.toUpperCase(Character.forDigit(value, 36));
+        }
+
+        boolean mine = revealMines && minefield.getGameState() != GameState.NOT_STARTED &&
+                       minefield.getTileValue(index) < 0;
+
+        switch (state)
+        {
+            case FLAGGED:   return mine ? 'F' : 'f';
+            case QUESTION:  return mine ? 'Q' : '?';
+            default:        return mine ? '*' : '#';
+        }
+    }
+
+    /**
+     * Writes a minefield's current state as text
+     *
+     * Positions on the layout grid which do not contain a tile are written as spaces.
+     * Values above 9 (only possible in 3D minefields) are written as letters.
+     *
+     * @param minefield minefield to write
+     * @param out where to write the text to
+     * @param revealMines if true, covered mines are shown
+     * @throws IOException if an error occurs writing the text
+     */
+    public static void write(Minefield minefield, Appendable out, boolean revealMines) throws IOException
+    {
+        Topology topology = minefield.getTopology();
+        int width = minefield.getWidth();
+        int height = minefield.getHeight();
+
+        // Each line is built in this buffer before being written
+        char[] line = new char[width + 3];
+        line[width + 2] = '\n';
+
+        // Write top line
+        Arrays.fill(line, 1, width + 1, '-');
+        line[0] = '+';
+        line[width + 1] = '+';
+        writeLine(out, line);
+
+        // Write each line of the minefield
+        line[0] = '|';
+        line[width + 1] = '|';
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int index = topology.getIndex(x, y);
+                line[x + 1] = (index < 0) ? ' ' : getTileChar(minefield, index, revealMines);
+            }
+
+            writeLine(out, line);
+        }
+
+        // Write bottom line
+        Arrays.fill(line, 1, width + 1, '-');
+        line[0] = '+';
+        line[width + 1] = '+';
+        writeLine(out, line);
+    }
+
+    /**
+     * Writes a line of text
+     */
+    private static void writeLine(Appendable out, char[] line) throws IOException
+    {
+        if (out instanceof Writer)
+            ((Writer) out).write(line);
+        else if (out instanceof StringBuilder)
+            ((StringBuilder) out).append(line);
+        else
+            out.append(CharBuffer.wrap(line));
+    }
+
+    /**
+     * Reads a rectangular minefield written with its mines revealed
+     *
+     * The resulting minefield is RUNNING (or WON / LOST if the text shows a finished game)
+     * so its mines are not moved when the next tile is uncovered.
+     *
+     * @param in reader to read from
+     * @return the minefield
+     * @throws IOException if an error occurs reading the text or the text is invalid
+     */
+    public static Minefield read(Reader in) throws IOException
+    {
+        BufferedReader reader = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+
+        // Read top line
+        String line = reader.readLine();
+        int lineNumber = 1;
+
+        if (line == null || !isBorderLine(line))
+            throw new IOException("line 1: expected top border");
+
+        int width = line.length() - 2;
+        if (width < 1)
+            throw new IOException("line 1: minefield has no width");
+
+        // Read rows (storing the character of each tile)
+        byte[] tiles = new byte[width * 16];
+        int tileCount = 0;
+        int mines = 0;
+
+        while (true)
+        {
+            line = reader.readLine();
+            lineNumber++;
+
+            if (line == null)
+                throw new IOException("line " + lineNumber + ": expected bottom border");
+
+            if (isBorderLine(line))
+                break;
+
+            if (line.length() != width + 2 || line.charAt(0) != '|' || line.charAt(width + 1) != '|')
+                throw new IOException("line " + lineNumber + ": row has the wrong width or no border");
+
+            if (tileCount + width > tiles.length)
+            {
+                if ((long) tileCount + width > Integer.MAX_VALUE)
+                    throw new IOException("line " + lineNumber + ": minefield is too large");
+
+                tiles = Arrays.copyOf(tiles, (int) Math.min(Integer.MAX_VALUE, 2L * tiles.length));
+            }
+
+            for (int x = 1; x <= width; x++)
+            {
+                char c = line.charAt(x);
+
+                switch (c)
+                {
+                    case '!': case '*': case 'F': case 'Q':
+                        mines++;
+                        break;
+
+                    case '#': case 'f': case '?': case ' ':
+                        break;
+
+                    default:
+                        if (c < '1' || c > '8')
+                            throw new IOException("line " + lineNumber + ": invalid tile '" + c + "'");
+                }
+
+                tiles[tileCount++] = (byte) c;
+            }
+        }
+
+        if (line.length() != width + 2)
+            throw new IOException("line " + lineNumber + ": bottom border has the wrong width");
+
+        if (tileCount == 0)
+            throw new IOException("line " + lineNumber + ": minefield has no height");
+
+        // Create the minefield
+        Minefield minefield;
+
+        try
+        {
+            minefield = new Minefield(new GridTopology(width, tileCount / width), mines);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException("invalid minefield: " + e.getMessage(), e);
+        }
+
+        int[] mineIndexes = new int[mines];
+        TileState[] states = new TileState[tileCount];
+        mines = 0;
+
+        for (int i = 0; i < tileCount; i++)
+        {
+            switch (tiles[i])
+            {
+                case '!':   mineIndexes[mines++] = i;   states[i] = TileState.UNCOVERED; break;
+                case '*':   mineIndexes[mines++] = i;   states[i] = TileState.COVERED;   break;
+                case 'F':   mineIndexes[mines++] = i;   states[i] = TileState.FLAGGED;   break;
+                case 'Q':   mineIndexes[mines++] = i;   states[i] = TileState.QUESTION;  break;
+                case '#':   states[i] = TileState.COVERED;   break;
+                case 'f':   states[i] = TileState.FLAGGED;   break;
+                case '?':   states[i] = TileState.QUESTION;  break;
+                default:    states[i] = TileState.UNCOVERED; break;
+            }
+        }
+
+        minefield.load(mineIndexes, states);
+
+        // Check the numbers shown match the mines
+        for (int i = 0; i < tileCount; i++)
+        {
+            if (states[i] == TileState.UNCOVERED && getTileChar(minefield, i, true) != tiles[i])
+            {
+                throw new IOException("line " + (i / width + 2) + ": tile " + (i % width) +
+                                      " does not match the surrounding mines");
+            }
+        }
+
+        return minefield;
+    }
+
+    /**
+     * Returns true if the line is a top or bottom border line
+     */
+    private static boolean isBorderLine(String line)
+    {
+        if (line.length() < 2 || line.charAt(0) != '+' || line.charAt(line.length() - 1) != '+')
+            return false;
+
+        for (int i = 1; i < line.length() - 1; i++)
+        {
+            if (line.charAt(i) != '-')
+                return false;
+        }
+
+        return true;
+    }
+
+    private MinefieldTextFormat()
+    {
+    }
+}
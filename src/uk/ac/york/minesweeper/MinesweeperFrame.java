@@ -4,16 +4,25 @@
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
@@ -26,6 +35,37 @@ public class MinesweeperFrame extends JFrame implements ActionListener
 
     private static final String INCREMENT = "incr";
     private static final String RESET = "reset";
+    private static final String DIAGNOSTICS = "diagnostics";
+    private static final String POLL_MIRROR = "pollMirror";
+
+    // If set, prints the time taken to show the first frame and then exits
+    //  Used for start-up timing and for AppCDS training runs (see README)
+    private static final boolean STARTUP_BENCHMARK = Boolean.getBoolean("minesweeper.startupBenchmark");
+
+    // If set, games are broadcast to spectators connecting to this port on localhost
+    private static final Integer SPECTATOR_PORT = Integer.getInteger("minesweeper.spectatorPort");
+
+    // If set, moves which uncover several tiles are animated
+    private static final boolean ANIMATE_REVEAL = Boolean.getBoolean("minesweeper.animateReveal");
+
+    // If set, the board is mirrored into this file for bots in other processes
+    private static final String MIRROR_FILE = System.getProperty("minesweeper.mirrorFile");
+
+    // How often moves written into the mirror file are checked for (milliseconds)
+    private static final int MIRROR_POLL_INTERVAL = 5;
+
+    // If set, the responsiveness diagnostics overlay is shown at start-up (F3 toggles it)
+    private static final boolean SHOW_DIAGNOSTICS = Boolean.getBoolean("minesweeper.diagnostics");
+
+    // If set, a minimap of the board is shown next to it
+    private static final boolean SHOW_MINIMAP = Boolean.getBoolean("minesweeper.minimap");
+
+    // File completed games are recorded in (an empty value disables the history)
+    private static final String HISTORY_FILE = System.getProperty("minesweeper.historyFile",
+            new File(System.getProperty("user.home"), ".minesweeper-history").getPath());
+
+    // Time main was entered (for STARTUP_BENCHMARK)
+    private static long mainStartTime;
 
     // Interface
     private JPanel mainPanel =  new JPanel(new BorderLayout(10, 10));
@@ -37,9 +77,27 @@ public class MinesweeperFrame extends JFrame implements ActionListener
     private JLabel topTimer;
     private int time = 0;
 
+    // Game history (opened when the first game finishes, or null if not opened yet)
+    private GameHistoryStore history;
+    private int difficulty = 1;
+    private long gameStartTime = 0;
+
+    // Spectator server (or null if disabled)
+    private SpectatorServer spectatorServer;
+
+    // Shared memory board mirror (or null if disabled) and the moves taken from it
+    private SharedBoardMirror boardMirror;
+    private Timer mirrorTimer;
+    private final byte[] mirrorOps = new byte[SharedBoardMirror.DEFAULT_COMMAND_CAPACITY];
+    private final int[] mirrorXs = new int[SharedBoardMirror.DEFAULT_COMMAND_CAPACITY];
+    private final int[] mirrorYs = new int[SharedBoardMirror.DEFAULT_COMMAND_CAPACITY];
+
     // Button Images
     private JButton topResetBtn;
 
+    // True once the frame has been painted for the first time
+    private boolean firstPaintDone = false;
+
     public MinesweeperFrame()
     {
         // Basic Interface Settings
@@ -49,6 +107,33 @@ public MinesweeperFrame()
         this.setSize(new Dimension(400, 500));
         this.setMinimumSize(new Dimension(400, 500));
         this.setTitle("Minesweeper");
+        this.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosing(WindowEvent e)
+            {
+                // Write any unsaved games before exiting
+                if (history != null)
+                    history.close();
+
+                if (spectatorServer != null)
+                    spectatorServer.close();
+
+                if (boardMirror != null)
+                {
+                    mirrorTimer.stop();
+
+                    try
+                    {
+                        boardMirror.close();
+                    }
+                    catch (IOException ex)
+                    {
+                        // Ignore
+                    }
+                }
+            }
+        });
 
         // Interface Structure
         JPanel topPanel = new JPanel(new GridLayout(1, 3, 10, 10));
@@ -59,31 +144,37 @@ public MinesweeperFrame()
 
         JPanel centerMidPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 10));
 
-        minePanel = new MinefieldPanel(new Minefield(16, 16, 40));
+        minePanel = new MinefieldPanel(newMinefield(16, 16, 40));
+        minePanel.setAnimatedReveal(ANIMATE_REVEAL);
+        minePanel.getDiagnostics().setOverlayVisible(SHOW_DIAGNOSTICS);
         minePanel.addStateChangeListener(new MinefieldStateChangeListener()
         {
             @Override
             public void stateChanged(MinefieldStateChangeEvent event)
             {
-                Minefield minefield = minePanel.getMinefield();
+                Minefield minefield = minePanel.getSnapshot();
 
                 if (minefield.isFinished())
                 {
                     // Stop timer and set icon
                     scoreTimer.stop();
+                    recordGame(minefield);
 
                     if (minefield.getGameState() == GameState.WON)
-                        topResetBtn.setIcon(new ImageIcon(Images.FACE_WON));
+                        topResetBtn.setIcon(new ImageIcon(Images.FACE_WON.get()));
                     else
-                        topResetBtn.setIcon(new ImageIcon(Images.FACE_LOST));
+                        topResetBtn.setIcon(new ImageIcon(Images.FACE_LOST.get()));
                 }
                 else
                 {
                     // Set normal face and start timer if we've just started
-                    topResetBtn.setIcon(new ImageIcon(Images.FACE_NORMAL));
+                    topResetBtn.setIcon(new ImageIcon(Images.FACE_NORMAL.get()));
 
                     if (minefield.getGameState() == GameState.RUNNING)
+                    {
                         scoreTimer.start();
+                        gameStartTime = System.nanoTime();
+                    }
                 }
 
                 topResetBtn.repaint();
@@ -92,6 +183,12 @@ public void stateChanged(MinefieldStateChangeEvent event)
 
         centerMidPanel.add(minePanel);
 
+        if (SHOW_MINIMAP)
+            centerMidPanel.add(new MinimapPanel(minePanel));
+
+        startSpectatorServer();
+        startBoardMirror();
+
         // Difficulty Chooser
         difficultyBox.setSelectedIndex(1);
 
@@ -102,7 +199,7 @@ public void stateChanged(MinefieldStateChangeEvent event)
         topResetBtn.addActionListener(this);
         centerPanel.add(topResetBtn);
 
-        topResetBtn.setIcon(new ImageIcon(Images.FACE_NORMAL));
+        topResetBtn.setIcon(new ImageIcon(Images.FACE_NORMAL.get()));
 
         // Labels
         topTimer = new JLabel(String.valueOf(time) + " Seconds");
@@ -114,6 +211,8 @@ public void stateChanged(MinefieldStateChangeEvent event)
         topPanel.add(topTimer);
         mainPanel.add(topPanel, BorderLayout.NORTH);
         mainPanel.add(centerMidPanel, BorderLayout.CENTER);
+        mainPanel.registerKeyboardAction(this, DIAGNOSTICS, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0),
+                                         JComponent.WHEN_IN_FOCUSED_WINDOW);
 
         this.getContentPane().add(mainPanel, BorderLayout.NORTH);
         this.pack();
@@ -126,24 +225,41 @@ public void actionPerformed(ActionEvent event)
         {
             time++;
         }
+        else if(event.getActionCommand().equals(POLL_MIRROR))
+        {
+            // Make any moves written by bots (without waiting for the game thread to make them)
+            int count = boardMirror.pollCommands(mirrorOps, mirrorXs, mirrorYs, 0, mirrorOps.length);
+
+            if (count > 0)
+                minePanel.applyMoves(mirrorOps, mirrorXs, mirrorYs, 0, count);
+
+            return;
+        }
+        else if(event.getActionCommand().equals(DIAGNOSTICS))
+        {
+            UiDiagnostics diagnostics = minePanel.getDiagnostics();
+            diagnostics.setOverlayVisible(!diagnostics.isOverlayVisible());
+        }
         else if(event.getActionCommand().equals(RESET))
         {
             // Reset timer
             scoreTimer.stop();
             time = 0;
+            gameStartTime = 0;
+            difficulty = difficultyBox.getSelectedIndex();
 
             // Reset minefield
             if (difficultyBox.getSelectedIndex() == 0)
             {
-                minePanel.setMinefield((new Minefield(9, 9, 10)));
+                minePanel.setMinefield(newMinefield(9, 9, 10));
             }
             else if (difficultyBox.getSelectedIndex() == 2)
             {
-                minePanel.setMinefield((new Minefield(30, 16, 99)));
+                minePanel.setMinefield(newMinefield(30, 16, 99));
             }
             else if (difficultyBox.getSelectedIndex() == 1)
             {
-                minePanel.setMinefield((new Minefield(16, 16, 40)));
+                minePanel.setMinefield(newMinefield(16, 16, 40));
             }
 
             pack();
@@ -152,8 +268,148 @@ else if (difficultyBox.getSelectedIndex() == 1)
         topTimer.setText((time) + " Seconds   ");
     }
 
+    /**
+     * Creates a minefield for a new game
+     *
+     * @param width width of the minefield
+     * @param height height of the minefield
+     * @param mines number of mines
+     * @return the minefield
+     */
+    private static Minefield newMinefield(int width, int height, int mines)
+    {
+        Minefield minefield = new Minefield(width, height, mines);
+
+        // The minimap is drawn from the region counts
+        if (SHOW_MINIMAP)
+            minefield.setTrackingRegionCounts(true);
+
+        return minefield;
+    }
+
+    /**
+     * Records a finished game in the history and updates the best time shown
+     *
+     * @param minefield the finished minefield
+     */
+    private void recordGame(Minefield minefield)
+    {
+        // Games won on the first click never start the timer
+        long duration = (gameStartTime == 0) ? 0 : (System.nanoTime() - gameStartTime) / 1000000;
+
+        // Show the efficiency of wins (3BV per second)
+        if (minefield.getGameState() == GameState.WON && duration > 0)
+        {
+            BoardStatistics board = minefield.getBoardStatistics();
+            topTimer.setText(String.format("%d Seconds   %.2f 3BV/s (3BV %d)",
+                    time, board.get3BVPerSecond(duration), board.get3BV()));
+        }
+
+        if (HISTORY_FILE.isEmpty())
+            return;
+
+        // Nothing is started or written until the first game has finished
+        if (history == null)
+            history = new GameHistoryStore(new File(HISTORY_FILE));
+
+        history.record(GameRecord.fromMinefield(minefield, difficulty, duration));
+
+        GameStatistics stats = history.getStatistics(difficulty);
+        if (stats.getBestTime() >= 0)
+        {
+            topTimer.setToolTipText(String.format("Best: %.3f s, won %d of %d games",
+                    stats.getBestTime() / 1000.0, stats.getGamesWon(), stats.getGamesPlayed()));
+        }
+    }
+
+    /**
+     * Starts broadcasting games to spectators if a spectator port has been set
+     */
+    private void startSpectatorServer()
+    {
+        if (SPECTATOR_PORT == null)
+            return;
+
+        try
+        {
+            spectatorServer = new SpectatorServer(SPECTATOR_PORT);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not start spectator server on port " + SPECTATOR_PORT + ": " + e);
+            return;
+        }
+
+        spectatorServer.publishKeyframe(minePanel.getSnapshot());
+        minePanel.addChangeListener(spectatorServer);
+    }
+
+    /**
+     * Starts mirroring the board into a shared file if a mirror file has been set
+     */
+    private void startBoardMirror()
+    {
+        if (MIRROR_FILE == null)
+            return;
+
+        try
+        {
+            boardMirror = new SharedBoardMirror(new File(MIRROR_FILE), minePanel.getSnapshot());
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not create board mirror " + MIRROR_FILE + ": " + e);
+            return;
+        }
+
+        minePanel.addChangeListener(boardMirror);
+
+        mirrorTimer = new Timer(MIRROR_POLL_INTERVAL, this);
+        mirrorTimer.setActionCommand(POLL_MIRROR);
+        mirrorTimer.start();
+    }
+
+    @Override
+    public void paint(Graphics g)
+    {
+        super.paint(g);
+
+        if (STARTUP_BENCHMARK && !firstPaintDone)
+        {
+            firstPaintDone = true;
+            reportStartupTime();
+        }
+    }
+
+    /**
+     * Prints the start-up times for the benchmark and exits once the event queue settles
+     */
+    private void reportStartupTime()
+    {
+        long sinceMain = (System.nanoTime() - mainStartTime) / 1000000;
+        long sinceJvmStart = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        System.out.println("Time to first frame: " + sinceJvmStart + " ms since JVM start, " +
+                           sinceMain + " ms since main");
+
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                dispose();
+                System.exit(0);
+            }
+        });
+    }
+
     public static void main(String[] args)
     {
+        mainStartTime = System.nanoTime();
+
+        // Decode images in the background while Swing starts up
+        Images.preloadAsync();
+
         SwingUtilities.invokeLater(new Runnable()
         {
             @Override
@@ -0,0 +1,204 @@
+package uk.ac.york.minesweeper;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import javax.swing.JComponent;
+
+/**
+ * Displays an overview of the minefield shown by a {@link MinefieldPanel}
+ *
+ * The minimap is drawn from the minefield's summary pyramid (see
+ * {@link Minefield#setTrackingRegionCounts(boolean)}) using the most detailed level which
+ * fits, so drawing takes the same time whatever the size of the minefield. Each block of the
+ * level is one pixel of an image which is scaled to fill the minimap. Blocks are shaded by
+ * the proportion of their tiles which are uncovered and blocks containing flags are red.
+ * If the minefield panel is in a scroll pane, the visible part is outlined and clicking or
+ * dragging on the minimap scrolls to that point.
+ *
+ * Nothing is drawn unless the minefield is tracking region counts.
+ */
+public class MinimapPanel extends JComponent implements MinefieldChangeListener
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Default width and height in pixels */
+    private static final int DEFAULT_SIZE = 160;
+
+    /** Grey level of fully covered and fully uncovered blocks */
+    private static final int SHADE_COVERED = 0x80;
+    private static final int SHADE_UNCOVERED = 0xE0;
+
+    /** Colour of blocks containing flags */
+    private static final int RGB_FLAG = 0xFF0000;
+
+    /** Colour of blocks without any tiles */
+    private static final int RGB_EMPTY = 0xFFFFFF;
+
+    /** Colour of the outline of the visible part of the minefield */
+    private static final Color COLOUR_VIEWPORT = Color.BLUE;
+
+    /** The panel whose minefield is shown */
+    private final MinefieldPanel panel;
+
+    /** Arrays and rectangles reused while painting */
+    private final int[] counts = new int[3];
+    private final Rectangle viewport = new Rectangle();
+    private final Dimension preferredSize = new Dimension(DEFAULT_SIZE, DEFAULT_SIZE);
+
+    /** Image containing one pixel per block (replaced when the number of blocks changes) */
+    private BufferedImage image;
+    private int[] pixels;
+
+    /** Pixels per layout grid position used by the last paint */
+    private double scale;
+
+    /**
+     * Creates a minimap of a minefield panel
+     *
+     * @param panel panel to show
+     */
+    public MinimapPanel(MinefieldPanel panel)
+    {
+        this.panel = panel;
+        this.setBackground(Color.WHITE);
+        this.setOpaque(true);
+
+        MouseAdapter mouseListener = new MouseAdapter()
+        {
+            @Override
+            public void mousePressed(MouseEvent e)
+            {
+                scrollTo(e.getX(), e.getY());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e)
+            {
+                scrollTo(e.getX(), e.getY());
+            }
+        };
+
+        this.addMouseListener(mouseListener);
+        this.addMouseMotionListener(mouseListener);
+        panel.addChangeListener(this);
+    }
+
+    @Override
+    public void tilesChanged(MinefieldChangeEvent event)
+    {
+        // Repaints are merged so this only draws once however many moves are made
+        repaint();
+    }
+
+    @Override
+    public void paintComponent(Graphics g)
+    {
+        Minefield minefield = panel.getSnapshot();
+        int width = getWidth();
+        int height = getHeight();
+
+        g.setColor(getBackground());
+        g.fillRect(0, 0, width, height);
+
+        int levels = minefield.getSummaryLevels();
+        if (levels == 0)
+            return;
+
+        // Use the most detailed level with at least one pixel per block
+        int level = 0;
+
+        while (level < levels - 1 && (minefield.getSummaryWidth(level) > width ||
+                                      minefield.getSummaryHeight(level) > height))
+            level++;
+
+        int cellSize = Minefield.getSummaryCellSize(level);
+        int cellsWide = minefield.getSummaryWidth(level);
+        int cellsHigh = minefield.getSummaryHeight(level);
+
+        if (image == null || image.getWidth() != cellsWide || image.getHeight() != cellsHigh)
+        {
+            image = new BufferedImage(cellsWide, cellsHigh, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        for (int cellY = 0; cellY < cellsHigh; cellY++)
+        {
+            for (int cellX = 0; cellX < cellsWide; cellX++)
+            {
+                minefield.readSummaryCell(level, cellX, cellY, counts);
+
+                int flagged = counts[Minefield.REGION_FLAGGED];
+                int uncovered = counts[Minefield.REGION_UNCOVERED];
+                int tiles = counts[Minefield.REGION_COVERED] + flagged + uncovered;
+                int rgb;
+
+                if (tiles == 0)
+                {
+                    rgb = RGB_EMPTY;
+                }
+                else if (flagged > 0)
+                {
+                    rgb = RGB_FLAG;
+                }
+                else
+                {
+                    int shade = SHADE_COVERED + (int) ((long) (SHADE_UNCOVERED - SHADE_COVERED) * uncovered / tiles);
+                    rgb = (shade << 16) | (shade << 8) | shade;
+                }
+
+                pixels[cellY * cellsWide + cellX] = rgb;
+            }
+        }
+
+        // The blocks on the right and bottom edges may extend past the minefield
+        scale = Math.min(width / (double) minefield.getWidth(), height / (double) minefield.getHeight());
+
+        g.drawImage(image, 0, 0, (int) (cellsWide * cellSize * scale), (int) (cellsHigh * cellSize * scale), null);
+        g.setColor(getBackground());
+        g.fillRect((int) (minefield.getWidth() * scale), 0, width, height);
+        g.fillRect(0, (int) (minefield.getHeight() * scale), width, height);
+
+        // Outline the visible part of the panel if it is scrolled
+        panel.computeVisibleRect(viewport);
+
+        if (viewport.width < panel.getWidth() || viewport.height < panel.getHeight())
+        {
+            double pixelScale = scale / MinefieldPanel.TILE_SIZE;
+
+            g.setColor(COLOUR_VIEWPORT);
+            g.drawRect((int) (viewport.x * pixelScale), (int) (viewport.y * pixelScale),
+                       (int) (viewport.width * pixelScale), (int) (viewport.height * pixelScale));
+        }
+    }
+
+    /**
+     * Scrolls the minefield panel so a point on the minimap is in the middle
+     */
+    private void scrollTo(int x, int y)
+    {
+        if (scale <= 0)
+            return;
+
+        double pixelScale = scale / MinefieldPanel.TILE_SIZE;
+
+        panel.computeVisibleRect(viewport);
+        viewport.x = (int) (x / pixelScale) - viewport.width / 2;
+        viewport.y = (int) (y / pixelScale) - viewport.height / 2;
+        panel.scrollRectToVisible(viewport);
+
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        return preferredSize;
+    }
+}
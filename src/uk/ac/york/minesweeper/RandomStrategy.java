@@ -0,0 +1,58 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * A strategy which uncovers a random covered tile every move
+ *
+ * The tile is chosen from a hash of the board's state and the strategy's seed, so the strategy
+ * has no mutable state and plays the same game the same way every time.
+ */
+public class RandomStrategy implements Strategy
+{
+    private final long seed;
+
+    /**
+     * Creates a random strategy
+     *
+     * @param seed seed of the random choices
+     */
+    public RandomStrategy(long seed)
+    {
+        this.seed = seed;
+    }
+
+    @Override
+    public int chooseMove(Minefield board)
+    {
+        return Minefield.MOVE_UNCOVER * board.getTileCount() + randomCoveredTile(board, seed);
+    }
+
+    /**
+     * Chooses a random covered (not flagged) tile
+     *
+     * @param board the board
+     * @param seed seed of the random choice
+     * @return index of the tile (0 if there are no covered tiles)
+     */
+    static int randomCoveredTile(Minefield board, long seed)
+    {
+        int tileCount = board.getTileCount();
+
+        // SplitMix64 of the seed and the board's state
+        long z = (seed ^ board.getStateHash()) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+
+        int start = (int) ((z >>> 1) % tileCount);
+
+        for (int j = 0; j < tileCount; j++)
+        {
+            int tile = (start + j) % tileCount;
+
+            if (board.getVisibleTile(tile) == Minefield.VISIBLE_COVERED)
+                return tile;
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,342 @@
+package uk.ac.york.minesweeper;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Animates tiles being uncovered by a {@link MinefieldPanel}
+ *
+ * The tiles changed by a move are split into breadth first waves (the clicked tile, then its
+ * neighbours, then their neighbours, ...) and the waves are revealed one frame at a time.
+ * Frames are paced using System.nanoTime on a separate thread and each frame draws only the
+ * tiles it reveals directly onto the panel (active rendering) instead of going through
+ * repaint(). Until a tile has been revealed it is painted as covered.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+final class RevealAnimator
+{
+    /** Frames per second */
+    private static final int FPS = 60;
+
+    /** Length of each frame in nanoseconds */
+    private static final long FRAME_NANOS = 1000000000L / FPS;
+
+    /** Longest animation in frames (large openings reveal several waves per frame) */
+    private static final int MAX_FRAMES = 90;
+
+    /** The panel being animated */
+    private final MinefieldPanel panel;
+
+    /** Runs one frame of the animation (on the event dispatch thread) */
+    private final Runnable frameTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            drawFrame();
+        }
+    };
+
+    /** The thread which paces the frames (started when first needed) */
+    private Thread thread;
+
+    /** True while an animation is running */
+    private volatile boolean running;
+
+    /** Tiles which have not been revealed yet (one bit per tile) */
+    private long[] hidden = new long[0];
+
+    /** Tiles in the order they are revealed and the index of the first tile of each wave */
+    private int[] order = new int[256];
+    private int[] waveStart = new int[64];
+    private int waveCount;
+
+    /** The wave to reveal next and the number of waves revealed each frame */
+    private int nextWave;
+    private int wavesPerFrame;
+
+    /** The wave of each tile plus one (0 for tiles not in the animation) */
+    private int[] waveOf = new int[0];
+
+    /** Value of waveOf for changed tiles which have not been reached yet */
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** Breadth first search queue */
+    private int[] queue = new int[256];
+
+    /**
+     * Creates an animator for a panel
+     *
+     * @param panel the panel to draw on
+     */
+    public RevealAnimator(MinefieldPanel panel)
+    {
+        this.panel = panel;
+    }
+
+    /**
+     * Returns true while an animation is running
+     *
+     * @return true if running
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Gets the tiles which should still be painted as covered
+     *
+     * @return bitmap of hidden tiles (bit i of word i / 64), or null if no animation is running
+     */
+    public long[] getHiddenTiles()
+    {
+        return running ? hidden : null;
+    }
+
+    /**
+     * Starts animating some changed tiles
+     *
+     * The waves spread out from the first tile which changed (the clicked tile). Any changed
+     * tiles which are not connected to it start their own waves from wave 0.
+     * Any running animation must have been finished first.
+     *
+     * @param minefield minefield containing the tiles
+     * @param tiles indexes of the changed tiles
+     * @param count number of changed tiles
+     */
+    public void start(Minefield minefield, int[] tiles, int count)
+    {
+        int tileCount = minefield.getTileCount();
+        char[] tileClasses = minefield.getTopology().getTileClasses();
+        int[][] classOffsets = minefield.getTopology().getClassOffsets();
+
+        if (waveOf.length < tileCount)
+        {
+            waveOf = new int[tileCount];
+            hidden = new long[(tileCount + 63) >>> 6];
+        }
+
+        // Mark the changed tiles
+        int unique = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int tile = tiles[i];
+
+            if (waveOf[tile] == 0)
+            {
+                waveOf[tile] = UNREACHED;
+                hidden[tile >>> 6] |= 1L << tile;
+                unique++;
+            }
+        }
+
+        if (queue.length < unique)
+            queue = new int[unique];
+
+        // Breadth first search through the changed tiles, starting from each one which has not
+        //  been reached yet in the order they changed
+        int[] waveSizes = new int[16];
+        int tail = 0;
+        waveCount = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int head = tail;
+
+            if (waveOf[tiles[i]] != UNREACHED)
+                continue;
+
+            waveOf[tiles[i]] = 1;
+            queue[tail++] = tiles[i];
+
+            while (head < tail)
+            {
+                int tile = queue[head++];
+                int wave = waveOf[tile];
+                int[] offsets = classOffsets[tileClasses[tile]];
+
+                if (wave > waveSizes.length)
+                    waveSizes = Arrays.copyOf(waveSizes, waveSizes.length * 2);
+
+                waveSizes[wave - 1]++;
+                waveCount = Math.max(waveCount, wave);
+
+                for (int k = 0; k < offsets.length; k++)
+                {
+                    int neighbour = tile + offsets[k];
+
+                    if (waveOf[neighbour] == UNREACHED)
+                    {
+                        waveOf[neighbour] = wave + 1;
+                        queue[tail++] = neighbour;
+                    }
+                }
+            }
+        }
+
+        // Sort the tiles by wave
+        if (waveStart.length < waveCount + 1)
+            waveStart = new int[waveCount + 1];
+
+        if (order.length < unique)
+            order = new int[unique];
+
+        waveStart[0] = 0;
+        for (int w = 0; w < waveCount; w++)
+            waveStart[w + 1] = waveStart[w] + waveSizes[w];
+
+        int[] next = Arrays.copyOf(waveStart, waveCount);
+
+        for (int i = 0; i < unique; i++)
+        {
+            int tile = queue[i];
+
+            order[next[waveOf[tile] - 1]++] = tile;
+            waveOf[tile] = 0;
+        }
+
+        nextWave = 0;
+        wavesPerFrame = (waveCount + MAX_FRAMES - 1) / MAX_FRAMES;
+
+        startThread();
+    }
+
+    /**
+     * Reveals all the remaining tiles immediately
+     */
+    public void finish()
+    {
+        if (!running)
+            return;
+
+        for (int i = waveStart[nextWave]; i < waveStart[waveCount]; i++)
+            hidden[order[i] >>> 6] &= ~(1L << order[i]);
+
+        running = false;
+        panel.repaint(panel.getVisibleRect());
+    }
+
+    /**
+     * Starts the frame thread if needed and wakes it up
+     */
+    private void startThread()
+    {
+        if (thread == null)
+        {
+            thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runFrames();
+                }
+            }, "Minefield animation");
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        synchronized (this)
+        {
+            running = true;
+            notify();
+        }
+    }
+
+    /**
+     * Main method of the frame thread
+     */
+    private void runFrames()
+    {
+        while (true)
+        {
+            synchronized (this)
+            {
+                while (!running)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Ignore
+                    }
+                }
+            }
+
+            long nextFrame = System.nanoTime();
+
+            while (running)
+            {
+                try
+                {
+                    SwingUtilities.invokeAndWait(frameTask);
+                }
+                catch (InterruptedException e)
+                {
+                    // Ignore
+                }
+                catch (InvocationTargetException e)
+                {
+                    System.err.println("Error drawing animation: " + e.getCause());
+                }
+
+                // Wait for the next frame (skipping frames if we're behind)
+                nextFrame += FRAME_NANOS;
+                long delay;
+
+                while ((delay = nextFrame - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(delay);
+
+                if (delay < -FRAME_NANOS)
+                    nextFrame = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Reveals the next waves and draws them
+     */
+    private void drawFrame()
+    {
+        if (!running)
+            return;
+
+        // Frames drawn here bypass paintComponent so are measured separately
+        long startTime = panel.getDiagnostics().paintStarted();
+        int endWave = Math.min(waveCount, nextWave + wavesPerFrame);
+        Graphics2D g = (Graphics2D) panel.getGraphics();
+        Rectangle visible = panel.getVisibleRect();
+
+        for (int i = waveStart[nextWave]; i < waveStart[endWave]; i++)
+        {
+            int tile = order[i];
+            hidden[tile >>> 6] &= ~(1L << tile);
+
+            if (g != null)
+                panel.drawTile(g, tile, visible);
+        }
+
+        if (g != null)
+        {
+            g.dispose();
+            Toolkit.getDefaultToolkit().sync();
+        }
+
+        panel.getDiagnostics().paintFinished(startTime, waveStart[endWave] - waveStart[nextWave]);
+        nextWave = endWave;
+
+        if (nextWave == waveCount)
+            running = false;
+    }
+}
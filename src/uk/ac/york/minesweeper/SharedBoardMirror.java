@@ -0,0 +1,461 @@
+package uk.ac.york.minesweeper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Mirrors the visible state of a minefield into a memory mapped file
+ *
+ * Other processes (for example bots written in other languages) can map the same file to read
+ * the board without any copying or parsing, and can make moves by writing them into a command
+ * ring in the same file. Register the mirror as a change listener on a {@link MinefieldPanel},
+ * or call {@link #applyCommands(Minefield)} in a loop when owning a minefield directly.
+ *
+ * <p>The file has this layout (all numbers in the platform's native byte order):</p>
+ * <pre>
+ *  offset
+ *   0  int   MAGIC
+ *   4  int   VERSION
+ *   8  long  sequence number (odd while the board is being written)
+ *  16  int   generation (incremented each time the minefield is replaced)
+ *  20  int   width of the layout grid
+ *  24  int   height of the layout grid
+ *  28  int   number of mines
+ *  32  int   game state (GameState ordinal)
+ *  36  int   number of moves made
+ *  40  int   offset of the command ring
+ *  44  int   size of the command ring in commands (a power of two)
+ *  48  long  command head (number of commands ever written by the other process)
+ *  56  long  command tail (number of commands ever taken by the game)
+ *  64  the layout grid, row by row (one byte per position, encoded as in
+ *      {@link Minefield#getVisibleTile(int)})
+ * </pre>
+ * <p>Each command in the ring is 8 bytes: the int position (x + y * width) followed by the
+ * move (a byte Minefield.MOVE_ constant) and 3 unused bytes. Command number n is stored in
+ * slot n modulo the ring size.</p>
+ *
+ * <p>Readers use the sequence number as a seqlock: read it, read the board, then read it
+ * again. The board is consistent if both reads returned the same even number. If the
+ * generation has changed the dimensions must be read again (and the file remapped if it
+ * has grown).</p>
+ *
+ * <p>Only one process may write commands. It writes the command into the slot for the
+ * current head and then increments the head (with a release store, so the slot is written
+ * first). It must not write more than the ring size commands ahead of the tail. Commands are
+ * taken when the game polls for them; moves made after the game has finished are ignored.
+ * If the head is ever behind the tail or more than the ring size ahead of it, no commands
+ * are taken until it is valid again.</p>
+ */
+public class SharedBoardMirror implements MinefieldChangeListener, Closeable
+{
+    /** Value of the first int in the file */
+    public static final int MAGIC = 0x4D53424D;
+
+    /** Version of the layout */
+    public static final int VERSION = 1;
+
+    /** Default size of the command ring */
+    public static final int DEFAULT_COMMAND_CAPACITY = 1024;
+
+    /** Offsets of the header fields */
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_SEQUENCE = 8;
+    private static final int OFFSET_GENERATION = 16;
+    private static final int OFFSET_WIDTH = 20;
+    private static final int OFFSET_HEIGHT = 24;
+    private static final int OFFSET_MINES = 28;
+    private static final int OFFSET_STATE = 32;
+    private static final int OFFSET_MOVES = 36;
+    private static final int OFFSET_RING = 40;
+    private static final int OFFSET_CAPACITY = 44;
+    private static final int OFFSET_HEAD = 48;
+    private static final int OFFSET_TAIL = 56;
+    private static final int OFFSET_TILES = 64;
+
+    /** Size of each command */
+    private static final int COMMAND_SIZE = 8;
+
+    /**
+     * Unsafe's fences (or null if the JVM does not have them)
+     *
+     * The mapped buffer has no atomic accesses of its own, so these order its plain reads
+     * and writes for the other process.
+     */
+    private static final MethodHandle LOAD_FENCE = findFence("loadFence");
+    private static final MethodHandle STORE_FENCE = findFence("storeFence");
+
+    /** The mapped file */
+    private final RandomAccessFile file;
+
+    /** Size of the command ring */
+    private final int commandCapacity;
+
+    /** The mapping (replaced if the file grows) */
+    private MappedByteBuffer buffer;
+
+    /** Offset of the command ring in the mapping */
+    private int ringOffset;
+
+    /** Dimensions of the mirrored layout grid */
+    private int width;
+    private int height;
+
+    /** Sequence number and generation last written */
+    private long sequence;
+    private int generation;
+
+    /** Number of commands taken */
+    private long tail;
+
+    /** True if an invalid head has been reported (and has not become valid since) */
+    private boolean badHeadReported;
+
+    /** Only used by the fences on JVMs which do not have Unsafe's fences */
+    private static volatile int fallbackFence;
+
+    /** Arrays reused by applyCommands */
+    private byte[] ops = new byte[0];
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+    private byte[] results = new byte[0];
+
+    /**
+     * Creates a mirror file (replacing any existing file) containing a minefield
+     *
+     * @param path file to create
+     * @param minefield minefield to mirror
+     * @throws IOException if the file cannot be created
+     */
+    public SharedBoardMirror(File path, Minefield minefield) throws IOException
+    {
+        this(path, minefield, DEFAULT_COMMAND_CAPACITY);
+    }
+
+    /**
+     * Creates a mirror file (replacing any existing file) containing a minefield
+     *
+     * @param path file to create
+     * @param minefield minefield to mirror
+     * @param commandCapacity size of the command ring (a power of two)
+     * @throws IOException if the file cannot be created
+     */
+    public SharedBoardMirror(File path, Minefield minefield, int commandCapacity) throws IOException
+    {
+        if (commandCapacity <= 0 || Integer.bitCount(commandCapacity) != 1)
+            throw new IllegalArgumentException("commandCapacity must be a power of two");
+
+        this.commandCapacity = commandCapacity;
+        this.file = new RandomAccessFile(path, "rw");
+
+        try
+        {
+            file.setLength(0);
+            publishMinefield(minefield);
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a whole minefield (which may have different dimensions) into the file
+     *
+     * Any commands waiting for the previous minefield are discarded.
+     *
+     * @param minefield the minefield
+     * @throws IOException if the file cannot be resized
+     */
+    public synchronized void publishMinefield(Minefield minefield) throws IOException
+    {
+        int newWidth = minefield.getWidth();
+        int newHeight = minefield.getHeight();
+
+        if (buffer == null || newWidth * newHeight != width * height)
+        {
+            // The ring goes after the tiles (aligned to 8 bytes), so it moves if the size changes
+            int newRingOffset = (OFFSET_TILES + newWidth * newHeight + 7) & ~7;
+            long size = newRingOffset + (long) commandCapacity * COMMAND_SIZE;
+
+            if (size > file.length())
+                file.setLength(size);
+
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            ringOffset = newRingOffset;
+        }
+
+        width = newWidth;
+        height = newHeight;
+
+        beginWrite();
+
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putInt(OFFSET_GENERATION, ++generation);
+        buffer.putInt(OFFSET_WIDTH, width);
+        buffer.putInt(OFFSET_HEIGHT, height);
+        buffer.putInt(OFFSET_MINES, minefield.getMines());
+        buffer.putInt(OFFSET_RING, ringOffset);
+        buffer.putInt(OFFSET_CAPACITY, commandCapacity);
+
+        // Throw away waiting commands
+        tail = buffer.getLong(OFFSET_HEAD);
+        buffer.putLong(OFFSET_TAIL, tail);
+
+        buffer.position(OFFSET_TILES);
+        minefield.readRegion(0, 0, width, height, buffer);
+        buffer.position(0);
+
+        writeState(minefield);
+        endWrite();
+    }
+
+    /**
+     * Writes some changed tiles into the file
+     *
+     * @param minefield minefield containing the tiles (with the same dimensions as the last
+     *                  one published)
+     * @param changedTiles indexes of the changed tiles
+     * @param count number of changed tiles
+     */
+    public synchronized void publishChanges(Minefield minefield, int[] changedTiles, int count)
+    {
+        Topology topology = minefield.getTopology();
+
+        beginWrite();
+
+        for (int i = 0; i < count; i++)
+        {
+            int tile = changedTiles[i];
+            int position = topology.getX(tile) + topology.getY(tile) * width;
+
+            buffer.put(OFFSET_TILES + position, minefield.getVisibleTile(tile));
+        }
+
+        writeState(minefield);
+        endWrite();
+    }
+
+    @Override
+    public void tilesChanged(MinefieldChangeEvent event)
+    {
+        if (event.isNewMinefield())
+        {
+            try
+            {
+                publishMinefield(event.getMinefield());
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not resize board mirror: " + e);
+            }
+        }
+        else
+        {
+            publishChanges(event.getMinefield(), event.getChangedTiles(), event.getChangeCount());
+        }
+    }
+
+    /**
+     * Takes the commands written by the other process
+     *
+     * @param ops array to store the moves in (Minefield.MOVE_ constants)
+     * @param xs array to store the x positions in
+     * @param ys array to store the y positions in
+     * @param offset index in the arrays to store the first command
+     * @param max maximum number of commands to take
+     * @return number of commands taken
+     */
+    public synchronized int pollCommands(byte[] ops, int[] xs, int[] ys, int offset, int max)
+    {
+        // Acquire the head so the slots it covers are not read before it
+        long head = buffer.getLong(OFFSET_HEAD);
+        loadFence();
+
+        long waiting = head - tail;
+
+        if (waiting < 0 || waiting > commandCapacity)
+        {
+            // The other process has broken the protocol, so the slots cannot be trusted
+            if (!badHeadReported)
+            {
+                System.err.println("Board mirror command head " + head + " is invalid (tail is " + tail + ")");
+                badHeadReported = true;
+            }
+
+            return 0;
+        }
+
+        badHeadReported = false;
+
+        int count = (int) Math.min(waiting, Math.max(max, 0));
+
+        if (count == 0)
+            return 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int slot = ringOffset + (int) ((tail + i) & (commandCapacity - 1)) * COMMAND_SIZE;
+            int position = buffer.getInt(slot);
+
+            // Negative positions end up outside the minefield (so the move is invalid)
+            ops[offset + i] = buffer.get(slot + 4);
+            xs[offset + i] = position % width;
+            ys[offset + i] = position / width;
+        }
+
+        // Release the tail so the slots are read before the other process can reuse them
+        tail += count;
+        storeFence();
+        buffer.putLong(OFFSET_TAIL, tail);
+        return count;
+    }
+
+    /**
+     * Applies any waiting commands to a minefield and mirrors the changes
+     *
+     * This is for programs which own a minefield directly. The minefield must be the one
+     * which was last published and must be tracking changes. Its change list is cleared.
+     *
+     * @param minefield the minefield
+     * @return number of commands taken
+     */
+    public int applyCommands(Minefield minefield)
+    {
+        int count;
+
+        synchronized (this)
+        {
+            if (ops.length < commandCapacity)
+            {
+                ops = new byte[commandCapacity];
+                xs = new int[commandCapacity];
+                ys = new int[commandCapacity];
+                results = new byte[commandCapacity];
+            }
+
+            count = pollCommands(ops, xs, ys, 0, commandCapacity);
+        }
+
+        if (count == 0)
+            return 0;
+
+        minefield.applyMoves(ops, xs, ys, 0, count, results);
+        publishChanges(minefield, minefield.getChangedTiles(), minefield.getChangeCount());
+        minefield.clearChanges();
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        file.close();
+    }
+
+    /**
+     * Writes the game state and move count
+     */
+    private void writeState(Minefield minefield)
+    {
+        buffer.putInt(OFFSET_STATE, minefield.getGameState().ordinal());
+        buffer.putInt(OFFSET_MOVES, minefield.getMoveCount());
+    }
+
+    /**
+     * Marks the board as being written (makes the sequence number odd)
+     */
+    private void beginWrite()
+    {
+        // The odd sequence number must be visible before any of the board is
+        buffer.putLong(OFFSET_SEQUENCE, ++sequence);
+        storeFence();
+    }
+
+    /**
+     * Marks the board as consistent (makes the sequence number even)
+     */
+    private void endWrite()
+    {
+        // All of the board must be visible before the even sequence number is
+        storeFence();
+        buffer.putLong(OFFSET_SEQUENCE, ++sequence);
+    }
+
+    /**
+     * Stops later reads and writes moving before earlier reads (acquire)
+     */
+    private static void loadFence()
+    {
+        if (LOAD_FENCE == null)
+        {
+            int ignored = fallbackFence;
+            return;
+        }
+
+        try
+        {
+            LOAD_FENCE.invokeExact();
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stops later writes moving before earlier reads and writes (release)
+     */
+    private static void storeFence()
+    {
+        if (STORE_FENCE == null)
+        {
+            fallbackFence = 0;
+            return;
+        }
+
+        try
+        {
+            STORE_FENCE.invokeExact();
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds one of Unsafe's fence methods (which exist from Java 8)
+     *
+     * On older JVMs a volatile access is used instead. This orders the buffer's accesses on
+     * HotSpot (which fences volatile accesses) but is not guaranteed by the memory model.
+     */
+    private static MethodHandle findFence(String name)
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, name, MethodType.methodType(void.class))
+                    .bindTo(field.get(null));
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * A strategy which only uses the numbers around single tiles
+ *
+ * Each move it chords a number which has all its mines flagged, or flags the covered tiles
+ * around a number which has as many covered neighbours as mines. If neither is possible it
+ * uncovers a random covered tile (see {@link RandomStrategy}).
+ */
+public class SimpleStrategy implements Strategy
+{
+    private final long seed;
+
+    /**
+     * Creates a simple strategy
+     *
+     * @param seed seed of the random guesses
+     */
+    public SimpleStrategy(long seed)
+    {
+        this.seed = seed;
+    }
+
+    @Override
+    public int chooseMove(Minefield board)
+    {
+        Topology topology = board.getTopology();
+        char[] tileClasses = topology.getTileClasses();
+        int[][] classOffsets = topology.getClassOffsets();
+        int tileCount = board.getTileCount();
+
+        for (int i = 0; i < tileCount; i++)
+        {
+            int value = board.getVisibleTile(i);
+
+            // Skip numbers with nothing left to do around them
+            if (value <= 0 || board.isResolved(i))
+                continue;
+
+            // Numbers with all their mines flagged can be chorded
+            if (board.isSatisfied(i))
+                return Minefield.MOVE_CHORD * tileCount + i;
+
+            // Numbers with as many covered neighbours as mines have mines on all of them
+            if (board.getCoveredNeighbours(i) == value)
+            {
+                int[] offsets = classOffsets[tileClasses[i]];
+
+                for (int k = 0; k < offsets.length; k++)
+                {
+                    int neighbour = i + offsets[k];
+                    byte visible = board.getVisibleTile(neighbour);
+
+                    if (visible == Minefield.VISIBLE_COVERED || visible == Minefield.VISIBLE_QUESTION)
+                        return Minefield.MOVE_FLAG * tileCount + neighbour;
+                }
+            }
+        }
+
+        return Minefield.MOVE_UNCOVER * tileCount + RandomStrategy.randomCoveredTile(board, seed);
+    }
+}
@@ -0,0 +1,566 @@
+package uk.ac.york.minesweeper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Broadcasts a live game to any number of spectators over TCP
+ *
+ * Register the server as a change listener on a {@link MinefieldPanel}. Each move is encoded
+ * once (on the thread which made the move) into a delta frame containing only the changed
+ * tiles and the same frame is then sent to every spectator. A spectator which connects is
+ * first sent a keyframe containing every tile.
+ *
+ * Each spectator has a limited amount of queued data. If a spectator cannot keep up its queue
+ * is thrown away and it is sent a new keyframe once it catches up, so a slow spectator never
+ * makes the server buffer without limit.
+ *
+ * <p>All frames start with a header:</p>
+ * <pre>
+ *  int  length of the rest of the frame
+ *  byte frame type (FRAME_KEYFRAME or FRAME_DELTA)
+ *  int  sequence number
+ *  byte game state (GameState ordinal)
+ * </pre>
+ * <p>Keyframes continue with the width and height of the layout grid (as ints) followed by
+ * every position of the grid row by row (one byte each, encoded as in
+ * {@link Minefield#getVisibleTile(int)}). Delta frames continue with the number of changes (an
+ * int) followed by that many (int position, byte tile) pairs, where position = x + y * width.</p>
+ *
+ * All numbers are big endian. Spectators do not need to send anything.
+ */
+public class SpectatorServer implements MinefieldChangeListener, Closeable
+{
+    /** Frame type of keyframes */
+    public static final byte FRAME_KEYFRAME = 0;
+
+    /** Frame type of delta frames */
+    public static final byte FRAME_DELTA = 1;
+
+    /** Size of the header at the start of every frame */
+    private static final int HEADER_SIZE = 10;
+
+    /** Size of each change in a delta frame */
+    private static final int CHANGE_SIZE = 5;
+
+    /** Default maximum amount of data queued for each spectator */
+    public static final int DEFAULT_MAX_QUEUED = 256 * 1024;
+
+    /** Maximum amount of data queued for each spectator */
+    private final int maxQueued;
+
+    /** Socket accepting new spectators */
+    private final ServerSocketChannel serverChannel;
+
+    /** Selector used by the network thread */
+    private final Selector selector;
+
+    /** Thread which sends frames to spectators */
+    private final Thread networkThread;
+
+    /** Frames waiting to be sent by the network thread */
+    private final ConcurrentLinkedQueue<ByteBuffer> published = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /** Connected spectators (network thread only) */
+    private final List<Spectator> spectators = new ArrayList<Spectator>();
+
+    /** Sequence number of the last frame published (guarded by this) */
+    private int sequence = 0;
+
+    /** Copy of the visible minefield built from the published frames (network thread only) */
+    private byte[] mirror;
+    private int mirrorWidth;
+    private int mirrorHeight;
+    private byte mirrorState;
+    private int mirrorSequence;
+
+    /** Keyframe built from the mirror (network thread only, null when out of date) */
+    private ByteBuffer cachedKeyframe;
+
+    /** True once close has been called */
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a spectator server listening on the loopback interface
+     *
+     * @param port port to listen on (0 to choose any free port)
+     * @throws IOException if the socket cannot be opened
+     */
+    public SpectatorServer(int port) throws IOException
+    {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * Creates a spectator server
+     *
+     * @param address address to listen on
+     * @param maxQueued maximum number of bytes queued for each spectator before it is
+     *                  dropped back to the next keyframe
+     * @throws IOException if the socket cannot be opened
+     */
+    public SpectatorServer(InetSocketAddress address, int maxQueued) throws IOException
+    {
+        if (maxQueued < 1)
+            throw new IllegalArgumentException("maxQueued must be positive");
+
+        this.maxQueued = maxQueued;
+        this.selector = Selector.open();
+
+        try
+        {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e)
+        {
+            selector.close();
+            throw e;
+        }
+
+        networkThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runNetwork();
+            }
+        }, "Spectator server");
+
+        networkThread.setDaemon(true);
+        networkThread.start();
+    }
+
+    /**
+     * Gets the port the server is listening on
+     *
+     * @return port number
+     */
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void tilesChanged(MinefieldChangeEvent event)
+    {
+        if (event.isNewMinefield())
+            publishKeyframe(event.getMinefield());
+        else
+            publishDelta(event.getMinefield(), event.getChangedTiles(), event.getChangeCount());
+    }
+
+    /**
+     * Sends every tile of a minefield to all spectators
+     *
+     * This must be called before any deltas are published for a new minefield.
+     *
+     * @param minefield the minefield
+     */
+    public synchronized void publishKeyframe(Minefield minefield)
+    {
+        int width = minefield.getWidth();
+        int height = minefield.getHeight();
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 8 + width * height);
+
+        putHeader(frame, FRAME_KEYFRAME, ++sequence, minefield.getGameState());
+        frame.putInt(width);
+        frame.putInt(height);
+        minefield.readRegion(0, 0, width, height, frame);
+
+        publish(frame);
+    }
+
+    /**
+     * Sends some changed tiles to all spectators
+     *
+     * @param minefield the minefield
+     * @param tiles indexes of the changed tiles
+     * @param count number of changed tiles
+     */
+    public synchronized void publishDelta(Minefield minefield, int[] tiles, int count)
+    {
+        Topology topology = minefield.getTopology();
+        int width = minefield.getWidth();
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 4 + count * CHANGE_SIZE);
+
+        putHeader(frame, FRAME_DELTA, ++sequence, minefield.getGameState());
+        frame.putInt(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            int index = tiles[i];
+
+            frame.putInt(topology.getX(index) + topology.getY(index) * width);
+            frame.put(minefield.getVisibleTile(index));
+        }
+
+        publish(frame);
+    }
+
+    /**
+     * Writes the frame header (the length is calculated from the buffer's capacity)
+     */
+    private static void putHeader(ByteBuffer frame, byte type, int sequence, GameState state)
+    {
+        frame.putInt(frame.capacity() - 4);
+        frame.put(type);
+        frame.putInt(sequence);
+        frame.put((byte) state.ordinal());
+    }
+
+    /**
+     * Passes a finished frame to the network thread
+     */
+    private void publish(ByteBuffer frame)
+    {
+        if (closed)
+            return;
+
+        frame.flip();
+        published.add(frame.asReadOnlyBuffer());
+        selector.wakeup();
+    }
+
+    /**
+     * Disconnects all spectators and stops the server
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+            return;
+
+        closed = true;
+        selector.wakeup();
+
+        boolean interrupted = false;
+
+        while (true)
+        {
+            try
+            {
+                networkThread.join();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Main method of the network thread
+     */
+    private void runNetwork()
+    {
+        try
+        {
+            while (!closed)
+            {
+                selector.select();
+
+                // Send new frames first so new spectators do not get them twice
+                sendPublishedFrames();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable())
+                        accept();
+                    else
+                        handleSpectator((Spectator) key.attachment(), key);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Spectator server stopped: " + e);
+        }
+        finally
+        {
+            for (Spectator spectator : new ArrayList<Spectator>(spectators))
+                disconnect(spectator);
+
+            try
+            {
+                serverChannel.close();
+                selector.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Accepts a new spectator
+     */
+    private void accept() throws IOException
+    {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        Spectator spectator = new Spectator(channel);
+        spectator.key = channel.register(selector, SelectionKey.OP_READ, spectator);
+        spectators.add(spectator);
+
+        flush(spectator);
+    }
+
+    /**
+     * Handles a spectator which can be read from or written to
+     */
+    private void handleSpectator(Spectator spectator, SelectionKey key)
+    {
+        if (key.isReadable())
+        {
+            // Spectators should not send anything, so just look for the end of the stream
+            try
+            {
+                spectator.readBuffer.clear();
+                if (spectator.channel.read(spectator.readBuffer) < 0)
+                {
+                    disconnect(spectator);
+                    return;
+                }
+            }
+            catch (IOException e)
+            {
+                disconnect(spectator);
+                return;
+            }
+        }
+
+        if (key.isValid() && key.isWritable())
+            flush(spectator);
+    }
+
+    /**
+     * Updates the mirror using all the newly published frames and queues them for every spectator
+     */
+    private void sendPublishedFrames()
+    {
+        ByteBuffer frame;
+
+        while ((frame = published.poll()) != null)
+        {
+            updateMirror(frame);
+
+            boolean keyframe = frame.get(4) == FRAME_KEYFRAME;
+
+            for (int i = spectators.size() - 1; i >= 0; i--)
+            {
+                Spectator spectator = spectators.get(i);
+
+                // Spectators waiting for a keyframe can use this one if it is a keyframe
+                if (spectator.needsKeyframe)
+                {
+                    if (!keyframe)
+                        continue;
+
+                    spectator.needsKeyframe = false;
+                }
+
+                queue(spectator, frame.duplicate());
+                flush(spectator);
+            }
+        }
+    }
+
+    /**
+     * Applies a frame to the mirror
+     */
+    private void updateMirror(ByteBuffer frame)
+    {
+        mirrorSequence = frame.getInt(5);
+        mirrorState = frame.get(9);
+        cachedKeyframe = null;
+
+        if (frame.get(4) == FRAME_KEYFRAME)
+        {
+            mirrorWidth = frame.getInt(HEADER_SIZE);
+            mirrorHeight = frame.getInt(HEADER_SIZE + 4);
+            mirror = new byte[mirrorWidth * mirrorHeight];
+
+            ByteBuffer tiles = frame.duplicate();
+            tiles.position(HEADER_SIZE + 8);
+            tiles.get(mirror);
+        }
+        else if (mirror != null)
+        {
+            int count = frame.getInt(HEADER_SIZE);
+            int pos = HEADER_SIZE + 4;
+
+            for (int i = 0; i < count; i++, pos += CHANGE_SIZE)
+                mirror[frame.getInt(pos)] = frame.get(pos + 4);
+        }
+    }
+
+    /**
+     * Gets a keyframe containing the current state of the mirror
+     *
+     * The keyframe is only built once per published frame however many spectators need it.
+     */
+    private ByteBuffer getKeyframe()
+    {
+        if (cachedKeyframe == null)
+        {
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 8 + mirror.length);
+
+            frame.putInt(frame.capacity() - 4);
+            frame.put(FRAME_KEYFRAME);
+            frame.putInt(mirrorSequence);
+            frame.put(mirrorState);
+            frame.putInt(mirrorWidth);
+            frame.putInt(mirrorHeight);
+            frame.put(mirror);
+            frame.flip();
+
+            cachedKeyframe = frame.asReadOnlyBuffer();
+        }
+
+        return cachedKeyframe.duplicate();
+    }
+
+    /**
+     * Queues a frame for a spectator, dropping its queue if it is too far behind
+     */
+    private void queue(Spectator spectator, ByteBuffer frame)
+    {
+        if (spectator.queuedBytes + frame.remaining() > maxQueued)
+        {
+            // Drop everything except a partly sent frame (which must be finished)
+            ByteBuffer head = spectator.queue.peek();
+            spectator.queue.clear();
+            spectator.queuedBytes = 0;
+
+            if (head != null && head.position() > 0)
+            {
+                spectator.queue.add(head);
+                spectator.queuedBytes = head.remaining();
+            }
+
+            spectator.needsKeyframe = true;
+            return;
+        }
+
+        spectator.queue.add(frame);
+        spectator.queuedBytes += frame.remaining();
+    }
+
+    /**
+     * Writes as much queued data as possible to a spectator
+     */
+    private void flush(Spectator spectator)
+    {
+        try
+        {
+            while (true)
+            {
+                ByteBuffer head = spectator.queue.peek();
+
+                if (head == null)
+                {
+                    // Once caught up, send a keyframe to spectators which have missed frames
+                    if (!spectator.needsKeyframe || mirror == null)
+                        break;
+
+                    head = getKeyframe();
+                    spectator.needsKeyframe = false;
+                    spectator.queue.add(head);
+                    spectator.queuedBytes = head.remaining();
+                }
+
+                spectator.queuedBytes -= spectator.channel.write(head);
+
+                if (head.hasRemaining())
+                    break;
+
+                spectator.queue.poll();
+            }
+        }
+        catch (IOException e)
+        {
+            disconnect(spectator);
+            return;
+        }
+
+        int ops = SelectionKey.OP_READ;
+        if (!spectator.queue.isEmpty())
+            ops |= SelectionKey.OP_WRITE;
+
+        spectator.key.interestOps(ops);
+    }
+
+    /**
+     * Closes a spectator's connection
+     */
+    private void disconnect(Spectator spectator)
+    {
+        spectators.remove(spectator);
+        spectator.key.cancel();
+
+        try
+        {
+            spectator.channel.close();
+        }
+        catch (IOException e)
+        {
+            // Ignore
+        }
+    }
+
+    /**
+     * A connected spectator
+     */
+    private static final class Spectator
+    {
+        public final SocketChannel channel;
+        public SelectionKey key;
+
+        /** Frames waiting to be sent (the first may be partly sent) */
+        public final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+        public long queuedBytes;
+
+        /** True if the spectator must be sent a keyframe before any more deltas */
+        public boolean needsKeyframe = true;
+
+        /** Buffer used to discard anything the spectator sends */
+        public final ByteBuffer readBuffer = ByteBuffer.allocate(256);
+
+        public Spectator(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * A bot which plays minesweeper (used by {@link Tournament})
+ */
+public interface Strategy
+{
+    /**
+     * Chooses the next move to make
+     *
+     * The board is a read only snapshot. Strategies must only use its visible state (for
+     * example {@link Minefield#getVisibleTile(int)} and the neighbour counts), not the values
+     * of covered tiles. A strategy may be asked for moves on several boards at once from
+     * different threads, so it must be thread safe.
+     *
+     * @param board the board to move on
+     * @return the move encoded as op * tileCount + tile, where op is a Minefield.MOVE_ constant
+     */
+    public int chooseMove(Minefield board);
+}
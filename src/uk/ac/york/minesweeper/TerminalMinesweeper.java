@@ -0,0 +1,628 @@
+package uk.ac.york.minesweeper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Plays minesweeper in an ANSI terminal (for example over SSH) without using Swing
+ *
+ * Tiles are drawn using the same characters as {@link Minefield#toString()} with colours added.
+ * The board is drawn once and after that only the tiles changed by each move are redrawn, so
+ * each move only writes a few bytes however large the board is. Boards larger than the
+ * terminal are shown in a viewport which follows the cursor and can be scrolled.
+ *
+ * <pre>
+ *  arrows / hjkl   move the cursor
+ *  HJKL            scroll the viewport
+ *  space / enter   uncover
+ *  c               chord
+ *  f               cycle flag / question mark
+ *  n               new game
+ *  q               quit
+ * </pre>
+ */
+public final class TerminalMinesweeper
+{
+    /** The escape character */
+    private static final char ESC = '\033';
+
+    /** Colours used for each tile character (ANSI SGR parameters) */
+    private static final String COLOUR_COVERED = "37";
+    private static final String COLOUR_FLAG = "1;31";
+    private static final String COLOUR_QUESTION = "1;37";
+    private static final String COLOUR_MINE = "1;37;41";
+    private static final String COLOUR_EMPTY = "0";
+
+    /** The colours of the numbers (0 is unused) */
+    private static final String[] COLOUR_NUMBERS = new String[]
+    {
+        null,           // 0 = Unused
+        "1;34",         // 1 = Blue
+        "32",           // 2 = Green
+        "1;31",         // 3 = Red
+        "34",           // 4 = Dark Blue
+        "31",           // 5 = Maroon
+        "36",           // 6 = Turquoise
+        "1;30",         // 7 = Black
+        "37",           // 8 = Grey
+    };
+
+    /** Time to wait for the rest of an escape sequence before treating ESC as a key press */
+    private static final int ESCAPE_WAIT_MS = 50;
+
+    /** Charset of the terminal (all output is ASCII) */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // Terminal
+    private final InputStream in;
+    private final OutputStream out;
+    private final StringBuilder frame = new StringBuilder();
+    private int screenRows;
+    private int screenCols;
+
+    // Game
+    private final int width;
+    private final int height;
+    private final int mines;
+    private Minefield minefield;
+
+    // Cursor position on the layout grid
+    private int cursorX;
+    private int cursorY;
+
+    // Top left of the viewport on the layout grid and its size
+    private int viewX;
+    private int viewY;
+    private int viewWidth;
+    private int viewHeight;
+
+    // Colour last written (so it is only changed when needed)
+    private String currentColour;
+
+    // Number of bytes written by the last update
+    private int lastFrameBytes;
+
+    /**
+     * Creates a terminal game
+     *
+     * @param in terminal input (should be in raw mode)
+     * @param out terminal output
+     * @param rows height of the terminal
+     * @param cols width of the terminal
+     * @param width width of the minefield
+     * @param height height of the minefield
+     * @param mines number of mines
+     */
+    public TerminalMinesweeper(InputStream in, OutputStream out, int rows, int cols,
+                               int width, int height, int mines)
+    {
+        this.in = in;
+        this.out = out;
+        this.screenRows = rows;
+        this.screenCols = cols;
+        this.width = width;
+        this.height = height;
+        this.mines = mines;
+
+        newGame();
+    }
+
+    /**
+     * Starts a new game and resets the viewport
+     */
+    private void newGame()
+    {
+        minefield = new Minefield(width, height, mines);
+        minefield.setTrackingChanges(true);
+
+        cursorX = 0;
+        cursorY = 0;
+        viewX = 0;
+        viewY = 0;
+
+        // Leave the bottom row for the status line
+        viewWidth = Math.min(width, screenCols);
+        viewHeight = Math.min(height, screenRows - 1);
+    }
+
+    /**
+     * Runs the game until the user quits
+     *
+     * @throws IOException if an error occurs reading or writing the terminal
+     */
+    public void run() throws IOException
+    {
+        // Switch to the alternate screen and draw everything
+        frame.append(ESC).append("[?1049h");
+        drawAll();
+        flushFrame();
+
+        try
+        {
+            while (true)
+            {
+                int c = in.read();
+                if (c < 0 || c == 'q' || c == 3)
+                    break;
+
+                if (!handleKey(c))
+                    continue;
+
+                flushFrame();
+            }
+        }
+        finally
+        {
+            // Restore the normal screen
+            frame.setLength(0);
+            frame.append(ESC).append("[0m").append(ESC).append("[?1049l");
+            flushFrame();
+        }
+    }
+
+    /**
+     * Handles a key press and queues the output needed to update the screen
+     *
+     * @param c the key read
+     * @return true if anything needs to be written
+     */
+    private boolean handleKey(int c) throws IOException
+    {
+        // Arrow keys are sent as ESC [ A-D
+        if (c == ESC)
+        {
+            // A lone escape key press is ignored instead of waiting for the next key
+            if (!waitForInput() || in.read() != '[')
+                return false;
+
+            switch (in.read())
+            {
+                case 'A':   c = 'k'; break;
+                case 'B':   c = 'j'; break;
+                case 'C':   c = 'l'; break;
+                case 'D':   c = 'h'; break;
+                default:    return false;
+            }
+        }
+
+        GameState oldState = minefield.getGameState();
+        Topology topology = minefield.getTopology();
+        int tile = topology.getIndex(cursorX, cursorY);
+
+        switch (c)
+        {
+            case 'h':   return moveCursor(-1, 0);
+            case 'j':   return moveCursor(0, 1);
+            case 'k':   return moveCursor(0, -1);
+            case 'l':   return moveCursor(1, 0);
+
+            case 'H':   return scroll(-Math.max(1, viewWidth / 2), 0);
+            case 'J':   return scroll(0, Math.max(1, viewHeight / 2));
+            case 'K':   return scroll(0, -Math.max(1, viewHeight / 2));
+            case 'L':   return scroll(Math.max(1, viewWidth / 2), 0);
+
+            case 'n':
+                newGame();
+                drawAll();
+                return true;
+
+            case ' ':
+            case '\r':
+            case '\n':
+                if (tile >= 0 && !minefield.isFinished())
+                    minefield.uncover(tile);
+                break;
+
+            case 'c':
+                if (tile >= 0 && !minefield.isFinished())
+                    minefield.chord(tile);
+                break;
+
+            case 'f':
+                if (tile >= 0 && !minefield.isFinished())
+                {
+                    switch (minefield.getTileState(tile))
+                    {
+                        case COVERED:   minefield.setTileState(tile, TileState.FLAGGED);   break;
+                        case FLAGGED:   minefield.setTileState(tile, TileState.QUESTION);  break;
+                        case QUESTION:  minefield.setTileState(tile, TileState.COVERED);   break;
+                        default:        break;
+                    }
+                }
+                break;
+
+            default:
+                return false;
+        }
+
+        // Revealing the mines records a change for each tile, but flags on mines are only
+        //  shown differently once the game is lost
+        if (minefield.getGameState() == GameState.LOST && oldState != GameState.LOST)
+            drawFlags();
+
+        drawChanges();
+        return true;
+    }
+
+    /**
+     * Waits a short time for more input to arrive
+     *
+     * @return true if there is input which can be read without blocking
+     */
+    private boolean waitForInput() throws IOException
+    {
+        try
+        {
+            for (int i = 0; i < ESCAPE_WAIT_MS && in.available() == 0; i++)
+                Thread.sleep(1);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return in.available() > 0;
+    }
+
+    /**
+     * Moves the cursor, scrolling the viewport if it goes off screen
+     */
+    private boolean moveCursor(int dx, int dy)
+    {
+        int newX = Math.max(0, Math.min(width - 1, cursorX + dx));
+        int newY = Math.max(0, Math.min(height - 1, cursorY + dy));
+
+        if (newX == cursorX && newY == cursorY)
+            return false;
+
+        cursorX = newX;
+        cursorY = newY;
+
+        // Scroll so the cursor stays visible
+        int scrollX = 0;
+        int scrollY = 0;
+
+        if (cursorX < viewX)
+            scrollX = cursorX - viewX;
+        else if (cursorX >= viewX + viewWidth)
+            scrollX = cursorX - (viewX + viewWidth - 1);
+
+        if (cursorY < viewY)
+            scrollY = cursorY - viewY;
+        else if (cursorY >= viewY + viewHeight)
+            scrollY = cursorY - (viewY + viewHeight - 1);
+
+        if (!scroll(scrollX, scrollY))
+            drawStatus();
+
+        return true;
+    }
+
+    /**
+     * Scrolls the viewport
+     *
+     * Vertical scrolling uses the terminal's scroll region so only the new rows are drawn.
+     */
+    private boolean scroll(int dx, int dy)
+    {
+        int newX = Math.max(0, Math.min(width - viewWidth, viewX + dx));
+        int newY = Math.max(0, Math.min(height - viewHeight, viewY + dy));
+
+        dx = newX - viewX;
+        dy = newY - viewY;
+
+        if (dx == 0 && dy == 0)
+            return false;
+
+        viewX = newX;
+        viewY = newY;
+
+        // Keep the cursor inside the viewport
+        cursorX = Math.max(viewX, Math.min(viewX + viewWidth - 1, cursorX));
+        cursorY = Math.max(viewY, Math.min(viewY + viewHeight - 1, cursorY));
+
+        if (dx != 0 || Math.abs(dy) >= viewHeight)
+        {
+            drawAll();
+            return true;
+        }
+
+        // Scroll the board rows and draw the rows which have appeared
+        frame.append(ESC).append("[1;").append(viewHeight).append('r');
+
+        if (dy > 0)
+        {
+            frame.append(ESC).append('[').append(dy).append('S');
+            drawRows(viewY + viewHeight - dy, viewY + viewHeight);
+        }
+        else
+        {
+            frame.append(ESC).append('[').append(-dy).append('T');
+            drawRows(viewY, viewY - dy);
+        }
+
+        frame.append(ESC).append("[r");
+        drawStatus();
+        return true;
+    }
+
+    /**
+     * Queues a redraw of the whole screen
+     */
+    private void drawAll()
+    {
+        frame.append(ESC).append("[0m").append(ESC).append("[2J");
+        currentColour = COLOUR_EMPTY;
+
+        minefield.clearChanges();
+        drawRows(viewY, viewY + viewHeight);
+        drawStatus();
+    }
+
+    /**
+     * Queues a redraw of some rows of the viewport
+     */
+    private void drawRows(int firstRow, int endRow)
+    {
+        for (int y = firstRow; y < endRow; y++)
+        {
+            moveTo(y - viewY, 0);
+
+            for (int x = viewX; x < viewX + viewWidth; x++)
+                drawTile(minefield.getTopology().getIndex(x, y));
+
+            frame.append(ESC).append("[K");
+        }
+    }
+
+    /**
+     * Queues a redraw of the flagged tiles in the viewport
+     */
+    private void drawFlags()
+    {
+        Topology topology = minefield.getTopology();
+
+        for (int y = viewY; y < viewY + viewHeight; y++)
+        {
+            for (int x = viewX; x < viewX + viewWidth; x++)
+            {
+                int index = topology.getIndex(x, y);
+
+                if (index >= 0 && minefield.getTileState(index) == TileState.FLAGGED)
+                {
+                    moveTo(y - viewY, x - viewX);
+                    drawTile(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a redraw of the tiles changed since the last update
+     */
+    private void drawChanges()
+    {
+        Topology topology = minefield.getTopology();
+        int[] changed = minefield.getChangedTiles();
+        int count = minefield.getChangeCount();
+
+        // Position of the terminal cursor after the last tile drawn
+        int nextRow = -1;
+        int nextCol = -1;
+
+        for (int i = 0; i < count; i++)
+        {
+            int index = changed[i];
+            int row = topology.getY(index) - viewY;
+            int col = topology.getX(index) - viewX;
+
+            if (row < 0 || row >= viewHeight || col < 0 || col >= viewWidth)
+                continue;
+
+            // Tiles next to each other (common in flood fills) need no cursor movement
+            if (row != nextRow || col != nextCol)
+                moveTo(row, col);
+
+            drawTile(index);
+            nextRow = row;
+            nextCol = col + 1;
+        }
+
+        minefield.clearChanges();
+        drawStatus();
+    }
+
+    /**
+     * Queues the status line and moves the terminal cursor to the selected tile
+     */
+    private void drawStatus()
+    {
+        moveTo(viewHeight, 0);
+        setColour(COLOUR_EMPTY);
+
+        String state;
+        switch (minefield.getGameState())
+        {
+            case WON:   state = "You won! (n = new game, q = quit)";  break;
+            case LOST:  state = "You lost! (n = new game, q = quit)"; break;
+            default:    state = mines + " mines"; break;
+        }
+
+        String status = state + "  (" + cursorX + ", " + cursorY + ")  last update " + lastFrameBytes + " bytes";
+        frame.append(status, 0, Math.min(status.length(), screenCols - 1));
+        frame.append(ESC).append("[K");
+
+        moveTo(cursorY - viewY, cursorX - viewX);
+    }
+
+    /**
+     * Queues the character for a tile (or a space for a gap in the layout)
+     */
+    private void drawTile(int index)
+    {
+        if (index < 0)
+        {
+            setColour(COLOUR_EMPTY);
+            frame.append(' ');
+            return;
+        }
+
+        char c = MinefieldTextFormat.getTileChar(minefield, index, minefield.getGameState() == GameState.LOST);
+        String colour;
+
+        switch (c)
+        {
+            case '#':   colour = COLOUR_COVERED; break;
+            case 'f':
+            case 'F':   colour = COLOUR_FLAG; break;
+            case '?':
+            case 'Q':   colour = COLOUR_QUESTION; break;
+            case '!':
+            case '*':   colour = COLOUR_MINE; break;
+            case ' ':   colour = COLOUR_EMPTY; break;
+
+            default:
+                int value = Character.digit(c, 36);
+                colour = COLOUR_NUMBERS[Math.min(value, COLOUR_NUMBERS.length - 1)];
+                break;
+        }
+
+        setColour(colour);
+        frame.append(c);
+    }
+
+    /**
+     * Queues a colour change if the colour is different to the current one
+     */
+    private void setColour(String colour)
+    {
+        if (!colour.equals(currentColour))
+        {
+            frame.append(ESC).append("[0;").append(colour).append('m');
+            currentColour = colour;
+        }
+    }
+
+    /**
+     * Queues a cursor movement (row and col start from 0)
+     */
+    private void moveTo(int row, int col)
+    {
+        frame.append(ESC).append('[').append(row + 1).append(';').append(col + 1).append('H');
+    }
+
+    /**
+     * Writes the queued output to the terminal
+     */
+    private void flushFrame() throws IOException
+    {
+        lastFrameBytes = frame.length();
+        out.write(frame.toString().getBytes(ASCII));
+        out.flush();
+        frame.setLength(0);
+    }
+
+    /**
+     * Runs an stty command on the controlling terminal
+     *
+     * @return the output of the command, or null if it failed
+     */
+    private static String stty(String... args)
+    {
+        String[] command = new String[args.length + 1];
+        command[0] = "stty";
+        System.arraycopy(args, 0, command, 1, args.length);
+
+        try
+        {
+            Process process = new ProcessBuilder(command)
+                    .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/tty")))
+                    .start();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream processOut = process.getInputStream();
+            byte[] buffer = new byte[256];
+            int read;
+
+            while ((read = processOut.read(buffer)) >= 0)
+                output.write(buffer, 0, read);
+
+            if (process.waitFor() != 0)
+                return null;
+
+            return new String(output.toByteArray(), ASCII).trim();
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Starts a terminal game
+     *
+     * @param args optional width, height and number of mines
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int width = 30;
+        int height = 16;
+        int mines = 99;
+
+        if (args.length == 3)
+        {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+            mines = Integer.parseInt(args[2]);
+        }
+        else if (args.length != 0)
+        {
+            System.err.println("usage: TerminalMinesweeper [width height mines]");
+            System.exit(1);
+        }
+
+        // Get the terminal size (falling back to the traditional size)
+        int rows = 24;
+        int cols = 80;
+        String size = stty("size");
+
+        if (size != null)
+        {
+            String[] parts = size.split("\\s+");
+            if (parts.length == 2)
+            {
+                rows = Integer.parseInt(parts[0]);
+                cols = Integer.parseInt(parts[1]);
+            }
+        }
+
+        // Put the terminal into raw mode, restoring it when we exit
+        final String savedMode = stty("-g");
+        stty("raw", "-echo");
+
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            @Override
+            public void run()
+            {
+                if (savedMode != null)
+                    stty(savedMode);
+            }
+        });
+
+        new TerminalMinesweeper(System.in, new BufferedOutputStream(System.out),
+                rows, cols, width, height, mines).run();
+
+        System.exit(0);
+    }
+}
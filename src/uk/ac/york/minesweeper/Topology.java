@@ -0,0 +1,313 @@
+package uk.ac.york.minesweeper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes the shape of a minefield: how many tiles there are, which tiles neighbour each other
+ * and where each tile is displayed
+ *
+ * Tiles are identified by an index between 0 and {@link #getTileCount()} - 1. Each tile is also
+ * given a position on a 2D layout grid (used for displaying the minefield) which may contain gaps.
+ *
+ * Neighbours are precomputed when the topology is created. Tiles whose neighbours are at the same
+ * relative index offsets share a "neighbour class", so the table is one class number per tile plus
+ * a small offset array per class. Irregular tiles simply get a class (index array) of their own.
+ *
+ * Topologies are immutable and may be shared between minefields.
+ */
+public abstract class Topology
+{
+    /** Largest number of neighbour classes a topology can have */
+    private static final int MAX_CLASSES = 65536;
+
+    /** Number of tiles */
+    private final int tileCount;
+
+    /** Width of the layout grid */
+    private final int width;
+
+    /** Height of the layout grid */
+    private final int height;
+
+    /** The neighbour class of each tile */
+    private char[] tileClasses;
+
+    /** Neighbour index offsets for each class */
+    private int[][] classOffsets;
+
+    /**
+     * Initializes the topology's dimensions
+     *
+     * Subclasses must call {@link #buildNeighbourTable()} at the end of their constructor.
+     *
+     * @param tileCount number of tiles
+     * @param width width of the layout grid in tiles
+     * @param height height of the layout grid in tiles
+     */
+    protected Topology(int tileCount, int width, int height)
+    {
+        if (tileCount < 1 || width < 1 || height < 1)
+            throw new IllegalArgumentException("invalid minefield dimensions");
+
+        this.tileCount = tileCount;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Gets the number of tiles
+     *
+     * @return number of tiles
+     */
+    public int getTileCount()
+    {
+        return tileCount;
+    }
+
+    /**
+     * Gets the width of the layout grid
+     *
+     * @return width in tiles
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Gets the height of the layout grid
+     *
+     * @return height in tiles
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns true if tiles are numbered row by row across the whole layout grid (index = x + y * width)
+     *
+     * @return true if the topology is row major
+     */
+    public boolean isRowMajor()
+    {
+        return false;
+    }
+
+    /**
+     * Returns true if the tiles on the given row of the layout are displayed half a tile to the right
+     *
+     * @param y row of layout grid
+     * @return true if the row is shifted
+     */
+    public boolean isRowShifted(int y)
+    {
+        return false;
+    }
+
+    /**
+     * Returns true if any rows are displayed half a tile to the right
+     *
+     * @return true if some rows are shifted
+     */
+    public boolean hasShiftedRows()
+    {
+        return false;
+    }
+
+    /**
+     * Gets the index of the tile at the given layout position
+     *
+     * @param x x position on layout grid
+     * @param y y position on layout grid
+     * @return index of the tile, or -1 if there is no tile there
+     */
+    public abstract int getIndex(int x, int y);
+
+    /**
+     * Gets the x position of a tile on the layout grid
+     *
+     * @param index index of tile
+     * @return x position
+     */
+    public abstract int getX(int index);
+
+    /**
+     * Gets the y position of a tile on the layout grid
+     *
+     * @param index index of tile
+     * @return y position
+     */
+    public abstract int getY(int index);
+
+    /**
+     * Gets the number of symmetries of the topology
+     *
+     * A symmetry is a rotation or reflection which maps tiles onto tiles so that neighbours
+     * stay neighbours. Symmetry 0 is always the identity and the symmetries form a group (so
+     * applying two of them gives another).
+     *
+     * @return number of symmetries (at least 1)
+     */
+    public int getSymmetryCount()
+    {
+        return 1;
+    }
+
+    /**
+     * Gets the tile a tile is moved to by one of the topology's symmetries
+     *
+     * @param symmetry symmetry number (between 0 and getSymmetryCount() - 1)
+     * @param index index of tile
+     * @return index of the tile it is mapped to
+     */
+    public int mapSymmetry(int symmetry, int index)
+    {
+        return index;
+    }
+
+    /**
+     * Gets the number of neighbours a tile has
+     *
+     * @param index index of tile
+     * @return number of neighbours
+     */
+    public int getNeighbourCount(int index)
+    {
+        return classOffsets[tileClasses[index]].length;
+    }
+
+    /**
+     * Gets the neighbour class table (one entry per tile)
+     *
+     * @return array of tile classes (must not be modified)
+     */
+    char[] getTileClasses()
+    {
+        return tileClasses;
+    }
+
+    /**
+     * Gets the neighbour offsets for each tile class
+     *
+     * The neighbours of tile i are i + getClassOffsets()[getTileClasses()[i]][k] for each k.
+     *
+     * @return array of offsets for each class (must not be modified)
+     */
+    int[][] getClassOffsets()
+    {
+        return classOffsets;
+    }
+
+    /**
+     * Writes the indexes of all the neighbours of a tile into the given array
+     *
+     * The array is guaranteed to have space for 32 neighbours. Duplicates and the tile
+     * itself are removed afterwards so subclasses do not need to check for them.
+     *
+     * @param index index of tile
+     * @param neighbours array to write neighbours into
+     * @return number of neighbours written
+     */
+    protected abstract int findNeighbours(int index, int[] neighbours);
+
+    /**
+     * Precomputes the neighbour table using {@link #findNeighbours(int, int[])}
+     */
+    protected final void buildNeighbourTable()
+    {
+        Map<OffsetKey, Integer> classIds = new HashMap<OffsetKey, Integer>();
+        char[] tileClasses = new char[tileCount];
+        int[][] classOffsets = new int[16][];
+        int classCount = 0;
+
+        int[] neighbours = new int[32];
+        int[] lastOffsets = null;
+        int lastClass = -1;
+
+        for (int i = 0; i < tileCount; i++)
+        {
+            int count = findNeighbours(i, neighbours);
+            int[] offsets = toOffsets(i, neighbours, count);
+
+            // Most tiles have the same class as the previous one, so avoid the map lookup
+            if (!Arrays.equals(offsets, lastOffsets))
+            {
+                OffsetKey key = new OffsetKey(offsets);
+                Integer id = classIds.get(key);
+
+                if (id == null)
+                {
+                    if (classCount >= MAX_CLASSES)
+                        throw new IllegalStateException("topology has too many neighbour classes");
+
+                    if (classCount == classOffsets.length)
+                        classOffsets = Arrays.copyOf(classOffsets, classCount * 2);
+
+                    id = classCount;
+                    classOffsets[classCount++] = offsets;
+                    classIds.put(key, id);
+                }
+
+                lastOffsets = offsets;
+                lastClass = id;
+            }
+
+            tileClasses[i] = (char) lastClass;
+        }
+
+        this.tileClasses = tileClasses;
+        this.classOffsets = Arrays.copyOf(classOffsets, classCount);
+    }
+
+    /**
+     * Converts a list of neighbours into a sorted list of unique offsets
+     */
+    private static int[] toOffsets(int index, int[] neighbours, int count)
+    {
+        int[] offsets = new int[count];
+        int unique = 0;
+
+        for (int k = 0; k < count; k++)
+            offsets[k] = neighbours[k] - index;
+
+        Arrays.sort(offsets);
+
+        for (int k = 0; k < count; k++)
+        {
+            if (offsets[k] != 0 && (unique == 0 || offsets[unique - 1] != offsets[k]))
+                offsets[unique++] = offsets[k];
+        }
+
+        return unique == count ? offsets : Arrays.copyOf(offsets, unique);
+    }
+
+    /**
+     * Wrapper around an offset array used as a map key
+     */
+    private static final class OffsetKey
+    {
+        private final int[] offsets;
+        private final int hash;
+
+        public OffsetKey(int[] offsets)
+        {
+            this.offsets = offsets;
+            this.hash = Arrays.hashCode(offsets);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof OffsetKey && Arrays.equals(offsets, ((OffsetKey) obj).offsets);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * A rectangular minefield whose edges wrap around (so every tile has 8 neighbours)
+ *
+ * Tiles are numbered row by row (index = x + y * width).
+ */
+public final class TorusTopology extends Topology
+{
+    /**
+     * Initializes a new toroidal topology
+     *
+     * @param width width of the minefield in tiles
+     * @param height height of the minefield in tiles
+     */
+    public TorusTopology(int width, int height)
+    {
+        super(GridTopology.checkedArea(width, height), width, height);
+        buildNeighbourTable();
+    }
+
+    @Override
+    public boolean isRowMajor()
+    {
+        return true;
+    }
+
+    @Override
+    public int getSymmetryCount()
+    {
+        // Translations are also symmetries of a torus, but would need width * height hashes
+        return GridTopology.rectangleSymmetries(getWidth(), getHeight());
+    }
+
+    @Override
+    public int mapSymmetry(int symmetry, int index)
+    {
+        return GridTopology.mapRectangle(symmetry, index, getWidth(), getHeight());
+    }
+
+    @Override
+    public int getIndex(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+            return -1;
+
+        return x + y * getWidth();
+    }
+
+    @Override
+    public int getX(int index)
+    {
+        return index % getWidth();
+    }
+
+    @Override
+    public int getY(int index)
+    {
+        return index / getWidth();
+    }
+
+    @Override
+    protected int findNeighbours(int index, int[] neighbours)
+    {
+        int width = getWidth();
+        int height = getHeight();
+        int x = index % width;
+        int y = index / width;
+        int count = 0;
+
+        for (int dy = -1; dy <= 1; dy++)
+        {
+            for (int dx = -1; dx <= 1; dx++)
+            {
+                int nx = (x + dx + width) % width;
+                int ny = (y + dy + height) % height;
+
+                neighbours[count++] = nx + ny * width;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,415 @@
+package uk.ac.york.minesweeper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranks strategies by playing them on the same set of boards
+ *
+ * Every strategy plays every board. The boards are generated from the tournament's seed and
+ * are started by uncovering the same tile, so all the strategies face exactly the same games.
+ * Each match (one strategy on one board) is a task run by a fixed pool of threads, so many
+ * thousands of matches can be queued at once.
+ *
+ * The time a strategy takes to choose a move is measured as the CPU time of the thread
+ * running it (from {@link ThreadMXBean}), so it is not affected by the other matches running
+ * at the same time. Only the strategy's own code is measured, not the tournament's work of
+ * applying the move. Moves which take more than the move budget are forfeited (the move is
+ * not made, although the strategy cannot be stopped while it is choosing).
+ */
+public class Tournament
+{
+    /** Default number of boards */
+    public static final int DEFAULT_GAMES = 1000;
+
+    /** Default CPU time allowed for each move in nanoseconds */
+    public static final long DEFAULT_MOVE_BUDGET = 10000000L;
+
+    /** Bean used to measure CPU time (null if the JVM cannot measure it) */
+    private static final ThreadMXBean THREAD_BEAN = getThreadBean();
+
+    /** Shape of the boards */
+    private final Topology topology;
+
+    /** Number of mines on each board */
+    private final int mines;
+
+    /** The strategies and their names */
+    private final List<String> names = new ArrayList<String>();
+    private final List<Strategy> strategies = new ArrayList<Strategy>();
+
+    /** Settings */
+    private int games = DEFAULT_GAMES;
+    private long seed = 0;
+    private long moveBudget = DEFAULT_MOVE_BUDGET;
+    private int maxMoves;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates a tournament
+     *
+     * @param topology shape of the boards
+     * @param mines number of mines on each board
+     */
+    public Tournament(Topology topology, int mines)
+    {
+        if (mines < 0 || mines >= topology.getTileCount())
+            throw new IllegalArgumentException("invalid number of mines");
+
+        this.topology = topology;
+        this.mines = mines;
+        this.maxMoves = topology.getTileCount() * 4;
+    }
+
+    /**
+     * Adds a strategy to the tournament
+     *
+     * @param name name of the strategy
+     * @param strategy the strategy (used by several threads at once)
+     */
+    public void addStrategy(String name, Strategy strategy)
+    {
+        names.add(name);
+        strategies.add(strategy);
+    }
+
+    /**
+     * Sets the number of boards each strategy plays
+     *
+     * @param games number of boards
+     */
+    public void setGames(int games)
+    {
+        if (games < 1)
+            throw new IllegalArgumentException("games must be positive");
+
+        this.games = games;
+    }
+
+    /**
+     * Sets the seed used to generate the boards
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the CPU time allowed for each move
+     *
+     * @param nanos budget in nanoseconds
+     */
+    public void setMoveBudget(long nanos)
+    {
+        if (nanos <= 0)
+            throw new IllegalArgumentException("move budget must be positive");
+
+        this.moveBudget = nanos;
+    }
+
+    /**
+     * Sets the number of moves (including forfeited and invalid moves) after which a game
+     * is abandoned and counted as lost
+     *
+     * @param maxMoves maximum number of moves (default 4 per tile)
+     */
+    public void setMaxMoves(int maxMoves)
+    {
+        if (maxMoves < 1)
+            throw new IllegalArgumentException("maxMoves must be positive");
+
+        this.maxMoves = maxMoves;
+    }
+
+    /**
+     * Sets the number of threads used to run matches
+     *
+     * @param threads number of threads (default is the number of processors)
+     */
+    public void setThreads(int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.threads = threads;
+    }
+
+    /**
+     * Plays every strategy on every board
+     *
+     * @return the results of each strategy, best first (ordered by win rate then 3BV/s)
+     * @throws InterruptedException if interrupted while waiting for the matches
+     */
+    public List<TournamentResult> run() throws InterruptedException
+    {
+        final List<Standing> standings = new ArrayList<Standing>();
+
+        for (int s = 0; s < strategies.size(); s++)
+            standings.add(new Standing(names.get(s), strategies.get(s)));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private int count;
+
+            @Override
+            public Thread newThread(Runnable task)
+            {
+                Thread thread = new Thread(task, "Tournament " + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try
+        {
+            // Interleave the strategies so they all make progress together
+            for (int game = 0; game < games; game++)
+            {
+                for (final Standing standing : standings)
+                {
+                    final long gameSeed = gameSeed(game);
+
+                    pool.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            playMatch(standing, gameSeed);
+                        }
+                    });
+                }
+            }
+
+            pool.shutdown();
+
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+            {
+                // Keep waiting
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        List<TournamentResult> results = new ArrayList<TournamentResult>();
+
+        for (Standing standing : standings)
+            results.add(standing.toResult());
+
+        Collections.sort(results, new Comparator<TournamentResult>()
+        {
+            @Override
+            public int compare(TournamentResult a, TournamentResult b)
+            {
+                if (a.getWins() != b.getWins())
+                    return a.getWins() > b.getWins() ? -1 : 1;
+
+                return Double.compare(b.get3BVPerSecond(), a.get3BVPerSecond());
+            }
+        });
+
+        return results;
+    }
+
+    /**
+     * Plays one strategy on one board and adds the result to its standing
+     */
+    private void playMatch(Standing standing, long gameSeed)
+    {
+        Strategy strategy = standing.strategy;
+        int tileCount = topology.getTileCount();
+        Minefield board = new Minefield(topology, mines, gameSeed);
+
+        // Start every strategy from the same tile so they get the same mines
+        board.uncover((int) ((gameSeed >>> 1) % tileCount));
+
+        byte[] ops = new byte[1];
+        int[] tiles = new int[1];
+        byte[] results = new byte[1];
+        long[] histogram = new long[TournamentResult.BUCKETS];
+        long cpuTime = 0;
+        int moves = 0;
+        int forfeits = 0;
+        boolean crashed = false;
+
+        while (!board.isFinished() && moves < maxMoves)
+        {
+            Minefield view = board.snapshot();
+            int action;
+
+            long start = threadCpuTime();
+
+            try
+            {
+                action = strategy.chooseMove(view);
+            }
+            catch (RuntimeException e)
+            {
+                // Counted as a lost game rather than stopping the tournament
+                crashed = true;
+                break;
+            }
+
+            long elapsed = threadCpuTime() - start;
+
+            moves++;
+            cpuTime += elapsed;
+            histogram[TournamentResult.bucket(elapsed)]++;
+
+            if (elapsed > moveBudget)
+            {
+                forfeits++;
+                continue;
+            }
+
+            // Invalid actions are ignored (the move is wasted)
+            if (action < 0 || action / tileCount > Minefield.MOVE_QUESTION)
+                continue;
+
+            ops[0] = (byte) (action / tileCount);
+            tiles[0] = action % tileCount;
+            board.applyMoves(ops, tiles, null, 0, 1, results);
+        }
+
+        boolean won = board.getGameState() == GameState.WON;
+        int value3BV = won ? board.getBoardStatistics().get3BV() : 0;
+
+        standing.add(won, moves, forfeits, crashed, value3BV, won ? cpuTime : 0, histogram);
+    }
+
+    /**
+     * Gets the seed of a board
+     */
+    private long gameSeed(int game)
+    {
+        // SplitMix64 finalizer of the tournament seed and game number
+        long z = seed + (game + 1) * 0x9E3779B97F4A7C15L;
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Gets the CPU time used by the current thread (or the wall time if unavailable)
+     */
+    private static long threadCpuTime()
+    {
+        return THREAD_BEAN != null ? THREAD_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Gets the thread bean if it can measure the CPU time of the current thread
+     */
+    private static ThreadMXBean getThreadBean()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (!bean.isCurrentThreadCpuTimeSupported())
+        {
+            System.err.println("Thread CPU time is not supported, so move times include waiting");
+            return null;
+        }
+
+        bean.setThreadCpuTimeEnabled(true);
+        return bean;
+    }
+
+    /**
+     * The totals of one strategy (updated by the match threads)
+     */
+    private static final class Standing
+    {
+        private final String name;
+        private final Strategy strategy;
+
+        private int games;
+        private int wins;
+        private long moves;
+        private long forfeits;
+        private int crashes;
+        private long won3BV;
+        private long wonCpuTime;
+        private final long[] histogram = new long[TournamentResult.BUCKETS];
+
+        public Standing(String name, Strategy strategy)
+        {
+            this.name = name;
+            this.strategy = strategy;
+        }
+
+        /**
+         * Adds the result of a match
+         */
+        public synchronized void add(boolean won, int moves, int forfeits, boolean crashed,
+                                     int value3BV, long cpuTime, long[] histogram)
+        {
+            this.games++;
+            this.moves += moves;
+            this.forfeits += forfeits;
+            this.won3BV += value3BV;
+            this.wonCpuTime += cpuTime;
+
+            if (won)
+                this.wins++;
+
+            if (crashed)
+                this.crashes++;
+
+            for (int i = 0; i < histogram.length; i++)
+                this.histogram[i] += histogram[i];
+        }
+
+        /**
+         * Creates the final result
+         */
+        public synchronized TournamentResult toResult()
+        {
+            return new TournamentResult(name, games, wins, moves, forfeits, crashes,
+                                        won3BV, wonCpuTime, histogram.clone());
+        }
+    }
+
+    /**
+     * Runs a tournament between the sample strategies on expert boards and prints the results
+     *
+     * Arguments (all optional): number of games, number of threads, move budget in milliseconds
+     *
+     * @param args command line arguments
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        Tournament tournament = new Tournament(new GridTopology(30, 16), 99);
+
+        if (args.length > 0)
+            tournament.setGames(Integer.parseInt(args[0]));
+        if (args.length > 1)
+            tournament.setThreads(Integer.parseInt(args[1]));
+        if (args.length > 2)
+            tournament.setMoveBudget(Long.parseLong(args[2]) * 1000000L);
+
+        tournament.addStrategy("Simple", new SimpleStrategy(1));
+        tournament.addStrategy("Random", new RandomStrategy(1));
+
+        long start = System.nanoTime();
+        List<TournamentResult> results = tournament.run();
+        long duration = (System.nanoTime() - start) / 1000000;
+
+        for (TournamentResult result : results)
+            System.out.println(result);
+
+        System.out.println("Played " + tournament.games * results.size() + " matches in " + duration + " ms");
+    }
+}
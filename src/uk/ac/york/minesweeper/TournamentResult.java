@@ -0,0 +1,200 @@
+package uk.ac.york.minesweeper;
+
+/**
+ * Immutable results of one strategy in a {@link Tournament}
+ *
+ * Move times are the CPU time the strategy's thread spent choosing each move. They are kept
+ * in a histogram with 8 buckets per power of two, so percentiles are accurate to 12.5%.
+ */
+public final class TournamentResult
+{
+    /** Number of histogram buckets (enough for any positive long) */
+    static final int BUCKETS = 16 + 60 * 8;
+
+    private final String name;
+    private final int games;
+    private final int wins;
+    private final long moves;
+    private final long forfeits;
+    private final int crashes;
+    private final long won3BV;
+    private final long wonCpuTime;
+    private final long[] histogram;
+
+    TournamentResult(String name, int games, int wins, long moves, long forfeits, int crashes,
+                     long won3BV, long wonCpuTime, long[] histogram)
+    {
+        this.name = name;
+        this.games = games;
+        this.wins = wins;
+        this.moves = moves;
+        this.forfeits = forfeits;
+        this.crashes = crashes;
+        this.won3BV = won3BV;
+        this.wonCpuTime = wonCpuTime;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Gets the name of the strategy
+     *
+     * @return strategy name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Gets the number of games played
+     *
+     * @return number of games
+     */
+    public int getGames()
+    {
+        return games;
+    }
+
+    /**
+     * Gets the number of games won
+     *
+     * @return number of wins
+     */
+    public int getWins()
+    {
+        return wins;
+    }
+
+    /**
+     * Gets the fraction of games which were won
+     *
+     * @return win rate (between 0 and 1)
+     */
+    public double getWinRate()
+    {
+        return games == 0 ? 0 : (double) wins / games;
+    }
+
+    /**
+     * Gets the number of moves chosen (including forfeited moves)
+     *
+     * @return number of moves
+     */
+    public long getMoves()
+    {
+        return moves;
+    }
+
+    /**
+     * Gets the number of moves which were forfeited for going over the CPU budget
+     *
+     * @return number of forfeited moves
+     */
+    public long getForfeits()
+    {
+        return forfeits;
+    }
+
+    /**
+     * Gets the number of games lost because the strategy threw an exception
+     *
+     * @return number of crashes
+     */
+    public int getCrashes()
+    {
+        return crashes;
+    }
+
+    /**
+     * Gets the efficiency of the strategy's wins
+     *
+     * This is the total 3BV of the won boards divided by the CPU time spent choosing moves in
+     * those games, so it does not depend on how busy the machine was.
+     *
+     * @return 3BV per CPU second (0 if no games were won)
+     */
+    public double get3BVPerSecond()
+    {
+        return wonCpuTime <= 0 ? 0 : won3BV * 1e9 / wonCpuTime;
+    }
+
+    /**
+     * Gets a percentile of the CPU time taken to choose a move
+     *
+     * @param percentile percentile (between 0 and 100)
+     * @return move time in nanoseconds (rounded up to the end of its histogram bucket), or 0
+     *         if no moves were made
+     */
+    public long getMoveTimePercentile(double percentile)
+    {
+        if (moves == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(moves * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += histogram[i];
+
+            if (seen >= Math.max(rank, 1))
+                return bucketLimit(i);
+        }
+
+        return bucketLimit(BUCKETS - 1);
+    }
+
+    /**
+     * Gets the histogram bucket of a move time
+     *
+     * @param nanos time in nanoseconds
+     * @return bucket index
+     */
+    static int bucket(long nanos)
+    {
+        if (nanos < 16)
+            return (int) Math.max(nanos, 0);
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int fraction = (int) (nanos >>> (exponent - 3)) & 7;
+
+        return 16 + (exponent - 4) * 8 + fraction;
+    }
+
+    /**
+     * Gets the largest time in a histogram bucket
+     */
+    private static long bucketLimit(int bucket)
+    {
+        if (bucket < 16)
+            return bucket;
+
+        int exponent = (bucket - 16) / 8 + 4;
+        long fraction = (bucket - 16) % 8;
+
+        return ((8 + fraction + 1) << (exponent - 3)) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-16s %5.1f%% won %8.2f 3BV/s  move p50 %s p90 %s p99 %s max %s  forfeits %d crashes %d",
+                name, getWinRate() * 100, get3BVPerSecond(),
+                formatNanos(getMoveTimePercentile(50)), formatNanos(getMoveTimePercentile(90)),
+                formatNanos(getMoveTimePercentile(99)), formatNanos(getMoveTimePercentile(100)),
+                forfeits, crashes);
+    }
+
+    /**
+     * Formats a time for toString
+     */
+    private static String formatNanos(long nanos)
+    {
+        if (nanos < 10000)
+            return nanos + "ns";
+        else if (nanos < 10000000)
+            return (nanos / 1000) + "us";
+        else
+            return (nanos / 1000000) + "ms";
+    }
+}
@@ -0,0 +1,592 @@
+package uk.ac.york.minesweeper;
+
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how responsive the user interface of a {@link MinefieldPanel} is
+ *
+ * When enabled this records:
+ * <ul>
+ * <li>Event dispatch thread (EDT) latency: a watchdog thread regularly posts an empty event
+ *     and measures how long it takes to run. If it takes longer than the stall threshold the
+ *     EDT's stack trace is captured, showing the code responsible for the stall.</li>
+ * <li>The time taken by each paintComponent call and the number of tiles drawn.</li>
+ * <li>Input latency: the time from the mouse event which made a move (or selected a tile) to
+ *     the end of the first paint showing the result.</li>
+ * <li>The number of bytes allocated by each paint and by the game thread while making each
+ *     group of moves (if the JVM supports per-thread allocation counters). Both should be zero
+ *     once the game is running, except for the copy-on-write pages (at most one of each kind per
+ *     page changed) and the snapshot the game thread must make after each update.</li>
+ * </ul>
+ * Stalls, slow paints and slow input are written to a rolling log. The current values can be
+ * drawn as an overlay on the panel.
+ */
+public class UiDiagnostics
+{
+    /** Default time the EDT must be blocked for to count as a stall */
+    public static final long DEFAULT_STALL_THRESHOLD_MS = 200;
+
+    /** Number of entries kept in the log */
+    public static final int LOG_SIZE = 256;
+
+    /** Time between watchdog probes */
+    private static final long PROBE_INTERVAL_MS = 50;
+
+    /** How often the watchdog checks a probe which has not run yet */
+    private static final long PROBE_CHECK_MS = 10;
+
+    /** Paints and input slower than this are logged */
+    private static final long SLOW_NANOS = 50000000L;
+
+    /** Overlay appearance */
+    private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 0xA0);
+    private static final Color OVERLAY_TEXT = Color.WHITE;
+    private static final int OVERLAY_LINES = 6;
+    private static final int OVERLAY_WIDTH = 330;
+    private static final int OVERLAY_PADDING = 4;
+
+    /** Per-thread allocation counters (null if the JVM does not have them) */
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = getThreadBean();
+
+    /** The panel being measured */
+    private final MinefieldPanel panel;
+
+    /** The panel's game thread */
+    private final GameThread gameThread;
+
+    /** True when measurements are being made */
+    private volatile boolean enabled;
+
+    /** True if the overlay is drawn */
+    private boolean overlayVisible;
+
+    /** True if the measurements were only enabled to show the overlay */
+    private boolean enabledByOverlay;
+
+    /** Stall threshold in nanoseconds */
+    private volatile long stallThreshold = DEFAULT_STALL_THRESHOLD_MS * 1000000L;
+
+    /** Watchdog thread (null when disabled) */
+    private Thread watchdog;
+
+    /** Event posted by the watchdog */
+    private final Runnable probe = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            edt = Thread.currentThread();
+            probeRunTime = System.nanoTime();
+            probeDone = true;
+        }
+    };
+
+    /** Probe state (shared between the watchdog and the EDT) */
+    private volatile Thread edt;
+    private volatile long probeRunTime;
+    private volatile boolean probeDone;
+
+    /** Dispatch latency measurements (written by the watchdog) */
+    private volatile long lastDispatchLatency;
+    private volatile long maxDispatchLatency;
+    private volatile int stallCount;
+
+    /** Paint measurements (EDT only) */
+    private long lastPaintTime;
+    private long maxPaintTime;
+    private int lastPaintTiles;
+    private long paintCount;
+    private long paintStartAllocated;
+    private long lastPaintAllocated;
+
+    /** Bytes allocated by all paints and by taking updates since enabled (EDT only) */
+    private long totalPaintAllocated;
+    private long updateStartAllocated;
+    private long totalUpdateAllocated;
+
+    /** Input latency measurements (EDT only) */
+    private long inputTime;
+    private boolean inputWaitsForUpdate;
+    private long lastInputLatency;
+    private long maxInputLatency;
+    private long totalInputLatency;
+    private long inputCount;
+
+    /** Rolling log (guarded by itself) */
+    private final String[] log = new String[LOG_SIZE];
+    private int logNext;
+    private int logCount;
+
+    /**
+     * Creates diagnostics for a panel (initially disabled)
+     *
+     * @param panel the panel
+     * @param gameThread the panel's game thread
+     */
+    UiDiagnostics(MinefieldPanel panel, GameThread gameThread)
+    {
+        this.panel = panel;
+        this.gameThread = gameThread;
+    }
+
+    /**
+     * Returns true if the JVM can count the bytes allocated by each thread
+     *
+     * @return true if supported
+     */
+    static boolean isAllocationCountingSupported()
+    {
+        return THREAD_BEAN != null;
+    }
+
+    /**
+     * Gets the number of bytes allocated by the current thread so far
+     *
+     * @return number of bytes, or 0 if the JVM cannot measure it
+     */
+    static long getThreadAllocatedBytes()
+    {
+        if (THREAD_BEAN == null)
+            return 0;
+
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Gets the thread bean if it supports allocation counters
+     */
+    private static com.sun.management.ThreadMXBean getThreadBean()
+    {
+        try
+        {
+            Object bean = ManagementFactory.getThreadMXBean();
+
+            if (bean instanceof com.sun.management.ThreadMXBean)
+            {
+                com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+
+                if (threadBean.isThreadAllocatedMemorySupported())
+                {
+                    threadBean.setThreadAllocatedMemoryEnabled(true);
+                    return threadBean;
+                }
+            }
+        }
+        catch (LinkageError e)
+        {
+            // Not a HotSpot style JVM
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // Counters cannot be enabled
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns true if measurements are being made
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the measurements and the EDT watchdog
+     *
+     * This must be called on the event dispatch thread.
+     *
+     * @param enabled true to enable
+     */
+    public void setEnabled(boolean enabled)
+    {
+        enabledByOverlay = false;
+        changeEnabled(enabled);
+    }
+
+    /**
+     * Starts or stops the measurements and the EDT watchdog
+     */
+    private void changeEnabled(boolean enabled)
+    {
+        if (enabled == this.enabled)
+            return;
+
+        this.enabled = enabled;
+        gameThread.setMeasuringAllocations(enabled);
+
+        totalPaintAllocated = 0;
+        totalUpdateAllocated = 0;
+
+        if (enabled)
+        {
+            watchdog = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runWatchdog();
+                }
+            }, "EDT watchdog");
+
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
+        else
+        {
+            watchdog.interrupt();
+            watchdog = null;
+        }
+
+        panel.repaint();
+    }
+
+    /**
+     * Returns true if the overlay is shown
+     *
+     * @return true if the overlay is visible
+     */
+    public boolean isOverlayVisible()
+    {
+        return overlayVisible;
+    }
+
+    /**
+     * Shows or hides the overlay
+     *
+     * Showing the overlay also enables the measurements. Hiding it disables them again,
+     * unless they were enabled with {@link #setEnabled(boolean)}.
+     *
+     * @param overlayVisible true to show the overlay
+     */
+    public void setOverlayVisible(boolean overlayVisible)
+    {
+        this.overlayVisible = overlayVisible;
+
+        if (overlayVisible && !enabled)
+        {
+            changeEnabled(true);
+            enabledByOverlay = true;
+        }
+        else if (!overlayVisible && enabledByOverlay)
+        {
+            changeEnabled(false);
+            enabledByOverlay = false;
+        }
+
+        panel.repaint();
+    }
+
+    /**
+     * Gets the time the EDT must be blocked for to count as a stall
+     *
+     * @return threshold in milliseconds
+     */
+    public long getStallThreshold()
+    {
+        return stallThreshold / 1000000L;
+    }
+
+    /**
+     * Sets the time the EDT must be blocked for to count as a stall
+     *
+     * @param milliseconds threshold in milliseconds
+     */
+    public void setStallThreshold(long milliseconds)
+    {
+        if (milliseconds <= 0)
+            throw new IllegalArgumentException("threshold must be positive");
+
+        stallThreshold = milliseconds * 1000000L;
+    }
+
+    /**
+     * Gets the number of EDT stalls detected
+     *
+     * @return number of stalls
+     */
+    public int getStallCount()
+    {
+        return stallCount;
+    }
+
+    /**
+     * Gets the log entries, oldest first
+     *
+     * @return copy of the log
+     */
+    public List<String> getLog()
+    {
+        synchronized (log)
+        {
+            List<String> entries = new ArrayList<String>(logCount);
+
+            for (int i = 0; i < logCount; i++)
+                entries.add(log[(logNext - logCount + i + LOG_SIZE) % LOG_SIZE]);
+
+            return entries;
+        }
+    }
+
+    /**
+     * Adds an entry to the log (and prints it)
+     *
+     * @param message the message
+     */
+    public void log(String message)
+    {
+        String entry = String.format("%tT.%<tL %s", System.currentTimeMillis(), message);
+
+        synchronized (log)
+        {
+            log[logNext] = entry;
+            logNext = (logNext + 1) % LOG_SIZE;
+            logCount = Math.min(logCount + 1, LOG_SIZE);
+        }
+
+        System.err.println(entry);
+    }
+
+    /**
+     * Records a mouse event which will be shown in the next paint
+     *
+     * @param waitForUpdate true if the result is shown by an update from the game thread
+     *                      (otherwise the next paint shows it)
+     */
+    void inputReceived(boolean waitForUpdate)
+    {
+        if (enabled)
+        {
+            inputTime = System.nanoTime();
+            inputWaitsForUpdate = waitForUpdate;
+        }
+    }
+
+    /**
+     * Records that an update from the game thread has been taken
+     *
+     * This starts measuring the bytes allocated while the panel handles the update.
+     */
+    void updateReceived()
+    {
+        inputWaitsForUpdate = false;
+
+        if (enabled)
+            updateStartAllocated = getThreadAllocatedBytes();
+    }
+
+    /**
+     * Records that the panel has finished handling an update (repainting and firing events)
+     */
+    void updateFinished()
+    {
+        if (enabled)
+            totalUpdateAllocated += getThreadAllocatedBytes() - updateStartAllocated;
+    }
+
+    /**
+     * Gets the bytes allocated by all the paints since the measurements were enabled
+     *
+     * @return number of bytes
+     */
+    long getTotalPaintAllocated()
+    {
+        return totalPaintAllocated;
+    }
+
+    /**
+     * Gets the bytes allocated by the panel while handling updates from the game thread since
+     * the measurements were enabled
+     *
+     * @return number of bytes
+     */
+    long getTotalUpdateAllocated()
+    {
+        return totalUpdateAllocated;
+    }
+
+    /**
+     * Records the start of a paint
+     *
+     * @return the start time (from System.nanoTime) to pass to paintFinished
+     */
+    long paintStarted()
+    {
+        if (enabled)
+            paintStartAllocated = getThreadAllocatedBytes();
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a finished paint
+     *
+     * @param startTime time the paint started (from System.nanoTime)
+     * @param tiles number of tiles drawn
+     */
+    void paintFinished(long startTime, int tiles)
+    {
+        if (!enabled)
+            return;
+
+        long now = System.nanoTime();
+        long paintTime = now - startTime;
+        lastPaintAllocated = getThreadAllocatedBytes() - paintStartAllocated;
+        totalPaintAllocated += lastPaintAllocated;
+
+        lastPaintTime = paintTime;
+        maxPaintTime = Math.max(maxPaintTime, paintTime);
+        lastPaintTiles = tiles;
+        paintCount++;
+
+        if (paintTime > SLOW_NANOS)
+            log("Slow paint: " + paintTime / 1000000L + " ms for " + tiles + " tiles");
+
+        // Finish measuring input latency
+        if (inputTime != 0 && !inputWaitsForUpdate)
+        {
+            long latency = now - inputTime;
+
+            lastInputLatency = latency;
+            maxInputLatency = Math.max(maxInputLatency, latency);
+            totalInputLatency += latency;
+            inputCount++;
+            inputTime = 0;
+
+            if (latency > SLOW_NANOS)
+                log("Slow input: " + latency / 1000000L + " ms from mouse event to paint");
+        }
+    }
+
+    /**
+     * Draws the overlay (if visible) in the top left of the visible part of the panel
+     *
+     * @param g graphics object
+     * @param visible visible rectangle of the panel
+     */
+    void paintOverlay(Graphics2D g, Rectangle visible)
+    {
+        if (!overlayVisible)
+            return;
+
+        g.setFont(OVERLAY_FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        int x = visible.x;
+        int y = visible.y;
+
+        g.setColor(OVERLAY_BACKGROUND);
+        g.fillRect(x, y, OVERLAY_WIDTH, OVERLAY_LINES * lineHeight + 2 * OVERLAY_PADDING);
+        g.setColor(OVERLAY_TEXT);
+
+        x += OVERLAY_PADDING;
+        y += OVERLAY_PADDING + metrics.getAscent();
+
+        g.drawString(String.format("EDT latency %6.1f ms (max %.1f)",
+                lastDispatchLatency / 1e6, maxDispatchLatency / 1e6), x, y);
+        g.drawString(String.format("EDT stalls  %d (> %d ms)", stallCount, getStallThreshold()), x, y += lineHeight);
+        g.drawString(String.format("Paint       %6.1f ms (max %.1f), %d tiles",
+                lastPaintTime / 1e6, maxPaintTime / 1e6, lastPaintTiles), x, y += lineHeight);
+        g.drawString(String.format("Input       %6.1f ms (max %.1f, avg %.1f)",
+                lastInputLatency / 1e6, maxInputLatency / 1e6,
+                inputCount == 0 ? 0 : totalInputLatency / 1e6 / inputCount), x, y += lineHeight);
+        g.drawString(String.format("Paints      %d", paintCount), x, y += lineHeight);
+        g.drawString(String.format("Allocated   %d B/paint, %d B/moves",
+                lastPaintAllocated, gameThread.getAllocatedBytes()), x, y += lineHeight);
+    }
+
+    /**
+     * Main method of the watchdog thread
+     */
+    private void runWatchdog()
+    {
+        // Overlay is refreshed every few probes
+        int probes = 0;
+
+        while (enabled)
+        {
+            long posted = System.nanoTime();
+            boolean stalled = false;
+
+            probeDone = false;
+            EventQueue.invokeLater(probe);
+
+            // Wait for the probe to run, capturing the EDT's stack if it takes too long
+            while (!probeDone)
+            {
+                if (!sleep(PROBE_CHECK_MS))
+                    return;
+
+                long waited = System.nanoTime() - posted;
+
+                if (!stalled && waited > stallThreshold)
+                {
+                    stalled = true;
+                    stallCount++;
+                    logStall(waited);
+                }
+            }
+
+            long latency = probeRunTime - posted;
+            lastDispatchLatency = latency;
+            maxDispatchLatency = Math.max(maxDispatchLatency, latency);
+
+            if (stalled)
+                log("EDT stall ended after " + latency / 1000000L + " ms");
+
+            if (overlayVisible && ++probes % 5 == 0)
+                panel.repaint(panel.getVisibleRect());
+
+            if (!sleep(PROBE_INTERVAL_MS))
+                return;
+        }
+    }
+
+    /**
+     * Logs the stack trace of a stalled EDT
+     */
+    private void logStall(long waited)
+    {
+        StringBuilder message = new StringBuilder();
+        message.append("EDT stalled for ").append(waited / 1000000L).append(" ms");
+
+        Thread thread = edt;
+        if (thread != null)
+        {
+            for (StackTraceElement element : thread.getStackTrace())
+                message.append("\n\tat ").append(element);
+        }
+
+        log(message.toString());
+    }
+
+    /**
+     * Sleeps for some time
+     *
+     * @return false if interrupted (the watchdog should stop)
+     */
+    private static boolean sleep(long milliseconds)
+    {
+        try
+        {
+            Thread.sleep(milliseconds);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            return false;
+        }
+    }
+}
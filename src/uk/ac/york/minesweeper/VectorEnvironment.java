@@ -0,0 +1,520 @@
+package uk.ac.york.minesweeper;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.Phaser;
+
+/**
+ * Reinforcement learning environment which steps many independent minefields at once
+ *
+ * Each call to {@link #step} makes one move on every board and writes the observations,
+ * rewards and done flags into arrays supplied by the caller, so nothing is allocated per step.
+ * Boards which finish are immediately reset to a new game (the observation written is the
+ * first observation of the new game). Every game's mines come from a seed derived from the
+ * environment's seed, the board number and the episode number, so runs are repeatable
+ * whatever the number of threads.
+ *
+ * <p>Actions are ints: action = move * tileCount + tile, where move is one of the
+ * Minefield.MOVE_ constants. Agents which only uncover tiles can just use the tile index.</p>
+ *
+ * <p>Observations are bytes, one block of {@link #getObservationSize()} bytes per board:</p>
+ * <ul>
+ * <li>OBSERVATION_CODES: one byte per tile, encoded as in {@link Minefield#getVisibleTile(int)}</li>
+ * <li>OBSERVATION_ONE_HOT: {@link #getPlaneCount()} planes of one byte per tile, each 0 or 1.
+ *     Plane PLANE_VALUES + v is set for tiles uncovered with value v.</li>
+ * </ul>
+ * Tiles are in index order (see {@link Topology}).
+ *
+ * The boards are split between a fixed pool of threads which is kept for the life of the
+ * environment (the calling thread does one share of the work). Only one thread may use the
+ * environment at a time.
+ */
+public class VectorEnvironment implements Closeable
+{
+    /** Observation mode: one byte per tile containing its visible code */
+    public static final int OBSERVATION_CODES = 0;
+
+    /** Observation mode: one plane per kind of tile */
+    public static final int OBSERVATION_ONE_HOT = 1;
+
+    /** One-hot plane of covered tiles (including question marks) */
+    public static final int PLANE_COVERED = 0;
+
+    /** One-hot plane of flagged tiles */
+    public static final int PLANE_FLAGGED = 1;
+
+    /** One-hot plane of uncovered mines */
+    public static final int PLANE_MINE = 2;
+
+    /** One-hot plane of uncovered zeros (the plane of value v is PLANE_VALUES + v) */
+    public static final int PLANE_VALUES = 3;
+
+    /** Number of different moves */
+    private static final int MOVE_COUNT = Minefield.MOVE_QUESTION + 1;
+
+    private final int tileCount;
+    private final int boardCount;
+    private final int safeTiles;
+    private final int observationMode;
+    private final int planeCount;
+    private final int observationSize;
+    private final long seed;
+
+    /** The boards and the number of games started on each */
+    private final Minefield[] boards;
+    private final long[] episodes;
+
+    /** Rewards */
+    private float winReward = 1;
+    private float lossReward = -1;
+    private float progressReward = 0;
+    private float noEffectReward = 0;
+
+    /** Share of the boards handled by each thread (chunk 0 is run by the caller) */
+    private final Chunk[] chunks;
+
+    /** Pool threads (one for each chunk except the first) */
+    private final Thread[] threads;
+
+    /** Used to start the pool threads and wait for them to finish */
+    private final Phaser phaser;
+
+    /** True once closed */
+    private volatile boolean closed;
+
+    /** Arguments of the current call (published to the pool by the phaser) */
+    private int[] stepActions;
+    private byte[] stepObservations;
+    private float[] stepRewards;
+    private boolean[] stepDones;
+
+    /**
+     * Creates an environment
+     *
+     * @param topology shape of every board
+     * @param mines number of mines on each board
+     * @param boardCount number of boards
+     * @param observationMode OBSERVATION_CODES or OBSERVATION_ONE_HOT
+     * @param threads number of threads to use (including the calling thread)
+     * @param seed seed used to generate the games
+     */
+    public VectorEnvironment(Topology topology, int mines, int boardCount, int observationMode,
+                             int threads, long seed)
+    {
+        if (boardCount <= 0)
+            throw new IllegalArgumentException("boardCount must be positive");
+
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+
+        if (observationMode != OBSERVATION_CODES && observationMode != OBSERVATION_ONE_HOT)
+            throw new IllegalArgumentException("invalid observation mode");
+
+        int maxNeighbours = 0;
+        for (int[] offsets : topology.getClassOffsets())
+            maxNeighbours = Math.max(maxNeighbours, offsets.length);
+
+        this.tileCount = topology.getTileCount();
+        this.boardCount = boardCount;
+        this.safeTiles = tileCount - mines;
+        this.observationMode = observationMode;
+        this.planeCount = (observationMode == OBSERVATION_CODES) ? 1 : PLANE_VALUES + maxNeighbours + 1;
+        this.observationSize = planeCount * tileCount;
+        this.seed = seed;
+
+        // Values are calculated lazily so each reset only has to clear the visible pages, and
+        //  the mines are not uncovered at the end since the board is reset straight away
+        this.boards = new Minefield[boardCount];
+        this.episodes = new long[boardCount];
+
+        for (int b = 0; b < boardCount; b++)
+        {
+            boards[b] = new Minefield(topology, mines, gameSeed(b));
+            boards[b].setLazyValues(true);
+            boards[b].setTrackingChanges(true);
+            boards[b].setUncoverMinesAtEnd(false);
+        }
+
+        // Split the boards between the threads
+        threads = Math.min(threads, boardCount);
+        this.chunks = new Chunk[threads];
+
+        for (int i = 0; i < threads; i++)
+            chunks[i] = new Chunk((int) ((long) boardCount * i / threads),
+                                  (int) ((long) boardCount * (i + 1) / threads));
+
+        this.phaser = new Phaser(threads);
+        this.threads = new Thread[threads - 1];
+
+        for (int i = 1; i < threads; i++)
+        {
+            final Chunk chunk = chunks[i];
+
+            this.threads[i - 1] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runPool(chunk);
+                }
+            }, "Environment worker " + i);
+
+            this.threads[i - 1].setDaemon(true);
+            this.threads[i - 1].start();
+        }
+    }
+
+    /**
+     * Gets the number of boards
+     *
+     * @return number of boards
+     */
+    public int getBoardCount()
+    {
+        return boardCount;
+    }
+
+    /**
+     * Gets the number of different actions
+     *
+     * @return number of actions (actions are from 0 to this - 1)
+     */
+    public int getActionCount()
+    {
+        return MOVE_COUNT * tileCount;
+    }
+
+    /**
+     * Gets the number of observation planes
+     *
+     * @return number of planes (1 for OBSERVATION_CODES)
+     */
+    public int getPlaneCount()
+    {
+        return planeCount;
+    }
+
+    /**
+     * Gets the number of bytes in the observation of each board
+     *
+     * @return observation size
+     */
+    public int getObservationSize()
+    {
+        return observationSize;
+    }
+
+    /**
+     * Sets the rewards given for each step
+     *
+     * A move which uncovers n safe tiles is rewarded with progress * n / safe tiles (so
+     * clearing a board earns progress in total), plus win if it wins the game. A move which
+     * loses is rewarded with loss. A move which does nothing (for example uncovering an
+     * uncovered tile or an invalid action) is rewarded with noEffect. The defaults are
+     * win 1, loss -1, progress 0 and noEffect 0.
+     *
+     * @param win reward for winning
+     * @param loss reward for losing
+     * @param progress reward for uncovering all the safe tiles
+     * @param noEffect reward for moves which change nothing
+     */
+    public void setRewards(float win, float loss, float progress, float noEffect)
+    {
+        this.winReward = win;
+        this.lossReward = loss;
+        this.progressReward = progress;
+        this.noEffectReward = noEffect;
+    }
+
+    /**
+     * Gets a snapshot of one of the boards (for example to render it)
+     *
+     * @param board board number
+     * @return snapshot of the board
+     */
+    public Minefield getBoard(int board)
+    {
+        return boards[board].snapshot();
+    }
+
+    /**
+     * Starts a new game on every board
+     *
+     * @param observations array to write the observations of every board into
+     *                     (at least getBoardCount() * getObservationSize() bytes)
+     */
+    public void reset(byte[] observations)
+    {
+        if (observations.length < (long) boardCount * observationSize)
+            throw new IllegalArgumentException("observations array is too small");
+
+        run(null, observations, null, null);
+    }
+
+    /**
+     * Makes one move on every board
+     *
+     * @param actions action for each board
+     * @param observations array to write the observations of every board into
+     *                     (at least getBoardCount() * getObservationSize() bytes)
+     * @param rewards array to write the reward of each board into
+     * @param dones array to write true into for each board whose game finished (and which
+     *              has been reset)
+     */
+    public void step(int[] actions, byte[] observations, float[] rewards, boolean[] dones)
+    {
+        if (actions.length < boardCount || rewards.length < boardCount || dones.length < boardCount)
+            throw new IllegalArgumentException("arrays must have an element for each board");
+
+        if (observations.length < (long) boardCount * observationSize)
+            throw new IllegalArgumentException("observations array is too small");
+
+        run(actions, observations, rewards, dones);
+    }
+
+    /**
+     * Stops the pool threads
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+            return;
+
+        // The pool threads see closed when they next start
+        closed = true;
+        phaser.arriveAndDeregister();
+    }
+
+    /**
+     * Runs a reset (if actions is null) or step on all the chunks
+     */
+    private void run(int[] actions, byte[] observations, float[] rewards, boolean[] dones)
+    {
+        if (closed)
+            throw new IllegalStateException("the environment has been closed");
+
+        stepActions = actions;
+        stepObservations = observations;
+        stepRewards = rewards;
+        stepDones = dones;
+
+        // Start the pool, do the first chunk and wait for the rest
+        if (threads.length > 0)
+            phaser.arriveAndAwaitAdvance();
+
+        runChunk(chunks[0]);
+
+        if (threads.length > 0)
+            phaser.arriveAndAwaitAdvance();
+
+        stepActions = null;
+        stepObservations = null;
+        stepRewards = null;
+        stepDones = null;
+
+        for (Chunk chunk : chunks)
+        {
+            RuntimeException error = chunk.error;
+
+            if (error != null)
+            {
+                chunk.error = null;
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Main method of the pool threads
+     */
+    private void runPool(Chunk chunk)
+    {
+        while (true)
+        {
+            phaser.arriveAndAwaitAdvance();
+
+            if (closed)
+            {
+                phaser.arriveAndDeregister();
+                return;
+            }
+
+            runChunk(chunk);
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    /**
+     * Resets or steps the boards in a chunk
+     */
+    private void runChunk(Chunk chunk)
+    {
+        try
+        {
+            if (stepActions == null)
+            {
+                for (int b = chunk.start; b < chunk.end; b++)
+                    resetBoard(b, stepObservations);
+            }
+            else
+            {
+                for (int b = chunk.start; b < chunk.end; b++)
+                    stepBoard(b, chunk);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            chunk.error = e;
+        }
+    }
+
+    /**
+     * Makes one move on a board and writes the results
+     */
+    private void stepBoard(int b, Chunk chunk)
+    {
+        Minefield minefield = boards[b];
+        byte[] observations = stepObservations;
+        int base = b * observationSize;
+        int action = stepActions[b];
+
+        // Invalid actions get an invalid move (so they are reported as having no effect)
+        if (action >= 0 && action < MOVE_COUNT * tileCount)
+        {
+            chunk.ops[0] = (byte) (action / tileCount);
+            chunk.tiles[0] = action % tileCount;
+        }
+        else
+        {
+            chunk.ops[0] = -1;
+            chunk.tiles[0] = 0;
+        }
+
+        minefield.applyMoves(chunk.ops, chunk.tiles, null, 0, 1, chunk.results);
+
+        // Update the observation from the changed tiles
+        int[] changes = minefield.getChangedTiles();
+        int changeCount = minefield.getChangeCount();
+        int uncovered = 0;
+
+        for (int i = 0; i < changeCount; i++)
+        {
+            int tile = changes[i];
+            byte visible = minefield.getVisibleTile(tile);
+
+            writeTile(observations, base, tile, visible);
+
+            if (visible >= 0)
+                uncovered++;
+        }
+
+        minefield.clearChanges();
+
+        // Work out the reward
+        GameState state = minefield.getGameState();
+        float reward;
+
+        if (state == GameState.LOST)
+            reward = lossReward;
+        else if (chunk.results[0] != Minefield.RESULT_CHANGED)
+            reward = noEffectReward;
+        else
+            reward = progressReward * uncovered / safeTiles;
+
+        if (state == GameState.WON)
+            reward += winReward;
+
+        stepRewards[b] = reward;
+        stepDones[b] = minefield.isFinished();
+
+        if (minefield.isFinished())
+            resetBoard(b, observations);
+    }
+
+    /**
+     * Starts a new game on a board and writes its observation
+     */
+    private void resetBoard(int b, byte[] observations)
+    {
+        int base = b * observationSize;
+
+        episodes[b]++;
+        boards[b].reset(gameSeed(b));
+
+        if (observationMode == OBSERVATION_CODES)
+        {
+            Arrays.fill(observations, base, base + tileCount, Minefield.VISIBLE_COVERED);
+        }
+        else
+        {
+            int covered = base + PLANE_COVERED * tileCount;
+
+            Arrays.fill(observations, base, base + observationSize, (byte) 0);
+            Arrays.fill(observations, covered, covered + tileCount, (byte) 1);
+        }
+    }
+
+    /**
+     * Writes the observation of a single tile
+     */
+    private void writeTile(byte[] observations, int base, int tile, byte visible)
+    {
+        if (observationMode == OBSERVATION_CODES)
+        {
+            observations[base + tile] = visible;
+            return;
+        }
+
+        int plane;
+
+        if (visible >= 0)
+            plane = PLANE_VALUES + visible;
+        else if (visible == Minefield.VISIBLE_MINE)
+            plane = PLANE_MINE;
+        else if (visible == Minefield.VISIBLE_FLAGGED)
+            plane = PLANE_FLAGGED;
+        else
+            plane = PLANE_COVERED;
+
+        for (int p = 0; p < planeCount; p++)
+            observations[base + p * tileCount + tile] = 0;
+
+        observations[base + plane * tileCount + tile] = 1;
+    }
+
+    /**
+     * Gets the seed of the current game on a board
+     */
+    private long gameSeed(int b)
+    {
+        // SplitMix64 finalizer of the seed, board and episode
+        long z = seed + b * 0x9E3779B97F4A7C15L + episodes[b] * 0xD1B54A32D192ED03L;
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The boards handled by one thread and its move buffers
+     */
+    private static final class Chunk
+    {
+        public final int start;
+        public final int end;
+
+        public final byte[] ops = new byte[1];
+        public final int[] tiles = new int[1];
+        public final byte[] results = new byte[1];
+
+        /** Exception thrown by the last call (rethrown on the calling thread) */
+        public RuntimeException error;
+
+        public Chunk(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}